@@ -0,0 +1,754 @@
+/** DJ **/
+package org.recommender101.data;
+
+import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable, memory-efficient variant of the data model. The ratings are stored
+ * in compressed sparse row format (by user) and in a transposed compressed sparse
+ * column format (by item) using dense, sorted internal ids.
+ * No rating objects are kept in memory. The sets and maps returned by the usual
+ * getters are read-only views which create Rating objects on the fly while iterating.
+ * Changing such a Rating object has therefore no effect on the model.
+ *
+ * Recommenders can use the primitive arrays (see e.g. {@link #getUserPointers()})
+ * for cache-friendly iteration. The arrays are handles to the internal data and
+ * must not be modified.
+ * @author DJ
+ *
+ */
+public class CompactDataModel extends DataModel {
+	private static final long serialVersionUID = 1L;
+
+	// The original user ids in ascending order. The position is the internal user index
+	int[] userIds;
+
+	// The original item ids in ascending order. The position is the internal item index
+	int[] itemIds;
+
+	// CSR: The ratings of user u are stored at positions userPtr[u] to userPtr[u+1]-1
+	int[] userPtr;
+
+	// CSR: The internal item index of each rating, ascending within a user
+	int[] itemIdx;
+
+	// CSR: The rating values
+	float[] values;
+
+	// CSC: The ratings of item i are stored at positions itemPtr[i] to itemPtr[i+1]-1
+	int[] itemPtr;
+
+	// CSC: The internal user index of each rating, ascending within an item
+	int[] userIdx;
+
+	// CSC: The position of the rating in the CSR arrays (used to look up the value)
+	int[] valuePos;
+
+	// The average rating of each user (by internal index)
+	float[] userAverages;
+
+	// The user averages as a map, created on first use
+	private Map<Integer, Float> userAverageMap;
+
+	// The view on the ratings per item
+	private Map<Integer, Set<Rating>> ratingsPerItem;
+
+	// =====================================================================================
+
+	/**
+	 * Creates a compact copy of a given data model. Users and items without ratings
+	 * are retained.
+	 * @param dm the data model to copy
+	 */
+	public CompactDataModel(DataModel dm) {
+		this.extraInformation = dm.extraInformation;
+		this.minRatingValue = dm.minRatingValue;
+		this.maxRatingValue = dm.maxRatingValue;
+		this.splitNumber = dm.splitNumber;
+
+		// Collect the ids and remap them to dense indices
+		Set<Rating> source = dm.getRatings();
+		IntOpenHashSet userSet = new IntOpenHashSet(dm.getUsers());
+		IntOpenHashSet itemSet = new IntOpenHashSet(dm.getItems());
+		for (Rating r : source) {
+			userSet.add(r.user);
+			itemSet.add(r.item);
+		}
+		userIds = userSet.toIntArray();
+		itemIds = itemSet.toIntArray();
+		Arrays.sort(userIds);
+		Arrays.sort(itemIds);
+
+		// Copy the ratings into temporary columns
+		int nbRatings = source.size();
+		int[] ru = new int[nbRatings];
+		int[] ri = new int[nbRatings];
+		float[] rv = new float[nbRatings];
+		int k = 0;
+		for (Rating r : source) {
+			ru[k] = Arrays.binarySearch(userIds, r.user);
+			ri[k] = Arrays.binarySearch(itemIds, r.item);
+			rv[k] = r.rating;
+			k++;
+		}
+
+		// Bucket the ratings by item first. Filling the rows item by item
+		// leaves every row sorted by item without comparison sorting.
+		int[] itemStart = countingPointers(ri, itemIds.length);
+		int[] byItem = new int[nbRatings];
+		int[] cursor = Arrays.copyOf(itemStart, itemIds.length);
+		for (k = 0; k < nbRatings; k++) {
+			byItem[cursor[ri[k]]++] = k;
+		}
+
+		userPtr = countingPointers(ru, userIds.length);
+		itemIdx = new int[nbRatings];
+		values = new float[nbRatings];
+		cursor = Arrays.copyOf(userPtr, userIds.length);
+		for (int r : byItem) {
+			int pos = cursor[ru[r]]++;
+			itemIdx[pos] = ri[r];
+			values[pos] = rv[r];
+		}
+
+		// The transpose, again filled in order so that the columns are sorted by user
+		itemPtr = itemStart;
+		userIdx = new int[nbRatings];
+		valuePos = new int[nbRatings];
+		cursor = Arrays.copyOf(itemPtr, itemIds.length);
+		for (int u = 0; u < userIds.length; u++) {
+			for (int p = userPtr[u]; p < userPtr[u + 1]; p++) {
+				int q = cursor[itemIdx[p]]++;
+				userIdx[q] = u;
+				valuePos[q] = p;
+			}
+		}
+
+		// The user averages
+		userAverages = new float[userIds.length];
+		for (int u = 0; u < userIds.length; u++) {
+			float sum = 0;
+			for (int p = userPtr[u]; p < userPtr[u + 1]; p++) {
+				sum += values[p];
+			}
+			int count = userPtr[u + 1] - userPtr[u];
+			userAverages[u] = count > 0 ? sum / count : -1;
+		}
+
+		// Point the inherited fields to the views
+		this.users = Collections.unmodifiableSet(new IdSet(userIds));
+		this.items = Collections.unmodifiableSet(new IdSet(itemIds));
+		this.ratings = new AllRatings();
+		this.ratingsPerUser = new RatingsPerUser();
+		this.ratingsPerItem = new RatingsPerItem();
+		this.averagesDirty = false;
+	}
+
+	/**
+	 * Computes the start pointers of the compressed format (length n+1)
+	 * @param indices the row or column index of each entry
+	 * @param n the number of rows or columns
+	 * @return the pointer array
+	 */
+	static int[] countingPointers(int[] indices, int n) {
+		int[] ptr = new int[n + 1];
+		for (int idx : indices) {
+			ptr[idx + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			ptr[i + 1] += ptr[i];
+		}
+		return ptr;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Returns the internal (dense) index of a user
+	 * @param user the user id
+	 * @return the index or -1 if the user is unknown
+	 */
+	public int getUserIndex(int user) {
+		int idx = Arrays.binarySearch(userIds, user);
+		return idx < 0 ? -1 : idx;
+	}
+
+	/**
+	 * Returns the internal (dense) index of an item
+	 * @param item the item id
+	 * @return the index or -1 if the item is unknown
+	 */
+	public int getItemIndex(int item) {
+		int idx = Arrays.binarySearch(itemIds, item);
+		return idx < 0 ? -1 : idx;
+	}
+
+	/**
+	 * Returns the position of a rating in the CSR arrays
+	 * @param user the user id
+	 * @param item the item id
+	 * @return the position or -1 if there is no such rating
+	 */
+	int getRatingPosition(int user, int item) {
+		int u = Arrays.binarySearch(userIds, user);
+		if (u < 0) {
+			return -1;
+		}
+		int i = Arrays.binarySearch(itemIds, item);
+		if (i < 0) {
+			return -1;
+		}
+		int p = Arrays.binarySearch(itemIdx, userPtr[u], userPtr[u + 1], i);
+		return p < 0 ? -1 : p;
+	}
+
+	/**
+	 * Retrieve a rating for a given user-item pair (binary search in the user's row)
+	 * @param user the user ID
+	 * @param item the item ID
+	 * @return the rating value or -1 in case there is no rating
+	 */
+	@Override
+	public float getRating(int user, int item) {
+		int p = getRatingPosition(user, item);
+		return p < 0 ? -1 : values[p];
+	}
+
+	/**
+	 * Returns a new rating object for a given user/item pair or null if no such rating exists
+	 */
+	@Override
+	public Rating getRatingObject(int user, int item) {
+		int p = getRatingPosition(user, item);
+		return p < 0 ? null : new Rating(user, item, values[p]);
+	}
+
+	/**
+	 * Returns a view on the ratings of a given user
+	 * @param user the user id
+	 * @return the ratings or null if the user is unknown
+	 */
+	@Override
+	public Set<Rating> getRatingsOfUser(Integer user) {
+		return this.ratingsPerUser.get(user);
+	}
+
+	/**
+	 * Returns a view on the ratings per item, backed by the transposed arrays
+	 * @return a map of item ids to the ratings of the item
+	 */
+	@Override
+	public Map<Integer, Set<Rating>> getRatingsPerItem() {
+		return ratingsPerItem;
+	}
+
+	/**
+	 * Returns a view on the ratings of a given item
+	 * @param item the item id
+	 * @return the ratings or null if the item has no ratings
+	 */
+	@Override
+	public Set<Rating> getRatingsOfItem(Integer item) {
+		return ratingsPerItem.get(item);
+	}
+
+	/**
+	 * The ids of the items with at least one rating
+	 */
+	int[] ratedItemIds() {
+		int n = 0;
+		for (int i = 0; i < itemIds.length; i++) {
+			if (itemPtr[i + 1] > itemPtr[i]) n++;
+		}
+		int[] result = new int[n];
+		n = 0;
+		for (int i = 0; i < itemIds.length; i++) {
+			if (itemPtr[i + 1] > itemPtr[i]) result[n++] = itemIds[i];
+		}
+		return result;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Returns the user's average rating
+	 * @param user the user id
+	 * @return the average or -1 in case we have no ratings.
+	 */
+	@Override
+	public float getUserAverageRating(Integer user) {
+		int u = getUserIndex(user);
+		return u < 0 ? -1 : userAverages[u];
+	}
+
+	/**
+	 * Returns the averages of all users with ratings as an unmodifiable map
+	 * @return the map of averages
+	 */
+	@Override
+	public Map<Integer, Float> getUserAverageRatings() {
+		if (userAverageMap == null) {
+			Map<Integer, Float> result = new Int2FloatOpenHashMap(userIds.length);
+			for (int u = 0; u < userIds.length; u++) {
+				if (userPtr[u + 1] > userPtr[u]) {
+					result.put(userIds[u], userAverages[u]);
+				}
+			}
+			userAverageMap = Collections.unmodifiableMap(result);
+		}
+		return userAverageMap;
+	}
+
+	/**
+	 * Nothing to do, the averages are computed at construction time
+	 */
+	@Override
+	public void recalculateUserAverages() {
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Not supported, the model is immutable
+	 */
+	@Override
+	public Rating addRating(int user, int item, float value) {
+		throw new UnsupportedOperationException("CompactDataModel is immutable");
+	}
+
+	/**
+	 * Not supported, the model is immutable
+	 */
+	@Override
+	public Rating addRating(Rating r) {
+		throw new UnsupportedOperationException("CompactDataModel is immutable");
+	}
+
+	/**
+	 * Not supported, the model is immutable
+	 */
+	@Override
+	public void removeRating(Rating r) {
+		throw new UnsupportedOperationException("CompactDataModel is immutable");
+	}
+
+	/**
+	 * Not supported, the model is immutable
+	 */
+	@Override
+	public void removeUserWithRatings(Integer user) {
+		throw new UnsupportedOperationException("CompactDataModel is immutable");
+	}
+
+	/**
+	 * The model is immutable anyway
+	 * @return this data model
+	 */
+	@Override
+	public DataModel unmodifiable() {
+		return this;
+	}
+
+	/**
+	 * The model is immutable
+	 * @return false
+	 */
+	@Override
+	public boolean isModifiable() {
+		return false;
+	}
+
+	// =====================================================================================
+
+	@Override
+	public int getMinUserRatings() {
+		return minGap(userPtr);
+	}
+
+	@Override
+	public int getMaxUserRatings() {
+		return maxGap(userPtr);
+	}
+
+	@Override
+	public int getMinItemRatings() {
+		return minGap(itemPtr);
+	}
+
+	@Override
+	public int getMaxItemRatings() {
+		return maxGap(itemPtr);
+	}
+
+	/**
+	 * The smallest number of entries of a row or column, ignoring empty ones
+	 */
+	static int minGap(int[] ptr) {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < ptr.length - 1; i++) {
+			int size = ptr[i + 1] - ptr[i];
+			if (size > 0 && size < min) min = size;
+		}
+		return min == Integer.MAX_VALUE ? 0 : min;
+	}
+
+	/**
+	 * The largest number of entries of a row or column
+	 */
+	static int maxGap(int[] ptr) {
+		int max = 0;
+		for (int i = 0; i < ptr.length - 1; i++) {
+			int size = ptr[i + 1] - ptr[i];
+			if (size > max) max = size;
+		}
+		return max;
+	}
+
+	// =====================================================================================
+	// Access to the raw arrays
+
+	/** The user ids in ascending order (internal index -> user id) */
+	public int[] getUserIds() {
+		return userIds;
+	}
+
+	/** The item ids in ascending order (internal index -> item id) */
+	public int[] getItemIds() {
+		return itemIds;
+	}
+
+	/** CSR row pointers (length: number of users + 1) */
+	public int[] getUserPointers() {
+		return userPtr;
+	}
+
+	/** CSR internal item indices of the ratings */
+	public int[] getItemIndices() {
+		return itemIdx;
+	}
+
+	/** CSR rating values */
+	public float[] getValues() {
+		return values;
+	}
+
+	/** CSC column pointers (length: number of items + 1) */
+	public int[] getItemPointers() {
+		return itemPtr;
+	}
+
+	/** CSC internal user indices of the ratings */
+	public int[] getUserIndices() {
+		return userIdx;
+	}
+
+	/** CSC positions of the ratings in the CSR value array */
+	public int[] getValuePositions() {
+		return valuePos;
+	}
+
+	// =====================================================================================
+	// The read-only views
+
+	/**
+	 * A sorted array of ids viewed as a set
+	 */
+	static class IdSet extends AbstractSet<Integer> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int[] ids;
+
+		IdSet(int[] ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && Arrays.binarySearch(ids, (Integer) o) >= 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				int pos = 0;
+
+				@Override
+				public boolean hasNext() {
+					return pos < ids.length;
+				}
+
+				@Override
+				public Integer next() {
+					if (pos >= ids.length) {
+						throw new NoSuchElementException();
+					}
+					return ids[pos++];
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+
+	/**
+	 * Iterates over a range of CSR positions [from, to) and creates the rating objects
+	 */
+	class RatingIterator implements Iterator<Rating> {
+		int pos;
+		final int to;
+		int user;
+
+		RatingIterator(int from, int to) {
+			this.pos = from;
+			this.to = to;
+			this.user = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < to;
+		}
+
+		@Override
+		public Rating next() {
+			if (pos >= to) {
+				throw new NoSuchElementException();
+			}
+			// positions only grow, so the user pointer can be advanced
+			while (userPtr[user + 1] <= pos) {
+				user++;
+			}
+			Rating r = new Rating(userIds[user], itemIds[itemIdx[pos]], values[pos]);
+			pos++;
+			return r;
+		}
+	}
+
+	/**
+	 * All ratings of the model
+	 */
+	class AllRatings extends AbstractSet<Rating> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Rating)) {
+				return false;
+			}
+			Rating r = (Rating) o;
+			return getRatingPosition(r.user, r.item) >= 0;
+		}
+
+		@Override
+		public Iterator<Rating> iterator() {
+			return new RatingIterator(0, values.length);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+	}
+
+	/**
+	 * The ratings of one user
+	 */
+	class UserRatings extends AbstractSet<Rating> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int u;
+
+		UserRatings(int u) {
+			this.u = u;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Rating)) {
+				return false;
+			}
+			Rating r = (Rating) o;
+			return r.user == userIds[u] && getRatingPosition(r.user, r.item) >= 0;
+		}
+
+		@Override
+		public Iterator<Rating> iterator() {
+			RatingIterator it = new RatingIterator(userPtr[u], userPtr[u + 1]);
+			it.user = u;
+			return it;
+		}
+
+		@Override
+		public int size() {
+			return userPtr[u + 1] - userPtr[u];
+		}
+	}
+
+	/**
+	 * The ratings of one item
+	 */
+	class ItemRatings extends AbstractSet<Rating> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int i;
+
+		ItemRatings(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Rating)) {
+				return false;
+			}
+			Rating r = (Rating) o;
+			return r.item == itemIds[i] && getRatingPosition(r.user, r.item) >= 0;
+		}
+
+		@Override
+		public Iterator<Rating> iterator() {
+			return new Iterator<Rating>() {
+				int q = itemPtr[i];
+
+				@Override
+				public boolean hasNext() {
+					return q < itemPtr[i + 1];
+				}
+
+				@Override
+				public Rating next() {
+					if (q >= itemPtr[i + 1]) {
+						throw new NoSuchElementException();
+					}
+					Rating r = new Rating(userIds[userIdx[q]], itemIds[i], values[valuePos[q]]);
+					q++;
+					return r;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return itemPtr[i + 1] - itemPtr[i];
+		}
+	}
+
+	/**
+	 * A map of (user or item) ids to their ratings
+	 */
+	abstract class RatingsById extends AbstractMap<Integer, Set<Rating>> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int[] ids;
+
+		RatingsById(int[] ids) {
+			this.ids = ids;
+		}
+
+		/** Returns the view on the ratings of the id at a given index */
+		abstract Set<Rating> ratingsAt(int idx);
+
+		@Override
+		public Set<Rating> get(Object key) {
+			if (!(key instanceof Integer)) {
+				return null;
+			}
+			int idx = Arrays.binarySearch(ids, (Integer) key);
+			return idx < 0 ? null : ratingsAt(idx);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return (key instanceof Integer) && Arrays.binarySearch(ids, (Integer) key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+
+		@Override
+		public Set<Integer> keySet() {
+			return Collections.unmodifiableSet(new IdSet(ids));
+		}
+
+		@Override
+		public Set<Entry<Integer, Set<Rating>>> entrySet() {
+			return new AbstractSet<Entry<Integer, Set<Rating>>>() {
+				@Override
+				public Iterator<Entry<Integer, Set<Rating>>> iterator() {
+					return new Iterator<Entry<Integer, Set<Rating>>>() {
+						int idx = 0;
+
+						@Override
+						public boolean hasNext() {
+							return idx < ids.length;
+						}
+
+						@Override
+						public Entry<Integer, Set<Rating>> next() {
+							if (idx >= ids.length) {
+								throw new NoSuchElementException();
+							}
+							Entry<Integer, Set<Rating>> e = new SimpleImmutableEntry<Integer, Set<Rating>>(ids[idx], ratingsAt(idx));
+							idx++;
+							return e;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return ids.length;
+				}
+			};
+		}
+	}
+
+	/**
+	 * The map of users to their ratings
+	 */
+	class RatingsPerUser extends RatingsById {
+		private static final long serialVersionUID = 1L;
+
+		RatingsPerUser() {
+			super(userIds);
+		}
+
+		@Override
+		Set<Rating> ratingsAt(int idx) {
+			return new UserRatings(idx);
+		}
+	}
+
+	/**
+	 * The map of items to their ratings. Only contains items with ratings.
+	 */
+	class RatingsPerItem extends RatingsById {
+		private static final long serialVersionUID = 1L;
+
+		RatingsPerItem() {
+			super(ratedItemIds());
+		}
+
+		@Override
+		Set<Rating> ratingsAt(int idx) {
+			return new ItemRatings(Arrays.binarySearch(itemIds, ids[idx]));
+		}
+	}
+
+}
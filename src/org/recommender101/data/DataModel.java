@@ -2,9 +2,9 @@
 package org.recommender101.data;
 
 import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
@@ -37,6 +37,15 @@ public class DataModel implements Serializable {
 	// HashMap ratings per user
 	Map<Integer, Set<Rating>> ratingsPerUser = new Int2ObjectOpenHashMap<Set<Rating>>();
 	
+	// Index for constant-time lookups of a rating by user and item (see ratingKey())
+	Long2ObjectOpenHashMap<Rating> ratingIndex = new Long2ObjectOpenHashMap<Rating>();
+	
+	// The ratings per item. Built on first use and dropped whenever ratings are added or removed
+	private transient volatile Map<Integer, Set<Rating>> ratingsPerItem;
+	
+	// The data model whose item index is used (set for unmodifiable views)
+	private DataModel itemIndexOwner = this;
+	
 	// boolean indicating if averages are "dirty"
 	boolean averagesDirty = false;
 
@@ -59,6 +68,9 @@ public class DataModel implements Serializable {
 	// remember the split number. Can be used to store models
 	int splitNumber = -1;
 	
+	// false for the instances returned by unmodifiable()
+	boolean modifiable = true;
+	
 	// =====================================================================================
 
 	/**
@@ -70,7 +82,9 @@ public class DataModel implements Serializable {
 	 */
 	public Rating addRating(int user, int item, float value) {
 		Rating r = new Rating(user,item,value);
-		ratings.add(r);
+		if (ratings.add(r)) {
+			ratingIndex.put(ratingKey(user, item), r);
+		}
 		Set<Rating> userRatings = ratingsPerUser.get(user);
 		if (userRatings == null) {
 			userRatings = new ObjectOpenHashSet<Rating>();
@@ -80,6 +94,7 @@ public class DataModel implements Serializable {
 		users.add(user);
 		items.add(item);
 		averagesDirty = true;
+		ratingsPerItem = null;
 		return r;
 		
 	}
@@ -95,7 +110,9 @@ public class DataModel implements Serializable {
 	 */
 	@SuppressWarnings("JavadocReference")
 	public Rating addRating(Rating r ) {
-		ratings.add(r);
+		if (ratings.add(r)) {
+			ratingIndex.put(ratingKey(r.user, r.item), r);
+		}
 		Set<Rating> userRatings = ratingsPerUser.get(r.user);
 		if (userRatings == null) {
 			userRatings = new ObjectOpenHashSet<Rating>();
@@ -105,6 +122,7 @@ public class DataModel implements Serializable {
 		users.add(r.user);
 		items.add(r.item);
 		averagesDirty = true;
+		ratingsPerItem = null;
 		return r;
 		
 	}
@@ -141,6 +159,46 @@ public class DataModel implements Serializable {
 		return this.ratingsPerUser.get(user);
 	}
 	
+	/**
+	 * Returns the ratings organized by item. The index is built on first use and shared by 
+	 * all users of the data model (and its unmodifiable views) until the ratings change. 
+	 * The returned map and sets must not be modified.
+	 * @return a map of item ids to the ratings of the item
+	 */
+	public Map<Integer, Set<Rating>> getRatingsPerItem() {
+		if (itemIndexOwner != this) {
+			return Collections.unmodifiableMap(itemIndexOwner.getRatingsPerItem());
+		}
+		Map<Integer, Set<Rating>> result = ratingsPerItem;
+		if (result == null) {
+			synchronized (this) {
+				result = ratingsPerItem;
+				if (result == null) {
+					result = new Int2ObjectOpenHashMap<Set<Rating>>();
+					for (Rating r : ratings) {
+						Set<Rating> itemRatings = result.get(r.item);
+						if (itemRatings == null) {
+							itemRatings = new ObjectOpenHashSet<Rating>();
+							result.put(r.item, itemRatings);
+						}
+						itemRatings.add(r);
+					}
+					ratingsPerItem = result;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the set of ratings of a given item
+	 * @param item the item id
+	 * @return the ratings or null if the item has no ratings
+	 */
+	public Set<Rating> getRatingsOfItem(Integer item) {
+		return getRatingsPerItem().get(item);
+	}
+	
 	
 	// =====================================================================================
 
@@ -181,9 +239,20 @@ public class DataModel implements Serializable {
 	public DataModel(DataModel dm)  {
 		// Copy things
 		this.ratings = new ObjectOpenHashSet<Rating>(dm.getRatings());
+		this.ratingIndex = new Long2ObjectOpenHashMap<Rating>(ratings.size());
 		this.ratingsPerUser = new Int2ObjectOpenHashMap<Set<Rating>>();
 		for (Integer i : dm.ratingsPerUser.keySet()) {
-			this.ratingsPerUser.put(i, new ObjectOpenHashSet<Rating>(dm.ratingsPerUser.get(i)));
+			this.ratingsPerUser.put(i, new ObjectOpenHashSet<Rating>());
+		}
+		// Index the copied rating objects (the source might create them on the fly)
+		for (Rating r : ratings) {
+			ratingIndex.put(ratingKey(r.user, r.item), r);
+			Set<Rating> userRatings = ratingsPerUser.get(r.user);
+			if (userRatings == null) {
+				userRatings = new ObjectOpenHashSet<Rating>();
+				ratingsPerUser.put(r.user, userRatings);
+			}
+			userRatings.add(r);
 		}
 		this.users = new IntOpenHashSet(dm.users);
 		this.items = new IntOpenHashSet(dm.items);
@@ -212,8 +281,10 @@ public class DataModel implements Serializable {
 		this.minRatingValue = minRatingValue;
 		this.maxRatingValue = maxRatingValue;
 		this.ratings = new ObjectOpenHashSet<Rating>(trainingData);
+		this.ratingIndex = new Long2ObjectOpenHashMap<Rating>(ratings.size());
 		this.ratingsPerUser = new Int2ObjectOpenHashMap<Set<Rating>>();
 		for (Rating rating : ratings) {
+			ratingIndex.put(ratingKey(rating.user, rating.item), rating);
 			Set<Rating> userRatings = ratingsPerUser.get(rating.user);
 			if (userRatings == null) {
 				userRatings = new ObjectOpenHashSet<Rating>();
@@ -236,17 +307,11 @@ public class DataModel implements Serializable {
 	 * @return the rating value or -1 in case there is no rating 
 	 */
 	public float getRating(int user, int item) {
-		Set<Rating> userRatings = ratingsPerUser.get(user);
-		float result = -1;
-		if (userRatings != null) {
-			// implementation to be improved
-			for (Rating r : userRatings) {
-				if (r.user == user && r.item == item) {
-					return r.rating;
-				}
-			}
+		Rating r = ratingIndex.get(ratingKey(user, item));
+		if (r != null) {
+			return r.rating;
 		}
-		return result;
+		return -1;
 	}
 	
 	/*
@@ -255,16 +320,18 @@ public class DataModel implements Serializable {
 	 */
 	
 	public Rating getRatingObject(int user, int item) {
-		Set<Rating> userRatings = ratingsPerUser.get(user);
-		if (userRatings != null) {
-			// implementation to be improved
-			for (Rating r : userRatings) {
-				if (r.user == user && r.item == item) {
-					return r;
-				}
-			}
-		}
-		return null;
+		return ratingIndex.get(ratingKey(user, item));
+	}
+	
+	/**
+	 * Packs a user/item pair into the key of the rating index. 
+	 * The user id goes into the upper, the item id into the lower 32 bits.
+	 * @param user the user ID
+	 * @param item the item ID
+	 * @return the key
+	 */
+	static long ratingKey(int user, int item) {
+		return ((long) user << 32) | (item & 0xFFFFFFFFL);
 	}
 
 	
@@ -356,6 +423,8 @@ public class DataModel implements Serializable {
 	public void removeRating(Rating r) {
 		// Remove from my ratings
 		ratings.remove(r);
+		ratingIndex.remove(ratingKey(r.user, r.item));
+		ratingsPerItem = null;
 		// Remove from the map
 		Set<Rating> userRatings = ratingsPerUser.get(r.user);
 		if (userRatings != null) {
@@ -380,10 +449,12 @@ public class DataModel implements Serializable {
 		if (ratingsOfUser != null) {
 			for (Rating r : ratingsOfUser) {
 				ratings.remove(r);
+				ratingIndex.remove(ratingKey(r.user, r.item));
 			}
 		}
 		this.ratingsPerUser.remove(user);
 		this.users.remove(user);
+		ratingsPerItem = null;
 	}
 
 	// =====================================================================================
@@ -441,12 +512,23 @@ public class DataModel implements Serializable {
 		dm.minRatingValue = minRatingValue;
 		dm.ratings = Collections.unmodifiableSet(ratings);
 		dm.ratingsPerUser = Collections.unmodifiableMap(ratingsPerUser);
+		dm.ratingIndex = ratingIndex;
 		dm.splitNumber = splitNumber;
 		dm.userAverageRatings = Collections.unmodifiableMap(userAverageRatings);
 		dm.users = Collections.unmodifiableSet(users);
+		dm.itemIndexOwner = itemIndexOwner;
+		dm.modifiable = false;
 		return dm;
 	}
 	
+	/**
+	 * Tells if ratings can be added to and removed from this data model
+	 * @return false for unmodifiable instances
+	 */
+	public boolean isModifiable() {
+		return modifiable;
+	}
+	
 	// =====================================================================================
 	
 	/**
@@ -482,12 +564,13 @@ public class DataModel implements Serializable {
 	 * @return min. number of ratings/item
 	 */
 	public int getMinItemRatings(){
-		Map<Integer, Integer> ratingsPerItem = new Int2IntOpenHashMap();
-		for (Rating r : ratings){
-			Utilities101.incrementMapValue(ratingsPerItem, r.item);
+		Map<Integer, Set<Rating>> ratingsOfItems = getRatingsPerItem();
+		if(ratingsOfItems.isEmpty())return 0;
+		int min = Integer.MAX_VALUE;
+		for (Set<Rating> itemRatings : ratingsOfItems.values()) {
+			if (itemRatings.size() < min) min = itemRatings.size();
 		}
-		if(ratingsPerItem.isEmpty())return 0;
-		else return Collections.min(ratingsPerItem.values());
+		return min;
 	}
 	
 	/**
@@ -495,12 +578,11 @@ public class DataModel implements Serializable {
 	 * @return max. number of ratings/item
 	 */
 	public int getMaxItemRatings(){
-		Map<Integer, Integer> ratingsPerItem = new Int2IntOpenHashMap();
-		for (Rating r : ratings){
-			Utilities101.incrementMapValue(ratingsPerItem, r.item);
+		int max = 0;
+		for (Set<Rating> itemRatings : getRatingsPerItem().values()) {
+			if (itemRatings.size() > max) max = itemRatings.size();
 		}
-		if(ratingsPerItem.isEmpty())return 0;
-		return Collections.max(ratingsPerItem.values());
+		return max;
 	}
 	
 	// =====================================================================================
@@ -47,6 +47,29 @@ public abstract class DataSplitter {
 		return null;
 	};
 
+	/**
+	 * The seed for the random splits, -1 for a different split in every run.
+	 * With a seed, the splits (and the models trained on them) can be reproduced.
+	 */
+	protected long seed = -1;
+
+	/**
+	 * Returns the seed or -1
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the seed for the random splits
+	 * @param seed
+	 */
+	@R101Setting(type=SettingsType.INTEGER, defaultValue="-1", minValue=-1,
+			displayName="Seed", description="The seed for reproducible splits (-1 = random splits)")
+	public void setSeed(String seed) {
+		this.seed = Long.parseLong(seed);
+	}
+
 	// Split data randomly across users or not
 	@R101Setting(type=SettingsType.BOOLEAN, defaultValue="false",
 			displayName="Global Random Split", description="Split data randomly across users or not")
@@ -5,8 +5,11 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.recommender101.data.ParallelRatingFileParser.RatingBuffer;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.gui.annotations.R101Setting;
 import org.recommender101.gui.annotations.R101Setting.SettingsType;
@@ -40,6 +43,9 @@ public class DefaultDataLoader  {
 	public boolean useUnaryRatings = false;
 	protected String separatorString = "\t";
 	
+	// Number of threads for parsing the file. 1 means sequential line-by-line loading
+	protected int parseThreads = 1;
+	
 	
 	/**
 	 * An empty constructor
@@ -107,6 +113,13 @@ public class DefaultDataLoader  {
 	 * The method can be overwritten in a subclass
 	 */
 	public void loadData(DataModel dm) throws Exception {
+		if (parseThreads > 1) {
+			int counter = addParsedRatings(dm, parseInParallel(false), null);
+			Debug.log("DefaultDataLoader:loadData: Loaded " + counter + " ratings with " + parseThreads + " threads");
+			Debug.log("DefaultDataLoader:loadData: " + dm.getUsers().size() + " users and " + dm.getItems().size() + " items.");
+			applyConstraints(dm);
+			return;
+		}
 		int counter = 0;
 		// Read the file line by line and add the ratings to the data model.
 		BufferedReader reader = new BufferedReader(new FileReader(filename));
@@ -140,6 +153,43 @@ public class DefaultDataLoader  {
 	
 	// =====================================================================================
 
+	/**
+	 * Parses the file with parseThreads threads
+	 * @param withTimestamps should the fourth column be parsed
+	 * @return the parsed ratings in file order
+	 */
+	protected List<RatingBuffer> parseInParallel(boolean withTimestamps) throws Exception {
+		return new ParallelRatingFileParser(getFilename(), separatorString, withTimestamps, parseThreads).parse();
+	}
+	
+	/**
+	 * Adds the parsed ratings to the data model in file order, respecting maxLines
+	 * @param dm the data model
+	 * @param buffers the parsed ratings
+	 * @param timestamps if not null, the timestamps are put into this map
+	 * @return the number of added ratings
+	 */
+	protected int addParsedRatings(DataModel dm, List<RatingBuffer> buffers, Map<Rating, Long> timestamps) {
+		int counter = 0;
+		Rating r;
+		for (RatingBuffer buffer : buffers) {
+			for (int i = 0; i < buffer.size(); i++) {
+				r = dm.addRating(buffer.getUser(i), buffer.getItem(i), buffer.getRating(i));
+				if (timestamps != null) {
+					timestamps.put(r, buffer.getTimestamp(i));
+				}
+				counter++;
+				if (maxLines != -1 && counter >= maxLines) {
+					System.out.println("DataLoader: Stopping after " + (counter)  + " lines for debug");
+					return counter;
+				}
+			}
+		}
+		return counter;
+	}
+	
+	// =====================================================================================
+
 	
 	/**
 	 * Sets the file name
@@ -268,7 +318,16 @@ public class DefaultDataLoader  {
 		this.separatorString = value;
 	}
 	
-	
-
+	/**
+	 * The number of threads used to parse the input file. Values above 1 switch to the parallel parser
+	 * which reads the file in byte ranges and does not create Strings per line. The separator is then
+	 * matched literally and not as a regular expression.
+	 * @param n the number of threads
+	 */
+	@R101Setting(description="Number of threads used for parsing the input file (1 = sequential)", type=SettingsType.INTEGER,
+			defaultValue="1", displayName="Parser threads", minValue=1, maxValue=Integer.MAX_VALUE)
+	public void setParseThreads(String n) {
+		this.parseThreads = Integer.parseInt(n);
+	}
 
 }
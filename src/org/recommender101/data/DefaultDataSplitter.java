@@ -5,6 +5,7 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -59,12 +60,21 @@ public class DefaultDataSplitter extends DataSplitter {
 			result.add(new ObjectOpenHashSet<Rating>(dataModel.getRatings().size()/nbFolds));
 		}
 		
+		// With a seed, the ratings are sorted first, so that the split does not depend on the order of the sets
+		Random rnd = random;
+		if (seed >= 0) {
+			rnd = new Random(seed);
+		}
+		
 		// Split data randomly across users
 		if (this.globalRandomSplit) {
 			// Use an array to shuffle things
 			List<Rating> ratingsCopy = new ArrayList<Rating>(dataModel.getRatings());
+			if (seed >= 0) {
+				Collections.sort(ratingsCopy, BY_USER_AND_ITEM);
+			}
 			// Shuffle the ratings first
-			Collections.shuffle(ratingsCopy);
+			Collections.shuffle(ratingsCopy, rnd);
 			// distribute the ratings round robin to the bins
 			int i = 0;
 			for (Rating r : ratingsCopy)  {
@@ -75,14 +85,21 @@ public class DefaultDataSplitter extends DataSplitter {
 		}
 		// Distribute things per user
 		else {
+			List<Integer> users = new ArrayList<Integer>(dataModel.getUsers());
+			if (seed >= 0) {
+				Collections.sort(users);
+			}
 			// Get the ratings each user
-			for (Integer user : dataModel.getUsers()){
+			for (Integer user : users){
 				// Get a copy to shuffle
 				List<Rating> ratingsCopy = new ArrayList<Rating> (dataModel.getRatingsOfUser(user));
-				Collections.shuffle(ratingsCopy);
+				if (seed >= 0) {
+					Collections.sort(ratingsCopy, BY_USER_AND_ITEM);
+				}
+				Collections.shuffle(ratingsCopy, rnd);
 				// distribute to the bins
 				// do not start with 0 all the time as this leads to unbalanced bins
-				int i = random.nextInt(nbFolds);
+				int i = rnd.nextInt(nbFolds);
 				for (Rating r : ratingsCopy) {
 					result.get(i%nbFolds).add(r);
 					i++;
@@ -93,6 +110,19 @@ public class DefaultDataSplitter extends DataSplitter {
 
 	}
 	
+	/**
+	 * Orders ratings by user and item
+	 */
+	static final Comparator<Rating> BY_USER_AND_ITEM = new Comparator<Rating>() {
+		@Override
+		public int compare(Rating r1, Rating r2) {
+			if (r1.user != r2.user) {
+				return Integer.compare(r1.user, r2.user);
+			}
+			return Integer.compare(r1.item, r2.item);
+		}
+	};
+	
 	public List<Set<Rating>>getSpecialTestSplits() {
 		return this.smallSplits;
 	}
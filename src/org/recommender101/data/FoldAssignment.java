@@ -0,0 +1,191 @@
+/** DJ **/
+package org.recommender101.data;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ratings of a cross-validation split, stored once for all rounds. Every rating
+ * remembers the fold it belongs to, the training and test data of a round are then
+ * only views on these arrays (see {@link FoldDataModel}) instead of copies of the data.
+ *
+ * The ratings are kept in compressed sparse row format (by user, sorted by item) with
+ * a transposed index by item, like in the {@link CompactDataModel}. In contrast to the
+ * compact model, the original rating objects are kept, so that the extra information
+ * (e.g. time stamps) stored for them can still be found.
+ * @author DJ
+ *
+ */
+public class FoldAssignment implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// The user and item ids in ascending order (position = internal index)
+	final int[] userIds;
+	final int[] itemIds;
+
+	// CSR: the ratings of user u are at positions userPtr[u] to userPtr[u+1]-1
+	final int[] userPtr;
+	final int[] itemIdx;
+	final Rating[] ratings;
+
+	// The fold of the rating at each CSR position
+	final byte[] folds;
+
+	// CSC: the ratings of item i are at positions itemPtr[i] to itemPtr[i+1]-1 (as CSR positions)
+	final int[] itemPtr;
+	final int[] positionsByItem;
+
+	final int nbFolds;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the fold assignment from the folds returned by a data splitter
+	 * @param splits the folds
+	 * @return the assignment or null if the folds overlap or there are too many of them
+	 */
+	public static FoldAssignment create(List<Set<Rating>> splits) {
+		if (splits.size() > Byte.MAX_VALUE) {
+			return null;
+		}
+		FoldAssignment result = new FoldAssignment(splits);
+		return result.hasDuplicates() ? null : result;
+	}
+
+	/**
+	 * Builds the arrays
+	 */
+	FoldAssignment(List<Set<Rating>> splits) {
+		nbFolds = splits.size();
+		IntOpenHashSet userSet = new IntOpenHashSet();
+		IntOpenHashSet itemSet = new IntOpenHashSet();
+		int n = 0;
+		for (Set<Rating> split : splits) {
+			for (Rating r : split) {
+				userSet.add(r.user);
+				itemSet.add(r.item);
+			}
+			n += split.size();
+		}
+		userIds = userSet.toIntArray();
+		itemIds = itemSet.toIntArray();
+		Arrays.sort(userIds);
+		Arrays.sort(itemIds);
+
+		// Temporary columns in split order
+		Rating[] source = new Rating[n];
+		byte[] sourceFolds = new byte[n];
+		int[] ru = new int[n];
+		int[] ri = new int[n];
+		int k = 0;
+		for (int f = 0; f < splits.size(); f++) {
+			for (Rating r : splits.get(f)) {
+				source[k] = r;
+				sourceFolds[k] = (byte) f;
+				ru[k] = Arrays.binarySearch(userIds, r.user);
+				ri[k] = Arrays.binarySearch(itemIds, r.item);
+				k++;
+			}
+		}
+
+		// Bucket by item first, so that the rows are sorted by item when they are filled
+		int[] itemStart = CompactDataModel.countingPointers(ri, itemIds.length);
+		int[] byItem = new int[n];
+		int[] cursor = Arrays.copyOf(itemStart, itemIds.length);
+		for (k = 0; k < n; k++) {
+			byItem[cursor[ri[k]]++] = k;
+		}
+		userPtr = CompactDataModel.countingPointers(ru, userIds.length);
+		itemIdx = new int[n];
+		ratings = new Rating[n];
+		folds = new byte[n];
+		cursor = Arrays.copyOf(userPtr, userIds.length);
+		for (int r : byItem) {
+			int pos = cursor[ru[r]]++;
+			itemIdx[pos] = ri[r];
+			ratings[pos] = source[r];
+			folds[pos] = sourceFolds[r];
+		}
+
+		// The transposed index
+		itemPtr = itemStart;
+		positionsByItem = new int[n];
+		cursor = Arrays.copyOf(itemPtr, itemIds.length);
+		for (int u = 0; u < userIds.length; u++) {
+			for (int p = userPtr[u]; p < userPtr[u + 1]; p++) {
+				positionsByItem[cursor[itemIdx[p]]++] = p;
+			}
+		}
+	}
+
+	/**
+	 * Is a user/item pair contained in more than one fold?
+	 */
+	boolean hasDuplicates() {
+		for (int u = 0; u < userIds.length; u++) {
+			for (int p = userPtr[u] + 1; p < userPtr[u + 1]; p++) {
+				if (itemIdx[p] == itemIdx[p - 1]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The training data of a round: all ratings which are not in the given fold
+	 * @param fold the test fold of the round
+	 * @param extraInformation the extra information of the full data model
+	 * @param minRatingValue the min rating
+	 * @param maxRatingValue the max rating
+	 * @return a view on the training ratings
+	 */
+	public DataModel trainingModel(int fold, Map<Object, Object> extraInformation, float minRatingValue, float maxRatingValue) {
+		return new FoldDataModel(this, fold, false, extraInformation, minRatingValue, maxRatingValue);
+	}
+
+	/**
+	 * The test data of a round: the ratings of the given fold
+	 * @param fold the test fold of the round
+	 * @param minRatingValue the min rating
+	 * @param maxRatingValue the max rating
+	 * @return a view on the test ratings
+	 */
+	public DataModel testModel(int fold, float minRatingValue, float maxRatingValue) {
+		return new FoldDataModel(this, fold, true, null, minRatingValue, maxRatingValue);
+	}
+
+	/**
+	 * The number of folds
+	 */
+	public int getNbFolds() {
+		return nbFolds;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Returns the CSR position of a user/item pair
+	 * @return the position or -1 if there is no such rating
+	 */
+	int position(int user, int item) {
+		int u = Arrays.binarySearch(userIds, user);
+		if (u < 0) {
+			return -1;
+		}
+		int i = Arrays.binarySearch(itemIds, item);
+		if (i < 0) {
+			return -1;
+		}
+		int p = Arrays.binarySearch(itemIdx, userPtr[u], userPtr[u + 1], i);
+		return p < 0 ? -1 : p;
+	}
+
+}
@@ -0,0 +1,608 @@
+/** DJ **/
+package org.recommender101.data;
+
+import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * The training or test data of one cross-validation round as a view on a {@link FoldAssignment}.
+ * Nothing is copied: the ratings of the round are found by looking at the fold of each rating.
+ * The users, items, counts and averages of the view are computed on first use and cached.
+ *
+ * Ratings can be removed (as needed for given-n experiments), adding ratings is not supported.
+ * The sets and maps returned by the getters are read-only views.
+ * @author DJ
+ *
+ */
+public class FoldDataModel extends DataModel {
+	private static final long serialVersionUID = 1L;
+
+	// The ratings of all folds
+	final FoldAssignment base;
+
+	// The test fold of the round
+	final int fold;
+
+	// Is this the test data (the ratings of the fold) or the training data (all others)?
+	final boolean test;
+
+	// The removed ratings, shared with the unmodifiable views of this model
+	final Removals removals;
+
+	// Set for the views returned by unmodifiable()
+	final boolean readOnly;
+
+	// The index of the visible ratings, rebuilt after removals
+	private transient volatile Index index;
+
+	// The view on the ratings per item
+	private final Map<Integer, Set<Rating>> ratingsPerItemView;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the view
+	 * @param base the ratings of all folds
+	 * @param fold the test fold
+	 * @param test true for the test data, false for the training data
+	 * @param extraInformation the extra information map, can be null
+	 * @param minRatingValue the min rating
+	 * @param maxRatingValue the max rating
+	 */
+	FoldDataModel(FoldAssignment base, int fold, boolean test, Map<Object, Object> extraInformation,
+			float minRatingValue, float maxRatingValue) {
+		this.base = base;
+		this.fold = fold;
+		this.test = test;
+		this.removals = new Removals();
+		this.readOnly = false;
+		if (extraInformation != null) {
+			this.extraInformation = extraInformation;
+		}
+		this.minRatingValue = minRatingValue;
+		this.maxRatingValue = maxRatingValue;
+		this.users = new VisibleIds(USERS);
+		this.items = new VisibleIds(ITEMS);
+		this.ratings = new AllRatings();
+		this.ratingsPerUser = new RatingsById(true);
+		this.ratingsPerItemView = new RatingsById(false);
+	}
+
+	/**
+	 * A read-only view on another fold view
+	 */
+	private FoldDataModel(FoldDataModel other) {
+		this.base = other.base;
+		this.fold = other.fold;
+		this.test = other.test;
+		this.removals = other.removals;
+		this.readOnly = true;
+		this.extraInformation = Collections.unmodifiableMap(other.extraInformation);
+		this.minRatingValue = other.minRatingValue;
+		this.maxRatingValue = other.maxRatingValue;
+		this.splitNumber = other.splitNumber;
+		this.users = new VisibleIds(USERS);
+		this.items = new VisibleIds(ITEMS);
+		this.ratings = new AllRatings();
+		this.ratingsPerUser = new RatingsById(true);
+		this.ratingsPerItemView = new RatingsById(false);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Does the rating at a CSR position belong to this view?
+	 */
+	boolean visible(int p) {
+		return (base.folds[p] == fold) == test && !removals.contains(p);
+	}
+
+	/**
+	 * Returns the index of the visible ratings and builds it if needed
+	 */
+	Index index() {
+		Index result = index;
+		if (result == null || result.modCount != removals.modCount) {
+			synchronized (this) {
+				result = index;
+				if (result == null || result.modCount != removals.modCount) {
+					result = new Index();
+					index = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts and averages of the visible ratings.
+	 * As in the DataModel, removing single ratings does not remove the user or the item
+	 * from the model, only removeUserWithRatings() removes the user.
+	 */
+	class Index {
+		final int modCount = removals.modCount;
+		int size = 0;
+		final int[] userCount = new int[base.userIds.length];
+		final int[] itemCount = new int[base.itemIds.length];
+		final float[] userAverages = new float[base.userIds.length];
+		final boolean[] userPresent = new boolean[base.userIds.length];
+		final boolean[] itemPresent = new boolean[base.itemIds.length];
+		// The users and items of the model and the items which still have ratings
+		final int[] userIds;
+		final int[] itemIds;
+		final int[] ratedItemIds;
+		volatile Map<Integer, Float> averageMap;
+
+		Index() {
+			for (int u = 0; u < userCount.length; u++) {
+				float sum = 0;
+				for (int p = base.userPtr[u]; p < base.userPtr[u + 1]; p++) {
+					if ((base.folds[p] == fold) != test) {
+						continue;
+					}
+					itemPresent[base.itemIdx[p]] = true;
+					userPresent[u] = !removals.containsUser(u);
+					if (!removals.contains(p)) {
+						userCount[u]++;
+						itemCount[base.itemIdx[p]]++;
+						sum += base.ratings[p].rating;
+					}
+				}
+				size += userCount[u];
+				userAverages[u] = userCount[u] > 0 ? sum / userCount[u] : -1;
+			}
+			userIds = ids(base.userIds, userPresent);
+			itemIds = ids(base.itemIds, itemPresent);
+			boolean[] rated = new boolean[itemCount.length];
+			for (int i = 0; i < rated.length; i++) {
+				rated[i] = itemCount[i] > 0;
+			}
+			ratedItemIds = ids(base.itemIds, rated);
+		}
+
+		int[] ids(int[] ids, boolean[] selected) {
+			int n = 0;
+			for (boolean b : selected) {
+				if (b) n++;
+			}
+			int[] result = new int[n];
+			n = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (selected[i]) result[n++] = ids[i];
+			}
+			return result;
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Retrieve a rating for a given user-item pair
+	 * @param user the user ID
+	 * @param item the item ID
+	 * @return the rating value or -1 in case there is no rating
+	 */
+	@Override
+	public float getRating(int user, int item) {
+		int p = base.position(user, item);
+		return p >= 0 && visible(p) ? base.ratings[p].rating : -1;
+	}
+
+	/**
+	 * Returns the rating object for a given user/item pair or null
+	 */
+	@Override
+	public Rating getRatingObject(int user, int item) {
+		int p = base.position(user, item);
+		return p >= 0 && visible(p) ? base.ratings[p] : null;
+	}
+
+	@Override
+	public Map<Integer, Set<Rating>> getRatingsPerItem() {
+		return ratingsPerItemView;
+	}
+
+	@Override
+	public Set<Rating> getRatingsOfItem(Integer item) {
+		return ratingsPerItemView.get(item);
+	}
+
+	@Override
+	public float getUserAverageRating(Integer user) {
+		int u = Arrays.binarySearch(base.userIds, user);
+		if (u < 0) {
+			return -1;
+		}
+		return index().userAverages[u];
+	}
+
+	/**
+	 * Returns the averages of all users of the view as an unmodifiable map
+	 */
+	@Override
+	public Map<Integer, Float> getUserAverageRatings() {
+		Index idx = index();
+		Map<Integer, Float> result = idx.averageMap;
+		if (result == null) {
+			Map<Integer, Float> averages = new Int2FloatOpenHashMap(idx.userIds.length);
+			for (int u = 0; u < base.userIds.length; u++) {
+				if (idx.userCount[u] > 0) {
+					averages.put(base.userIds[u], idx.userAverages[u]);
+				}
+			}
+			result = Collections.unmodifiableMap(averages);
+			idx.averageMap = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Nothing to do, the averages are updated automatically after removals
+	 */
+	@Override
+	public void recalculateUserAverages() {
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Not supported, fold views cannot be extended
+	 */
+	@Override
+	public Rating addRating(int user, int item, float value) {
+		throw new UnsupportedOperationException("Ratings cannot be added to a fold view");
+	}
+
+	/**
+	 * Not supported, fold views cannot be extended
+	 */
+	@Override
+	public Rating addRating(Rating r) {
+		throw new UnsupportedOperationException("Ratings cannot be added to a fold view");
+	}
+
+	/**
+	 * Removes a rating from the view (not from the other views of the fold assignment)
+	 */
+	@Override
+	public void removeRating(Rating r) {
+		checkWritable();
+		int p = base.position(r.user, r.item);
+		if (p >= 0 && visible(p)) {
+			removals.add(p);
+		}
+	}
+
+	/**
+	 * Removes the user and his ratings from the view
+	 */
+	@Override
+	public void removeUserWithRatings(Integer user) {
+		checkWritable();
+		int u = Arrays.binarySearch(base.userIds, user);
+		if (u < 0) {
+			return;
+		}
+		removals.addUser(u, base.userPtr[u], base.userPtr[u + 1]);
+	}
+
+	/**
+	 * Returns a view which cannot be modified but sees later removals from this model
+	 */
+	@Override
+	public DataModel unmodifiable() {
+		if (readOnly) {
+			return this;
+		}
+		return new FoldDataModel(this);
+	}
+
+	/**
+	 * Fold views cannot be extended, so they never count as modifiable
+	 */
+	@Override
+	public boolean isModifiable() {
+		return false;
+	}
+
+	void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Unmodifiable data model");
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The removed CSR positions
+	 */
+	static class Removals implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		BitSet removed = null;
+		BitSet removedUsers = null;
+		volatile int modCount = 0;
+
+		boolean contains(int p) {
+			return removed != null && removed.get(p);
+		}
+
+		boolean containsUser(int u) {
+			return removedUsers != null && removedUsers.get(u);
+		}
+
+		/** Removes a user (by internal index) and the ratings at the given positions */
+		synchronized void addUser(int u, int from, int to) {
+			if (removed == null) {
+				removed = new BitSet();
+			}
+			if (removedUsers == null) {
+				removedUsers = new BitSet();
+			}
+			removed.set(from, to);
+			removedUsers.set(u);
+			modCount++;
+		}
+
+		synchronized void add(int p) {
+			if (removed == null) {
+				removed = new BitSet();
+			}
+			removed.set(p);
+			modCount++;
+		}
+	}
+
+	// =====================================================================================
+	// The read-only views
+
+	// The kinds of id sets
+	static final int USERS = 0;
+	static final int ITEMS = 1;
+	static final int RATED_ITEMS = 2;
+
+	/**
+	 * The ids of the users or items of the view
+	 */
+	class VisibleIds extends AbstractSet<Integer> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int kind;
+
+		VisibleIds(int kind) {
+			this.kind = kind;
+		}
+
+		int[] ids() {
+			Index idx = index();
+			return kind == USERS ? idx.userIds : kind == ITEMS ? idx.itemIds : idx.ratedItemIds;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && Arrays.binarySearch(ids(), (Integer) o) >= 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			final int[] ids = ids();
+			return new Iterator<Integer>() {
+				int pos = 0;
+
+				@Override
+				public boolean hasNext() {
+					return pos < ids.length;
+				}
+
+				@Override
+				public Integer next() {
+					if (pos >= ids.length) {
+						throw new NoSuchElementException();
+					}
+					return ids[pos++];
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ids().length;
+		}
+	}
+
+	/**
+	 * Iterates over the visible ratings of a range [from, to) of a position array
+	 * (the CSR positions themselves if the array is null)
+	 */
+	class RatingIterator implements Iterator<Rating> {
+		final int[] positions;
+		final int to;
+		int k;
+
+		RatingIterator(int[] positions, int from, int to) {
+			this.positions = positions;
+			this.k = from;
+			this.to = to;
+			skip();
+		}
+
+		void skip() {
+			while (k < to && !visible(positions == null ? k : positions[k])) {
+				k++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return k < to;
+		}
+
+		@Override
+		public Rating next() {
+			if (k >= to) {
+				throw new NoSuchElementException();
+			}
+			Rating r = base.ratings[positions == null ? k : positions[k]];
+			k++;
+			skip();
+			return r;
+		}
+	}
+
+	/**
+	 * All ratings of the view
+	 */
+	class AllRatings extends AbstractSet<Rating> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Rating)) {
+				return false;
+			}
+			Rating r = (Rating) o;
+			int p = base.position(r.user, r.item);
+			return p >= 0 && visible(p);
+		}
+
+		@Override
+		public Iterator<Rating> iterator() {
+			return new RatingIterator(null, 0, base.ratings.length);
+		}
+
+		@Override
+		public int size() {
+			return index().size;
+		}
+	}
+
+	/**
+	 * The ratings of one user (by internal index) or one item
+	 */
+	class RatingsOf extends AbstractSet<Rating> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final boolean ofUser;
+		final int idx;
+
+		RatingsOf(boolean ofUser, int idx) {
+			this.ofUser = ofUser;
+			this.idx = idx;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Rating)) {
+				return false;
+			}
+			Rating r = (Rating) o;
+			if (ofUser ? r.user != base.userIds[idx] : r.item != base.itemIds[idx]) {
+				return false;
+			}
+			int p = base.position(r.user, r.item);
+			return p >= 0 && visible(p);
+		}
+
+		@Override
+		public Iterator<Rating> iterator() {
+			if (ofUser) {
+				return new RatingIterator(null, base.userPtr[idx], base.userPtr[idx + 1]);
+			}
+			return new RatingIterator(base.positionsByItem, base.itemPtr[idx], base.itemPtr[idx + 1]);
+		}
+
+		@Override
+		public int size() {
+			return ofUser ? index().userCount[idx] : index().itemCount[idx];
+		}
+	}
+
+	/**
+	 * The map of the users to their ratings (users without remaining ratings included)
+	 * or of the items to their ratings (only items with ratings)
+	 */
+	class RatingsById extends AbstractMap<Integer, Set<Rating>> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final boolean byUser;
+		final Set<Integer> keys;
+
+		RatingsById(boolean byUser) {
+			this.byUser = byUser;
+			this.keys = byUser ? users : new VisibleIds(RATED_ITEMS);
+		}
+
+		/** The internal index of a key of the map or -1 */
+		int indexOf(Object key) {
+			if (!(key instanceof Integer)) {
+				return -1;
+			}
+			int idx = Arrays.binarySearch(byUser ? base.userIds : base.itemIds, (Integer) key);
+			if (idx < 0) {
+				return -1;
+			}
+			boolean present = byUser ? index().userPresent[idx] : index().itemCount[idx] > 0;
+			return present ? idx : -1;
+		}
+
+		@Override
+		public Set<Rating> get(Object key) {
+			int idx = indexOf(key);
+			return idx < 0 ? null : new RatingsOf(byUser, idx);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return keySet().size();
+		}
+
+		@Override
+		public Set<Integer> keySet() {
+			return keys;
+		}
+
+		@Override
+		public Set<Entry<Integer, Set<Rating>>> entrySet() {
+			return new AbstractSet<Entry<Integer, Set<Rating>>>() {
+				@Override
+				public Iterator<Entry<Integer, Set<Rating>>> iterator() {
+					final Iterator<Integer> ids = keySet().iterator();
+					return new Iterator<Entry<Integer, Set<Rating>>>() {
+						@Override
+						public boolean hasNext() {
+							return ids.hasNext();
+						}
+
+						@Override
+						public Entry<Integer, Set<Rating>> next() {
+							Integer id = ids.next();
+							return new SimpleImmutableEntry<Integer, Set<Rating>>(id, get(id));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return RatingsById.this.size();
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,407 @@
+/** DJ **/
+package org.recommender101.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a text rating file (user sep item sep rating [sep timestamp]) with several threads.
+ * The file is cut into byte ranges which are aligned on line breaks, every thread maps its range
+ * and parses the numbers directly from the bytes without creating Strings.
+ * The results are returned per range in file order, so that they can be added to a data model
+ * in the same order as the sequential loader would do it.
+ *
+ * Differences to the sequential loader: the separator is matched literally (not as a regular expression)
+ * and lines that only consist of white space are skipped.
+ * @author DJ
+ *
+ */
+public class ParallelRatingFileParser {
+
+	// A single mapping must not exceed 2GB, we stay well below
+	static final long MAX_CHUNK_BYTES = 1L << 28;
+
+	final String filename;
+	final byte[] separator;
+	final boolean withTimestamps;
+	final int nbThreads;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the parser
+	 * @param filename the file to parse
+	 * @param separatorString the column separator
+	 * @param withTimestamps should the fourth column be parsed as well
+	 * @param nbThreads the number of parser threads
+	 */
+	public ParallelRatingFileParser(String filename, String separatorString, boolean withTimestamps, int nbThreads) {
+		if (separatorString == null || separatorString.isEmpty()) {
+			throw new IllegalArgumentException("Empty separator string");
+		}
+		this.filename = filename;
+		this.separator = separatorString.getBytes(StandardCharsets.UTF_8);
+		this.withTimestamps = withTimestamps;
+		this.nbThreads = Math.max(1, nbThreads);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Parses the file
+	 * @return the parsed ratings, one buffer per byte range in file order
+	 * @throws Exception
+	 */
+	public List<RatingBuffer> parse() throws Exception {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			final FileChannel channel = file.getChannel();
+			long[] bounds = chunkBounds(channel);
+			List<Future<RatingBuffer>> futures = new ArrayList<Future<RatingBuffer>>();
+			for (int i = 0; i < bounds.length - 1; i++) {
+				final long start = bounds[i];
+				final long end = bounds[i + 1];
+				futures.add(executor.submit(() -> parseRange(channel, start, end)));
+			}
+			List<RatingBuffer> result = new ArrayList<RatingBuffer>(futures.size());
+			for (Future<RatingBuffer> future : futures) {
+				try {
+					result.add(future.get());
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+			return result;
+		}
+		finally {
+			executor.shutdownNow();
+			file.close();
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Cuts the file in ranges. Every range except the first starts directly after a line break.
+	 */
+	long[] chunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		int nbChunks = (int) Math.max(nbThreads, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+		long[] bounds = new long[nbChunks + 1];
+		int n = 1;
+		long chunkSize = Math.max(1, size / nbChunks);
+		for (int i = 1; i < nbChunks; i++) {
+			long pos = nextLineStart(channel, Math.max(i * chunkSize, bounds[n - 1]), size);
+			if (pos > bounds[n - 1] && pos < size) {
+				bounds[n++] = pos;
+			}
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * Returns the position after the next line break at or after pos
+	 */
+	static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+		if (pos == 0) {
+			return 0;
+		}
+		// Look at the byte before pos, we might already be at the start of a line
+		pos--;
+		while (pos < size) {
+			int len = (int) Math.min(4096, size - pos);
+			MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, pos, len);
+			for (int i = 0; i < len; i++) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += len;
+		}
+		return size;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Parses all lines of one range
+	 */
+	RatingBuffer parseRange(FileChannel channel, long start, long end) throws IOException {
+		MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, start, end - start);
+		int limit = (int) (end - start);
+		RatingBuffer result = new RatingBuffer(Math.max(16, limit / 16), withTimestamps);
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int next = lineEnd + 1;
+			if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			parseLine(buf, lineStart, lineEnd, result, start);
+			lineStart = next;
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a single line and adds it to the buffer. Comment and blank lines are skipped
+	 */
+	void parseLine(MappedByteBuffer buf, int from, int to, RatingBuffer result, long offset) throws IOException {
+		int p = from;
+		while (p < to && isWhitespace(buf.get(p))) {
+			p++;
+		}
+		if (p == to) {
+			return;
+		}
+		// Skip comment lines
+		if (p + 1 < to && buf.get(p) == '/' && buf.get(p + 1) == '/') {
+			return;
+		}
+		int sep1 = indexOfSeparator(buf, from, to);
+		int sep2 = sep1 < 0 ? -1 : indexOfSeparator(buf, sep1 + separator.length, to);
+		if (sep2 < 0) {
+			throw malformed(buf, from, to, offset);
+		}
+		int sep3 = indexOfSeparator(buf, sep2 + separator.length, to);
+		int ratingEnd = sep3 < 0 ? to : sep3;
+		if (withTimestamps && sep3 < 0) {
+			throw malformed(buf, from, to, offset);
+		}
+		// Numbers the fast paths cannot handle are passed to the JDK parsers, so invalid and out of range
+		// values fail with the same NumberFormatException as in the sequential loader
+		int user = parseInt(buf, from, sep1);
+		int item = parseInt(buf, sep1 + separator.length, sep2);
+		float rating = parseFloat(buf, sep2 + separator.length, ratingEnd);
+		long timestamp = 0;
+		if (withTimestamps) {
+			int sep4 = indexOfSeparator(buf, sep3 + separator.length, to);
+			timestamp = parseLong(buf, sep3 + separator.length, sep4 < 0 ? to : sep4);
+		}
+		result.add(user, item, rating, timestamp);
+	}
+
+	/**
+	 * Finds the next occurrence of the separator in [from, to) or -1
+	 */
+	int indexOfSeparator(MappedByteBuffer buf, int from, int to) {
+		int last = to - separator.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < separator.length; j++) {
+				if (buf.get(i + j) != separator[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Parses an int (user and item ids). Anything else than up to 9 digits is handed to Integer.parseInt
+	 */
+	static int parseInt(MappedByteBuffer buf, int from, int to) {
+		while (from < to && isWhitespace(buf.get(from))) from++;
+		while (to > from && isWhitespace(buf.get(to - 1))) to--;
+		long value = parseDigits(buf, from, to, 9);
+		if (value == NOT_SIMPLE) {
+			return Integer.parseInt(token(buf, from, to));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses a long (timestamps). Anything else than up to 18 digits is handed to Long.parseLong
+	 */
+	static long parseLong(MappedByteBuffer buf, int from, int to) {
+		while (from < to && isWhitespace(buf.get(from))) from++;
+		while (to > from && isWhitespace(buf.get(to - 1))) to--;
+		long value = parseDigits(buf, from, to, 18);
+		if (value == NOT_SIMPLE) {
+			return Long.parseLong(token(buf, from, to));
+		}
+		return value;
+	}
+
+	// Returned by parseDigits() if the number has to be parsed by the JDK
+	static final long NOT_SIMPLE = Long.MIN_VALUE;
+
+	/**
+	 * Parses an optionally signed number of at most maxDigits digits, which cannot overflow.
+	 * Returns NOT_SIMPLE for everything else
+	 */
+	static long parseDigits(MappedByteBuffer buf, int from, int to, int maxDigits) {
+		boolean negative = false;
+		if (from < to && (buf.get(from) == '-' || buf.get(from) == '+')) {
+			negative = buf.get(from) == '-';
+			from++;
+		}
+		if (from == to || to - from > maxDigits) {
+			return NOT_SIMPLE;
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9) {
+				return NOT_SIMPLE;
+			}
+			value = value * 10 + d;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a decimal number. Simple numbers like "4" or "3.5" are handled directly,
+	 * everything else (exponents, very long numbers) is handed to Float.parseFloat
+	 */
+	static float parseFloat(MappedByteBuffer buf, int from, int to) {
+		while (from < to && isWhitespace(buf.get(from))) from++;
+		while (to > from && isWhitespace(buf.get(to - 1))) to--;
+		int p = from;
+		boolean negative = false;
+		if (p < to && (buf.get(p) == '-' || buf.get(p) == '+')) {
+			negative = buf.get(p) == '-';
+			p++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean dot = false;
+		for (; p < to; p++) {
+			byte b = buf.get(p);
+			if (b == '.' && !dot) {
+				dot = true;
+			}
+			else if (b >= '0' && b <= '9' && digits < 15) {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (dot) {
+					fractionDigits++;
+				}
+			}
+			else {
+				break;
+			}
+		}
+		if (p < to || digits == 0) {
+			return Float.parseFloat(token(buf, from, to));
+		}
+		// the mantissa has at most 15 digits, so the double is exact before the division
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return (float) (negative ? -value : value);
+	}
+
+	static final double[] POWERS_OF_TEN = new double[16];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * The bytes in [from, to) as String
+	 */
+	static String token(MappedByteBuffer buf, int from, int to) {
+		byte[] raw = new byte[to - from];
+		for (int i = from; i < to; i++) {
+			raw[i - from] = buf.get(i);
+		}
+		return new String(raw, StandardCharsets.UTF_8);
+	}
+
+	static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	IOException malformed(MappedByteBuffer buf, int from, int to, long offset) {
+		return new IOException("Malformed line at byte " + (offset + from) + " in " + filename + ": "
+				+ token(buf, from, to));
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The ratings parsed from one range of the file, kept in primitive arrays
+	 */
+	public static class RatingBuffer {
+		int[] users;
+		int[] items;
+		float[] ratings;
+		long[] timestamps;
+		int size = 0;
+
+		RatingBuffer(int capacity, boolean withTimestamps) {
+			users = new int[capacity];
+			items = new int[capacity];
+			ratings = new float[capacity];
+			timestamps = withTimestamps ? new long[capacity] : null;
+		}
+
+		void add(int user, int item, float rating, long timestamp) {
+			if (size == users.length) {
+				int capacity = size * 2;
+				users = Arrays.copyOf(users, capacity);
+				items = Arrays.copyOf(items, capacity);
+				ratings = Arrays.copyOf(ratings, capacity);
+				if (timestamps != null) {
+					timestamps = Arrays.copyOf(timestamps, capacity);
+				}
+			}
+			users[size] = user;
+			items[size] = item;
+			ratings[size] = rating;
+			if (timestamps != null) {
+				timestamps[size] = timestamp;
+			}
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getUser(int i) {
+			return users[i];
+		}
+
+		public int getItem(int i) {
+			return items[i];
+		}
+
+		public float getRating(int i) {
+			return ratings[i];
+		}
+
+		/**
+		 * Only available if the parser was asked for timestamps
+		 */
+		public long getTimestamp(int i) {
+			return timestamps[i];
+		}
+	}
+
+}
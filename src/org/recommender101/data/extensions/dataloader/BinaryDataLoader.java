@@ -0,0 +1,174 @@
+/** DJ **/
+package org.recommender101.data.extensions.dataloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.DefaultDataLoader;
+import org.recommender101.data.Rating;
+import org.recommender101.gui.annotations.R101Class;
+import org.recommender101.tools.Debug;
+
+/**
+ * Loads ratings from the binary column format written by the BinaryDataConverter tool.
+ * The file is memory mapped, so nothing has to be parsed at load time.
+ *
+ * Layout (little endian):
+ * header: magic (int), version (int), flags (int), number of ratings n (int)
+ * columns: n user ids (int), n item ids (int), n ratings (float), optionally n timestamps (long)
+ *
+ * If the file has a timestamp column, the timestamps are stored in the data model in the same
+ * way the DefaultDataLoaderWithTimeStamp does it.
+ * @author DJ
+ *
+ */
+@R101Class(name="Binary Data Loader", description="Loads a memory-mapped binary rating file created with the BinaryDataConverter tool.")
+public class BinaryDataLoader extends DefaultDataLoader {
+
+	/** "R101" */
+	public static final int MAGIC = 0x52313031;
+	public static final int VERSION = 1;
+	public static final int FLAG_TIMESTAMPS = 1;
+	public static final int HEADER_BYTES = 16;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the loader with the default binary file location
+	 */
+	public BinaryDataLoader() {
+		filename = "data/movielens/ratings.bin";
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Maps the file and adds the ratings to the data model
+	 */
+	@Override
+	public void loadData(DataModel dm) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = map(channel, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a binary rating file: " + filename);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported binary rating file version " + version + " in " + filename);
+			}
+			int flags = header.getInt();
+			int n = header.getInt();
+			boolean hasTimestamps = (flags & FLAG_TIMESTAMPS) != 0;
+			if (channel.size() != fileSize(n, hasTimestamps)) {
+				throw new IOException("Truncated binary rating file: " + filename);
+			}
+
+			// Each column is mapped on its own, so we do not run into the 2GB limit of a single mapping
+			long pos = HEADER_BYTES;
+			IntBuffer users = map(channel, pos, 4L * n).asIntBuffer();
+			pos += 4L * n;
+			IntBuffer items = map(channel, pos, 4L * n).asIntBuffer();
+			pos += 4L * n;
+			FloatBuffer values = map(channel, pos, 4L * n).asFloatBuffer();
+			pos += 4L * n;
+			LongBuffer times = null;
+			Map<Rating,Long> timestamps = null;
+			if (hasTimestamps) {
+				times = map(channel, pos, 8L * n).asLongBuffer();
+				timestamps = new HashMap<Rating, Long>(n * 4 / 3 + 1);
+				dm.addExtraInformation(DefaultDataLoaderWithTimeStamp.DM_EXTRA_INFO_TIMESTAMP_KEY, timestamps);
+			}
+
+			int toLoad = n;
+			if (maxLines != -1 && maxLines < n) {
+				System.out.println("DataLoader: Stopping after " + maxLines  + " lines for debug");
+				toLoad = maxLines;
+			}
+			Rating r;
+			for (int i = 0; i < toLoad; i++) {
+				r = dm.addRating(users.get(i), items.get(i), values.get(i));
+				if (times != null) {
+					timestamps.put(r, times.get(i));
+				}
+			}
+			Debug.log("BinaryDataLoader:loadData: Loaded " + toLoad + " ratings");
+			Debug.log("BinaryDataLoader:loadData: " + dm.getUsers().size() + " users and " + dm.getItems().size() + " items.");
+		}
+		finally {
+			file.close();
+		}
+		applyConstraints(dm);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Writes the given columns to a binary rating file
+	 * @param filename the target file
+	 * @param users the user ids
+	 * @param items the item ids
+	 * @param ratings the rating values
+	 * @param timestamps the timestamps, can be null
+	 * @param n the number of entries to write from the arrays
+	 * @throws IOException
+	 */
+	public static void writeBinaryFile(String filename, int[] users, int[] items, float[] ratings,
+			long[] timestamps, int n) throws IOException {
+		boolean hasTimestamps = timestamps != null;
+		File target = new File(filename);
+		target.delete();
+		RandomAccessFile file = new RandomAccessFile(target, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			long pos = 0;
+			MappedByteBuffer header = channel.map(MapMode.READ_WRITE, pos, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(hasTimestamps ? FLAG_TIMESTAMPS : 0).putInt(n);
+			pos += HEADER_BYTES;
+			channel.map(MapMode.READ_WRITE, pos, 4L * n).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(users, 0, n);
+			pos += 4L * n;
+			channel.map(MapMode.READ_WRITE, pos, 4L * n).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(items, 0, n);
+			pos += 4L * n;
+			channel.map(MapMode.READ_WRITE, pos, 4L * n).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(ratings, 0, n);
+			pos += 4L * n;
+			if (hasTimestamps) {
+				channel.map(MapMode.READ_WRITE, pos, 8L * n).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(timestamps, 0, n);
+			}
+			channel.force(false);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The expected file size for n ratings
+	 */
+	static long fileSize(int n, boolean hasTimestamps) {
+		return HEADER_BYTES + 12L * n + (hasTimestamps ? 8L * n : 0);
+	}
+
+	/**
+	 * Maps a read-only region of the file
+	 */
+	static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+		return channel.map(MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+}
@@ -37,6 +37,12 @@ public class DefaultDataLoaderWithTimeStamp extends DefaultDataLoader {
 		Map<Rating,Long> timestamps = new HashMap<Rating, Long>();
 		dm.addExtraInformation(DM_EXTRA_INFO_TIMESTAMP_KEY, timestamps);
 		
+		if (parseThreads > 1) {
+			int counter = addParsedRatings(dm, parseInParallel(true), timestamps);
+			Debug.log("DefaultDataLoader:loadData: Loaded " + counter + " ratings with " + parseThreads + " threads");
+			return;
+		}
+		
 		int counter = 0;
 		// Read the file line by line and add the ratings to the data model.
 		BufferedReader reader = new BufferedReader(new FileReader(getFilename()));
@@ -48,6 +54,7 @@ public class DefaultDataLoaderWithTimeStamp extends DefaultDataLoader {
 		while (line != null) {
 			// Skip comment lines
 			if (line.trim().startsWith("//")) {
+				line = reader.readLine();
 				continue;
 			}
 			tokens = line.split(separatorString);
@@ -56,6 +63,10 @@ public class DefaultDataLoaderWithTimeStamp extends DefaultDataLoader {
 			timestamps.put(r,Long.parseLong(tokens[3]));
 			line = reader.readLine();
 			counter++;
+			if (maxLines != -1 && counter >= maxLines) {
+				System.out.println("DataLoader: Stopping after " + (counter)  + " lines for debug");
+				break;
+			}
 		}
 		Debug.log("DefaultDataLoader:loadData: Loaded " + counter + " ratings");
 //		System.out.println("Timestamps: " + timestamps);
@@ -11,18 +11,23 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.recommender101.data.CompactDataModel;
 import org.recommender101.data.DataModel;
 import org.recommender101.data.DataSplitter;
+import org.recommender101.data.FoldAssignment;
 import org.recommender101.data.Rating;
 import org.recommender101.eval.interfaces.EvaluationResult;
 import org.recommender101.eval.interfaces.RuntimeResult;
 import org.recommender101.recommender.AbstractRecommender;
 import org.recommender101.tools.Debug;
+import org.recommender101.tools.ThreadStatistics;
 
 /**
  * This class splits the data and runs the cross validation
@@ -55,18 +60,16 @@ public class CrossValidationRunner {
 	 */
 	boolean givenTrainingTestSplit;
 	
-	/**
-	 * Remember the users to consider in a given n scenario
-	 * Make this a public static information...
-	 */
-	public static Map<DataModel, Set<Integer>> givenNTestUsers = new HashMap<DataModel, Set<Integer>>();
-	
-	
 	public long computationTime = 0;
 	
 	
 	private Map<Integer, List<RuntimeResult>> runtimeResultPerEvaluationRound;
 	
+	/**
+	 * The store of trained models or null
+	 */
+	ModelStore modelStore = null;
+	
 	// =====================================================================================
 
 	/**
@@ -110,6 +113,8 @@ public class CrossValidationRunner {
 
 		// Save current time for performance measuring
 		long startTime = System.currentTimeMillis();
+		// The peak heap usage of the experiments is measured from here
+		ThreadStatistics.resetPeakHeapUsage();
 
 		// DEBUG setting the number of threads here
 		int numOfThreads = Recommender101Impl.NUM_OF_THREADS;
@@ -133,46 +138,91 @@ public class CrossValidationRunner {
 			xvalidationRounds = 1;
 		}
 		
-		// Experiments are now stored in a BlockingQueue in order to be thread
-		// safe
-		BlockingQueue<Experiment> experiments;
-
-		// This BlockingQueue will store the experiment results
-		BlockingQueue<EvaluationResult> evaluationResults;
-
-		// Start the validation rounds and create experiment objects; no
-		// parallelism so far
-		Set<Rating> trainingData = new ObjectOpenHashSet<Rating>();
-		Set<Rating> testData = new ObjectOpenHashSet<Rating>();
-		// run them (sequentially at the moment)
 		HashMap<Integer, List<EvaluationResult>> resultPerEvaluationRound = new HashMap<Integer, List<EvaluationResult>>();
 		
 		runtimeResultPerEvaluationRound = new HashMap<Integer, List<RuntimeResult>>();
 
-		// Initialize BlockingQueues (used for cross-thread-communication)
-		experiments = new PriorityBlockingQueue<Experiment>(50,new ExperimentComparator());
-		evaluationResults = new LinkedBlockingQueue<EvaluationResult>();
-		
-		BlockingQueue<RuntimeResult> runtimeResults = new LinkedBlockingQueue<RuntimeResult>();
-
-		// Start the specified number of worker threads
-		// experimentWorker[] workers = new experimentWorker[Math.min(
-		// algorithms.size() * xvalidationRounds, numOfThreads)];
-		ExperimentWorker[] workers = new ExperimentWorker[Math.min(algorithms.size(), numOfThreads)];
-		for (int i = 0; i < workers.length; i++) {
-			workers[i] = new ExperimentWorker(experiments, evaluationResults, runtimeResults);
-		}
-
 		// innerLoopSize contains the number of experiments that have to be assigned on each validation round 
 		int innerLoopSize = algorithms.size()/xvalidationRounds;
-		// Main loop iterating over the validation rounds
+
+		// The training and test data of the usual folds are views on one shared copy of the
+		// ratings (null if the folds cannot be handled this way, e.g. when they overlap)
+		FoldAssignment folds = null;
+		if (dataSplitter.getSpecialTestSplits() == null) {
+			folds = FoldAssignment.create(dataSplits);
+		}
+
+		if (Recommender101Impl.MODEL_STORE_DIRECTORY != null) {
+			modelStore = new ModelStore(Recommender101Impl.MODEL_STORE_DIRECTORY);
+		}
+
+		// Assign the recommenders to the validation rounds. The data of a round is only set up
+		// when its first experiment is started (see runRounds)
+		List<Round> rounds = new ArrayList<Round>();
 		for (int vround = 0; vround < xvalidationRounds; vround++) {
+			List<AbstractRecommender> roundAlgorithms = algorithms.subList(0, innerLoopSize);
+			rounds.add(new Round(vround, new ArrayList<AbstractRecommender>(roundAlgorithms)));
+			roundAlgorithms.clear();
+
+			// Create an empty list for this evaluation round
+			resultPerEvaluationRound.put(vround + 1, new ArrayList<EvaluationResult>());
+		}
+		List<ExperimentTask> tasks = runRounds(rounds, dataSplits, folds, numOfThreads);
+
+		// Store the evaluation round results, in the order in which the experiments were started
+		for (ExperimentTask task : tasks) {
+			for (EvaluationResult r : task.evaluationResults) {
+				// Insert the result into the matching list
+				resultPerEvaluationRound.get(r.getEvaluationRound()).add(r);
+			}
+			RuntimeResult r = task.runtimeResult;
+			if(!runtimeResultPerEvaluationRound.containsKey(r.getEvaluationRound())){
+				runtimeResultPerEvaluationRound.put(r.getEvaluationRound(), new ArrayList<RuntimeResult>());
+			}
+			runtimeResultPerEvaluationRound.get(r.getEvaluationRound()).add(r);
+		}
+		
+		computationTime = System.currentTimeMillis() - startTime;
+
+		Debug.log("runExperiments() has finished, it took "
+				+ (computationTime) + " ms.");
+		return resultPerEvaluationRound;
+		
+		
+	}
+	
+	/**
+	 * As only one object may be returned by runExperiments, this method gives access to the runtime for whom it may concern
+	 * @return the runtimes of the algos
+	 */
+	public Map<Integer, List<RuntimeResult>> getRuntimeResults(){
+		return runtimeResultPerEvaluationRound;
+	}
 
+	/**
+	 * Sets up the training and test data of a validation round and creates its experiments
+	 * @param round the round
+	 * @param dataSplits the folds returned by the data splitter
+	 * @param folds the fold views or null if the data has to be copied
+	 * @return the experiment tasks of the round, the most expensive ones first
+	 * @throws Exception
+	 */
+	List<ExperimentTask> createExperiments(Round round, List<Set<Rating>> dataSplits, FoldAssignment folds) throws Exception {
+		DataModel trainingDM;
+		DataModel testDM;
+		int vround = round.round;
+		if (folds != null) {
+			// No copies: the round only decides which fold is used for testing
+			trainingDM = folds.trainingModel(vround, dataModel.getExtraInformationMap(), dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
+			testDM = folds.testModel(vround, dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
+		}
+		else {
+			Set<Rating> trainingData = new ObjectOpenHashSet<Rating>();
+			Set<Rating> testData;
 			if (dataSplitter.getSpecialTestSplits() == null) {
 				// Set the test data set (the current index)
 				testData = dataSplits.get(vround);
 				// Get the rest
-				trainingData.clear();
 				for (int i = 0; i < dataSplits.size(); i++) {
 					if (i != vround) {
 						trainingData.addAll(dataSplits.get(i));
@@ -181,266 +231,278 @@ public class CrossValidationRunner {
 			}
 			else {
 				testData = dataSplitter.getSpecialTestSplits().get(vround);
-				trainingData.clear();
 				// Set the training data to the full model and remove the current test data
 				trainingData.addAll(dataSplits.get(0));
 				trainingData.removeAll(testData);
 			}
+			trainingDM = new DataModel(trainingData, dataModel.getExtraInformationMap(), dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
+			testDM = new DataModel(testData, null, dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
+		}
 
-			DataModel trainingDM = new DataModel(trainingData, dataModel.getExtraInformationMap(), dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
-        	DataModel testDM = new DataModel(testData, null, dataModel.getMinRatingValue(), dataModel.getMaxRatingValue());
-            
-            trainingDM.setSplitNumber(vround);
-            testDM.setSplitNumber(vround);
-           
+		trainingDM.setSplitNumber(vround);
+		testDM.setSplitNumber(vround);
+
+		// --------------------------------------------------------------
+		// If we have to handle a given-n situation, we need to update things here
+		if (Recommender101Impl.givenNConfiguration != null) {
+			String[] tokens = Recommender101Impl.givenNConfiguration.split("/");
+			int givenN = Integer.parseInt(tokens[0]);
+			int percentage = Integer.parseInt(tokens[1]);
 			
-			// --------------------------------------------------------------
-			// If we have to handle a given-n situation, we need to update things here
-			if (Recommender101Impl.givenNConfiguration != null) {
-				String[] tokens = Recommender101Impl.givenNConfiguration.split("/");
-				int givenN = Integer.parseInt(tokens[0]);
-				int percentage = Integer.parseInt(tokens[1]);
-				
-				// Sample a set of users
-				List<Integer> sampledUsers = new ArrayList<Integer> (trainingDM.getUsers());
-				Collections.shuffle(sampledUsers);
-				// how many users to modify
-				int nbUsers = (int) Math.round(((double) percentage / (double) 100) * sampledUsers.size());
-
-				/**
-				 * Remove whats at the end of the list
-				 */
-				sampledUsers = sampledUsers.subList(0, nbUsers);
-				// remember it for the test set for the evaluation process
-				givenNTestUsers.put(testDM,new IntOpenHashSet(sampledUsers));
-				
-				// now remove the all but n ratings of the user
-				for (Integer user : sampledUsers) {
-					Set<Rating> ratingsOfUser = trainingDM.getRatingsOfUser(user);
-					ArrayList<Rating> ratingsCopy = new ArrayList<Rating>(ratingsOfUser);
-					// randomly remove ratings
-					if (givenN < ratingsCopy.size()) {
-						Collections.shuffle(ratingsCopy);
-						// Remove everything behind the n-th rating
-						for (int i=givenN; i<ratingsCopy.size();i++) {
-							trainingDM.removeRating(ratingsCopy.get(i));
-						}
-					}
+			// Sample a set of users
+			List<Integer> sampledUsers = new ArrayList<Integer> (trainingDM.getUsers());
+			Collections.shuffle(sampledUsers);
+			// how many users to modify
+			int nbUsers = (int) Math.round(((double) percentage / (double) 100) * sampledUsers.size());
+
+			/**
+			 * Remove whats at the end of the list
+			 */
+			sampledUsers = sampledUsers.subList(0, nbUsers);
+			// only these users are evaluated: remove the others from the test set, here before
+			// the experiments of the round start (they share the test data)
+			Set<Integer> usersToTest = new IntOpenHashSet(sampledUsers);
+			Debug.log("Have to test " + usersToTest.size() + " users in given-N configuration");
+			for (Integer user : new IntOpenHashSet(testDM.getUsers())) {
+				if (!usersToTest.contains(user)) {
+					testDM.removeUserWithRatings(user);
 				}
-				trainingDM.recalculateUserAverages();
 			}
 			
-			// --------------------------------------------------------------
-
-			// Set up the experiments
-			
-			for (int i=0; i<innerLoopSize; i++){
-				AbstractRecommender recommender = algorithms.get(0);
-				algorithms.remove(0);
-				
-				recommender.setDataModel(trainingDM.unmodifiable());
-
-				// put is thread safe. Some of the threads will already begin
-				// working while experiments are still being inserted. MJ: No they won't anymore to reduce memory pressure.
-				experiments.put(new Experiment(recommender, trainingDM, testDM, evaluators, vround + 1));
+			// now remove the all but n ratings of the user
+			for (Integer user : sampledUsers) {
+				Set<Rating> ratingsOfUser = trainingDM.getRatingsOfUser(user);
+				ArrayList<Rating> ratingsCopy = new ArrayList<Rating>(ratingsOfUser);
+				// randomly remove ratings
+				if (givenN < ratingsCopy.size()) {
+					Collections.shuffle(ratingsCopy);
+					// Remove everything behind the n-th rating
+					for (int i=givenN; i<ratingsCopy.size();i++) {
+						trainingDM.removeRating(ratingsCopy.get(i));
+					}
+				}
 			}
-			
-			// Create an empty list for this evaluation round
-			resultPerEvaluationRound.put(vround + 1, new ArrayList<EvaluationResult>());
+			trainingDM.recalculateUserAverages();
 		}
 		
-		//start the worker threads
-		for (int i = 0; i < workers.length; i++) {
-			// Create a new Thread and start it (will be blocked until there
-			// is work to do)
-			new Thread(workers[i]).start();
-		}
-
-
-		// End all worker threads once all experiments have been finished
-		while (true) {
-			if (experiments.size() == 0) {
-				for (ExperimentWorker w : workers) {
-					w.stopThread();
-				}
-				Debug.log("All experiments have been assigned. " );
-				// Wait for all threads to finish their work
-				boolean stillWorking = true;
-				while (stillWorking) {
-					// Block this thread for for 250ms
-					Thread.sleep(250);
-
-					// Check if the worker threads have finished their work
-					stillWorking = false;
-					for (ExperimentWorker w : workers)
-						if (w.isWorking())
-							stillWorking = true;
-				}
-				Debug.log("All Threads have finished working.");
-				workers = null;
-				break;
-			} else {
-				// Block this thread for for 250ms
-				Thread.sleep(250);
-			}
+		// --------------------------------------------------------------
 
+		// Set up the experiments
+		// The recommenders of this round share one read-only view of the training data
+		DataModel recommenderDM;
+		if (Recommender101Impl.COMPACT_TRAINING_DATA) {
+			recommenderDM = new CompactDataModel(trainingDM);
 		}
-
-		// Store the evaluation round results.
-
-		for (EvaluationResult r : evaluationResults) {
-			// Insert the result into the matching list
-			resultPerEvaluationRound.get(r.getEvaluationRound()).add(r);
+		else {
+			recommenderDM = trainingDM.unmodifiable();
 		}
 		
-		for (RuntimeResult r : runtimeResults) {
-			// Insert the result into the matching list
-			if(!runtimeResultPerEvaluationRound.containsKey(r.getEvaluationRound())){
-				runtimeResultPerEvaluationRound.put(r.getEvaluationRound(), new ArrayList<RuntimeResult>());
+		List<Experiment> experiments = new ArrayList<Experiment>();
+		for (AbstractRecommender recommender : round.recommenders) {
+			recommender.setDataModel(recommenderDM);
+			experiments.add(new Experiment(recommender, trainingDM, testDM, evaluators, vround + 1));
+		}
+		round.recommenders = null;
+
+		// The most expensive ones first
+		Collections.sort(experiments, new ExperimentComparator());
+		// The stored models are found by the training data they were trained on
+		long fingerprint = 0;
+		if (modelStore != null) {
+			fingerprint = ModelStore.fingerprint(recommenderDM);
+		}
+		List<ExperimentTask> tasks = new ArrayList<ExperimentTask>(experiments.size());
+		for (Experiment e : experiments) {
+			ExperimentTask task = new ExperimentTask(e, round);
+			if (modelStore != null) {
+				task.modelStore = modelStore;
+				task.modelKey = ModelStore.key(e.recommender, fingerprint, vround, dataSplitter.getSeed());
 			}
-			runtimeResultPerEvaluationRound.get(r.getEvaluationRound()).add(r);
+			tasks.add(task);
 		}
-		
-		computationTime = System.currentTimeMillis() - startTime;
-
-		Debug.log("runExperiments() has finished, it took "
-				+ (computationTime) + " ms.");
-		return resultPerEvaluationRound;
-		
-		
+		return tasks;
 	}
-	
+
 	/**
-	 * As only one object may be returned by runExperiments, this method gives access to the runtime for whom it may concern
-	 * @return the runtimes of the algos
+	 * Runs the experiments of the rounds on a work-stealing pool. At most numOfThreads experiments
+	 * run at the same time. The data of a round is only set up when its first experiment is started
+	 * and released when its last experiment has finished, so that only the folds in use are in memory.
+	 * With a memory budget (Recommender101Impl.FOLD_MEMORY_BUDGET), no further round is set up while
+	 * the heap would exceed the budget, unless no other round is running. The scheduler then waits for
+	 * running experiments to finish, it never forces a garbage collection. The used heap includes the
+	 * garbage not collected yet, so the check errs on the safe side.
+	 * The experiments are ordered by the ExperimentComparator within each round (the rounds are set up
+	 * one after the other, so the ordering does not span the whole run).
+	 * The first failing experiment cancels the remaining ones and its exception is thrown.
+	 * @param rounds the validation rounds
+	 * @param dataSplits the folds returned by the data splitter
+	 * @param folds the fold views or null
+	 * @param numOfThreads the maximum number of parallel experiments
+	 * @return the tasks in the order in which they were started
+	 * @throws Exception
 	 */
-	public Map<Integer, List<RuntimeResult>> getRuntimeResults(){
-		return runtimeResultPerEvaluationRound;
+	List<ExperimentTask> runRounds(List<Round> rounds, List<Set<Rating>> dataSplits, FoldAssignment folds, int numOfThreads) throws Exception {
+		List<ExperimentTask> started = new ArrayList<ExperimentTask>();
+		int parallel = Math.max(1, numOfThreads);
+		long budget = (long) Recommender101Impl.FOLD_MEMORY_BUDGET * 1024 * 1024;
+		// The heap needed by a round, estimated once when the first round is set up
+		long roundSize = -1;
+		ExecutorService executor = Executors.newWorkStealingPool(parallel);
+		try {
+			CompletionService<ExperimentTask> completion = new ExecutorCompletionService<ExperimentTask>(executor);
+			int nextRound = 0;
+			// The round whose experiments are being started
+			Round current = null;
+			int running = 0;
+			int liveRounds = 0;
+			while (true) {
+				// Start experiments as long as there are idle threads
+				while (running < parallel) {
+					if (current == null || current.pending.isEmpty()) {
+						if (nextRound == rounds.size()) {
+							break;
+						}
+						if (liveRounds > 0 && budget > 0 && usedHeap() + roundSize > budget) {
+							Debug.log("Memory budget reached, waiting for running folds to finish");
+							break;
+						}
+						long before = usedHeap();
+						current = rounds.get(nextRound++);
+						current.pending = createExperiments(current, dataSplits, folds);
+						if (roundSize < 0) {
+							// Nothing else runs yet, and the garbage of the set-up counts as well
+							roundSize = Math.max(0, usedHeap() - before);
+						}
+						if (current.pending.isEmpty()) {
+							continue;
+						}
+						liveRounds++;
+						Debug.log("Validation round " + (current.round + 1) + " set up, " + liveRounds + " round(s) in memory");
+					}
+					ExperimentTask task = current.pending.remove(0);
+					current.running++;
+					running++;
+					started.add(task);
+					completion.submit(task);
+				}
+				if (running == 0) {
+					break;
+				}
+				ExperimentTask done;
+				try {
+					done = completion.take().get();
+				}
+				catch (ExecutionException e) {
+					System.err.println("Fatal exception when running experiments " + e.getCause() + " - giving up.");
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					throw e;
+				}
+				running--;
+				// Drop the trained recommender and the data, only the results are kept
+				done.experiment = null;
+				Round round = done.round;
+				round.running--;
+				if (round.running == 0 && round.pending.isEmpty()) {
+					// the experiments held the last references to the data of the round
+					liveRounds--;
+				}
+			}
+			Debug.log("All experiments have finished.");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return started;
 	}
 
 	/**
-	 * This class is intended to be instantiated as a separate Thread for the
-	 * processing of experiments
-	 * 
-	 * @author timkraemer
-	 * 
+	 * The heap currently in use (including garbage)
 	 */
-	private class ExperimentWorker implements Runnable {
-		/**
-		 * Needed to determine whether or not the thread is supposed to wait for
-		 * work.
-		 */
-		private volatile boolean stillNeeded = true;
-		/**
-		 * After setting stillNeeded to false, the thread will finish its work
-		 * and then set working to false.
-		 */
-		private volatile boolean working = true;
-
-		/**
-		 * The BlockingQueue which contains all unfinished experiments.
-		 */
-		private BlockingQueue<Experiment> experimentQueue;
-		/**
-		 * The BlockingQueue into which the worker will put the experiment
-		 * results.
-		 */
-		private BlockingQueue<EvaluationResult> evaluationResultQueue;
-		/**
-		 * The BlockingQueue into which the worker will put the runtime results
-		 * results.
-		 */
-		private BlockingQueue<RuntimeResult> runtimeResultQueue;
-
-		/**
-		 * Creates a new experimentWorker object.
-		 * 
-		 * @param experiments
-		 *            The BlockingQueue which contains all unfinished
-		 *            experiments.
-		 * @param evaluationResults
-		 *            The BlockingQueue into which the worker will put the
-		 *            experiment results.
-		 * @param runtimeResults The BlockingQueue into which the worker will put the
-		 *            runtimes.
-		 */
-		public ExperimentWorker(BlockingQueue<Experiment> experiments,
-				BlockingQueue<EvaluationResult> evaluationResults, BlockingQueue<RuntimeResult> runtimeResults) {
-			Debug.log("New thread has been started.");
-			this.experimentQueue = experiments;
-			this.evaluationResultQueue = evaluationResults;
-			this.runtimeResultQueue = runtimeResults;
-		}
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
 
-		/**
-		 * Call this method to inform the thread that there's no more work to do
-		 */
-		public void stopThread() {
-			this.stillNeeded = false;
+	/**
+	 * A validation round: its recommenders before it is set up, its experiments while it runs
+	 */
+	static class Round {
+		final int round;
+		List<AbstractRecommender> recommenders;
+		List<ExperimentTask> pending;
+		int running = 0;
+
+		Round(int round, List<AbstractRecommender> recommenders) {
+			this.round = round;
+			this.recommenders = recommenders;
 		}
+	}
 
-		/**
-		 * Call this method to determine whether or not the thread has finished
-		 * its work. Call stopThread() before or this will always return true.
-		 * 
-		 * @return The value of the "working" attribute.
-		 */
-		public boolean isWorking() {
-			return this.working;
+	/**
+	 * Trains the recommender of one experiment and runs its evaluations
+	 */
+	static class ExperimentTask implements Callable<ExperimentTask> {
+		// The names of the training phases in the runtime result
+		static final String PHASE_TRAINING = "training";
+		static final String PHASE_LOADING = "loading model";
+
+		Experiment experiment;
+		final Round round;
+		List<EvaluationResult> evaluationResults;
+		RuntimeResult runtimeResult;
+		// Where to look for the trained recommender, null to always train
+		ModelStore modelStore = null;
+		String modelKey = null;
+
+		ExperimentTask(Experiment experiment, Round round) {
+			this.experiment = experiment;
+			this.round = round;
 		}
 
 		@Override
-		public void run() {
-			Experiment e;
-			// This thread will be blocked until there is an Experiment to work
-			// on
-			try {
-				while (true) {
-					if (!stillNeeded) {
-						// All work has been done, finishing thread
-						break;
-					}
-					
-					// Check if there is an experiment in the Queue, break every
-					// 250 seconds to check if stillNeeded is true.
-					e = experimentQueue.poll(250, TimeUnit.MILLISECONDS);
-					if (e != null) {
-						// Run the experiments and insert the results into the
-						// evaluationResultQueue (thread safe)
-						RuntimeResult runtimeResult = new RuntimeResult(e.recommender.getConfigurationFileString());
-						try {
-							long trainTimeComp = System.currentTimeMillis();
-							e.recommender.init();
-							runtimeResult.setTrainTime(System.currentTimeMillis() - trainTimeComp);
-						} catch (Throwable e1) {
-							e1.printStackTrace();
-							System.exit(1);
-							System.err.println("Exception while initializing in Worker-Thread! " + e1.toString());
-						}
-						try {
-							long predictTimeComp = System.currentTimeMillis();
-							for (EvaluationResult r : e.runExperiments()) {
-								r.setEvaluationRound(e.getEvaluationRound());
-								evaluationResultQueue.put(r);
-							}
-							runtimeResult.setPredictTime(System.currentTimeMillis() - predictTimeComp);
-							runtimeResult.setEvaluationRound(e.getEvaluationRound());
-							runtimeResultQueue.put(runtimeResult);
-						}
-						catch (Exception ex) {
-							// If we have an exception here, we should give up
-							System.err.println("Fatal exception when running experiments " + ex.getMessage() + " - will exit.");
-							ex.printStackTrace();
-							System.exit(1);
-						}
-					}
+		public ExperimentTask call() throws Exception {
+			Experiment e = experiment;
+			runtimeResult = e.getRuntimeResult();
+			runtimeResult.setAlgorithm(e.recommender.getConfigurationFileString());
+			long trainTimeComp = System.currentTimeMillis();
+			long cpuTime = ThreadStatistics.getCpuTime();
+			long allocatedBytes = ThreadStatistics.getAllocatedBytes();
+			AbstractRecommender trained = null;
+			if (modelStore != null) {
+				trained = modelStore.load(e.recommender, modelKey);
+			}
+			if (trained != null) {
+				e.setRecommender(trained);
+				runtimeResult.setTrainTime(System.currentTimeMillis() - trainTimeComp);
+				e.addThreadUsage(PHASE_LOADING, cpuTime, allocatedBytes);
+			}
+			else {
+				e.recommender.init();
+				runtimeResult.setTrainTime(System.currentTimeMillis() - trainTimeComp);
+				// Threads started by the recommender itself are not included
+				e.addThreadUsage(PHASE_TRAINING, cpuTime, allocatedBytes);
+				for (Map.Entry<String, long[]> phase : e.recommender.getPhaseTimes().entrySet()) {
+					runtimeResult.addPhaseTime(PHASE_TRAINING + "/" + phase.getKey(), phase.getValue()[0], phase.getValue()[1]);
+				}
+				if (modelStore != null) {
+					modelStore.store(e.recommender, modelKey);
 				}
-			} catch (InterruptedException ex) {
-				System.err.println("InterruptedException in Worker-Thread!");
 			}
 
-			Debug.log("Thread finished.");
-			this.working = false;
+			long predictTimeComp = System.currentTimeMillis();
+			evaluationResults = e.runExperiments();
+			for (EvaluationResult r : evaluationResults) {
+				r.setEvaluationRound(e.getEvaluationRound());
+			}
+			runtimeResult.setPredictTime(System.currentTimeMillis() - predictTimeComp);
+			runtimeResult.setEvaluationRound(e.getEvaluationRound());
+			runtimeResult.setPeakHeapUsage(ThreadStatistics.getPeakHeapUsage());
+			return this;
 		}
 	}
 
@@ -1,23 +1,32 @@
 /** DJ **/
 package org.recommender101.eval.impl;
 
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.recommender101.data.DataModel;
 import org.recommender101.data.Rating;
 import org.recommender101.eval.interfaces.EvaluationResult;
 import org.recommender101.eval.interfaces.Evaluator;
+import org.recommender101.eval.interfaces.ItemRanks;
+import org.recommender101.eval.interfaces.LatencyHistogram;
 import org.recommender101.eval.interfaces.PredictionEvaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
+import org.recommender101.eval.interfaces.RuntimeResult;
 import org.recommender101.recommender.AbstractRecommender;
 import org.recommender101.tools.ClassInstantiator;
 import org.recommender101.tools.Debug;
+import org.recommender101.tools.ThreadStatistics;
 import org.recommender101.tools.Utilities101;
 
 /**
@@ -70,6 +79,22 @@ public class Experiment {
 	 */
 	int evaluationRound;
 
+	/**
+	 * The evaluator description and training data, needed to create the per-thread
+	 * evaluators in the parallel mode
+	 */
+	String evaluatorString;
+	DataModel trainingDataModel;
+
+	/**
+	 * The measured runtimes: the durations of the predictions and recommendations and the
+	 * resources used by the evaluation threads
+	 */
+	RuntimeResult runtimeResult;
+
+	// The name of the evaluation in the thread usages of the runtime result
+	static final String PHASE_EVALUATION = "evaluation";
+
 	// =====================================================================================
 
 	/**
@@ -81,7 +106,7 @@ public class Experiment {
 	 * @param evals
 	 *          the evaluator classes
 	 */
-	@SuppressWarnings({"unchecked", "JavadocReference"})
+	@SuppressWarnings("JavadocReference")
 	public Experiment(AbstractRecommender recommender,
 			DataModel trainingDataModel, DataModel testDataModel, String evals,
 			int evalRound) throws Exception {
@@ -92,28 +117,41 @@ public class Experiment {
 		this.evaluationRound = evalRound;
 
 		this.evaluatorNames = new HashMap<Object, String>();
+		this.evaluatorString = evals;
+		this.trainingDataModel = trainingDataModel;
+		this.runtimeResult = new RuntimeResult(recommender.getConfigurationFileString());
 
 		// create a new evaluator instance for each evaluator
-		List<Object> evalObjects = ClassInstantiator
-				.instantiateClassesByProperties(evals);
-		for (Object obj : evalObjects) {
-			evaluators.add((Evaluator) obj);
+		evaluators.addAll(createEvaluators());
+		for (Evaluator e : evaluators) {
+			if (e instanceof PredictionEvaluator) {
+				predictionMetrics.add((PredictionEvaluator) e);
+			} else if (e instanceof RecommendationlistEvaluator) {
+				listMetrics.add((RecommendationlistEvaluator) e);
+			}// In the future: Other types of evaluators go here
 		}
+	}
 
-		for (Evaluator e : evaluators) {
+	/**
+	 * Creates and initializes a fresh instance of every evaluator
+	 * @return the evaluators in the order of the evaluator description
+	 */
+	@SuppressWarnings("unchecked")
+	List<Evaluator> createEvaluators() throws Exception {
+		List<Evaluator> result = new ArrayList<Evaluator>();
+		List<Object> evalObjects = ClassInstantiator
+				.instantiateClassesByProperties(evaluatorString);
+		for (Object obj : evalObjects) {
+			Evaluator e = (Evaluator) obj;
 			// System.out.println("evaluator: " + e);
 			e.setTrainingDataModel(trainingDataModel);
-			e.setTestDataModel(testDataModel);
+			e.setTestDataModel(dataModel);
 			e.initialize();
 			e.setRecommenderName(recommender.toString());
 			e.setRecommender(recommender);
-
-			if (e instanceof PredictionEvaluator) {
-				predictionMetrics.add((PredictionEvaluator) e);
-			} else if (e instanceof RecommendationlistEvaluator) {
-				listMetrics.add((RecommendationlistEvaluator) e);
-			}// In the future: Other types of evaluators go here
+			result.add(e);
 		}
+		return result;
 	}
 	
 	
@@ -126,7 +164,7 @@ public class Experiment {
 	 * 
 	 * @return
 	 */
-	List<EvaluationResult> runExperiments() {
+	List<EvaluationResult> runExperiments() throws Exception {
 		
 		List<EvaluationResult> result = new ArrayList<EvaluationResult>();
 		
@@ -146,24 +184,16 @@ public class Experiment {
 			}
 		}
 		
-		// --------------------------------------------------------------
-		// If we have a given-n configuration, we will only evaluate these users
-		if (Recommender101Impl.givenNConfiguration != null) {
-			Set<Integer> usersToTest = CrossValidationRunner.givenNTestUsers.get(dataModel);
-			if (usersToTest == null) {
-				System.err.println("Got a givenN-Configuration but no set of test users");
-			}
-			else {
-				System.out.println("Have to test " + usersToTest.size() + " users in given-N configuration");
-				Set<Integer> usersCopy = new IntOpenHashSet(dataModel.getUsers());
-				for (Integer user : usersCopy) {
-					if (!usersToTest.contains(user)) {
-						dataModel.removeUserWithRatings(user);
-					}
-				}
-			}
-					
+		// In a given-n configuration, the test data only contains the sampled users
+		// (see CrossValidationRunner.createExperiments)
+		if (Recommender101Impl.EVALUATION_THREADS > 1) {
+			result = runExperimentsInParallel(Recommender101Impl.EVALUATION_THREADS, maxRatingPredictions, maxRecommendations);
+			recommender = null;
+			return result;
 		}
+		long cpuTime = ThreadStatistics.getCpuTime();
+		long allocatedBytes = ThreadStatistics.getAllocatedBytes();
+		
 		// ------------------------------------------------
 		// If there are prediction metrics -> generate predictions and send them to the prediction
 		// evaluators
@@ -175,10 +205,13 @@ public class Experiment {
 			// --------------------------------------------------------------
 			
 			int tenpercent = dataModel.getRatings().size() / 10;
+			long phaseStart = System.nanoTime();
 			
 			for (Rating r : this.dataModel.getRatings()) {
 				float prediction = Float.NaN;
+				long start = System.nanoTime();
 				prediction = recommender.predictRating(r.user, r.item);
+				runtimeResult.getPredictionLatency().record(System.nanoTime() - start);
 				// Apply clamping.
 				prediction = Utilities101.applyRatingBounds(prediction);
 				
@@ -197,6 +230,7 @@ public class Experiment {
 					break;
 				}
 			}
+			runtimeResult.addPhaseTime(RuntimeResult.PHASE_PREDICTIONS, System.nanoTime() - phaseStart);
 			// We are through with all ratings. Add the results we have to the result collector
 			for (PredictionEvaluator e : predictionMetrics) {
 				result.add(new EvaluationResult(recommender.getConfigurationFileString(),e.getConfigurationFileString(), e.getPredictionAccuracy()));				
@@ -212,12 +246,15 @@ public class Experiment {
 			int tenpercent = dataModel.getUsers().size() / 10;
 			
 			Set<Integer> testUsers = dataModel.getUsers();
+			long phaseStart = System.nanoTime();
 
 			for (Integer user: testUsers) {
-				List<Integer> recommendedList = recommender.recommendItems(user);
+				List<Integer> recommendedList = recommend(user, runtimeResult.getRecommendationLatency());
 				
+				// The positions of the items are looked up once for all evaluators
+				ItemRanks ranks = new ItemRanks(recommendedList);
 				for (RecommendationlistEvaluator e : listMetrics) {
-					e.addRecommendations(user, recommendedList);
+					e.addRecommendations(user, recommendedList, ranks);
 				}
 				counter++;
 				if (counter % tenpercent == 0) {
@@ -229,6 +266,7 @@ public class Experiment {
 					break;
 				}
 			}			
+			runtimeResult.addPhaseTime(RuntimeResult.PHASE_RECOMMENDATIONS, System.nanoTime() - phaseStart);
 			
 			// We are through with all ratings. Add the results we have to the result collector
 			for (RecommendationlistEvaluator e : listMetrics) {
@@ -236,14 +274,257 @@ public class Experiment {
 			}
 			Debug.log("Finished measuring list metrics for: " + Utilities101.removePackageQualifiers(recommender.getConfigurationFileString()));
 		}
+		addThreadUsage(PHASE_EVALUATION, cpuTime, allocatedBytes);
 		/**
 		 * Remove the pointer to the recommender object
 		 */
 		recommender = null;
 		return result;
 	}
+
+	/**
+	 * Creates the recommendation list of a user and records the duration of the call
+	 * @param latency the histogram of the calling thread
+	 */
+	List<Integer> recommend(Integer user, LatencyHistogram latency) {
+		long start = System.nanoTime();
+		List<Integer> recommendedList;
+		if (Recommender101Impl.TOP_N_LISTS_ONLY) {
+			recommendedList = IntArrayList.wrap(recommender.recommendTopN(user, Recommender101Impl.TOP_N));
+		}
+		else {
+			recommendedList = recommender.recommendItems(user);
+		}
+		latency.record(System.nanoTime() - start);
+		return recommendedList;
+	}
+
+	/**
+	 * Adds the CPU time and the allocated bytes of the current thread since the given values
+	 * to the runtime result
+	 * @param phase the phase
+	 * @param cpuTime the CPU time at the start (ThreadStatistics)
+	 * @param allocatedBytes the allocated bytes at the start (ThreadStatistics)
+	 */
+	void addThreadUsage(String phase, long cpuTime, long allocatedBytes) {
+		long cpuTimeNow = ThreadStatistics.getCpuTime();
+		long allocatedBytesNow = ThreadStatistics.getAllocatedBytes();
+		runtimeResult.addThreadUsage(phase, Thread.currentThread().getName(),
+				cpuTime < 0 || cpuTimeNow < 0 ? -1 : cpuTimeNow - cpuTime,
+				allocatedBytes < 0 || allocatedBytesNow < 0 ? -1 : allocatedBytesNow - allocatedBytes);
+	}
 		
 
+	// =====================================================================================
+
+	/**
+	 * The parallel variant of runExperiments(). The test ratings (for the prediction metrics) and
+	 * the test users (for the list metrics) are cut into blocks which are processed by several threads.
+	 * Every thread feeds its own instances of the mergeable evaluators, these partial results are merged
+	 * into the evaluators of the experiment at the end. Evaluators which cannot be merged are fed
+	 * sequentially with the predictions and lists computed by the threads.
+	 * The recommender has to support concurrent calls of predictRating() and recommendItems().
+	 * @param nbThreads the number of threads
+	 * @param maxRatingPredictions debug limit for the predictions (0 = no limit)
+	 * @param maxRecommendations debug limit for the recommendation lists (0 = no limit)
+	 * @return the evaluation results
+	 */
+	List<EvaluationResult> runExperimentsInParallel(int nbThreads, int maxRatingPredictions, int maxRecommendations) throws Exception {
+		List<EvaluationResult> result = new ArrayList<EvaluationResult>();
+		// Build the lazily computed averages of the test data before the threads need them
+		dataModel.getUserAverageRatings();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			if (predictionMetrics.size() > 0) {
+				Debug.log("Starting to measure prediction metrics (" + nbThreads + " threads) for: " + Utilities101.removePackageQualifiers(recommender.getConfigurationFileString()));
+				
+				List<Rating> allRatings = new ArrayList<Rating>(dataModel.getRatings());
+				// Same limit as in the sequential version
+				if (maxRatingPredictions > 0 && allRatings.size() > maxRatingPredictions + 1) {
+					allRatings = allRatings.subList(0, maxRatingPredictions + 1);
+				}
+				final List<Rating> ratings = allRatings;
+				final float[] predictions = new float[ratings.size()];
+				long phaseStart = System.nanoTime();
+				
+				List<List<Evaluator>> partials = runInBlocks(executor, nbThreads, ratings.size(), predictionMetrics,
+						runtimeResult.getPredictionLatency(), (partial, latency, from, to) -> {
+					for (int i = from; i < to; i++) {
+						Rating r = ratings.get(i);
+						long start = System.nanoTime();
+						float prediction = recommender.predictRating(r.user, r.item);
+						latency.record(System.nanoTime() - start);
+						// Apply clamping.
+						prediction = Utilities101.applyRatingBounds(prediction);
+						predictions[i] = prediction;
+						for (Evaluator e : partial) {
+							if (e != null) {
+								((PredictionEvaluator) e).addTestPrediction(r, prediction);
+							}
+						}
+					}
+				});
+				runtimeResult.addPhaseTime(RuntimeResult.PHASE_PREDICTIONS, System.nanoTime() - phaseStart);
+				
+				for (int j = 0; j < predictionMetrics.size(); j++) {
+					PredictionEvaluator e = predictionMetrics.get(j);
+					if (e.isMergeable()) {
+						mergePartials(e, partials, j);
+					}
+					else {
+						for (int i = 0; i < ratings.size(); i++) {
+							e.addTestPrediction(ratings.get(i), predictions[i]);
+						}
+					}
+					result.add(new EvaluationResult(recommender.getConfigurationFileString(),e.getConfigurationFileString(), e.getPredictionAccuracy()));
+				}
+				Debug.log("Finished measuring prediction metrics for: " + Utilities101.removePackageQualifiers(recommender.getConfigurationFileString()));
+			}
+			
+			if (listMetrics.size() > 0) {
+				Debug.log("Starting to measure list metrics (" + nbThreads + " threads) for: " + Utilities101.removePackageQualifiers(recommender.getConfigurationFileString()));
+				
+				List<Integer> allUsers = new ArrayList<Integer>(dataModel.getUsers());
+				if (maxRecommendations > 0 && allUsers.size() > maxRecommendations + 1) {
+					allUsers = allUsers.subList(0, maxRecommendations + 1);
+				}
+				final List<Integer> users = allUsers;
+				// The lists are only kept if an evaluator has to be fed sequentially
+				boolean keepLists = false;
+				for (RecommendationlistEvaluator e : listMetrics) {
+					keepLists |= !e.isMergeable();
+				}
+				final ItemRanks[] lists = keepLists ? new ItemRanks[users.size()] : null;
+				long phaseStart = System.nanoTime();
+				
+				List<List<Evaluator>> partials = runInBlocks(executor, nbThreads, users.size(), listMetrics,
+						runtimeResult.getRecommendationLatency(), (partial, latency, from, to) -> {
+					for (int i = from; i < to; i++) {
+						Integer user = users.get(i);
+						List<Integer> recommendedList = recommend(user, latency);
+						ItemRanks ranks = new ItemRanks(recommendedList);
+						if (lists != null) {
+							lists[i] = ranks;
+						}
+						for (Evaluator e : partial) {
+							if (e != null) {
+								((RecommendationlistEvaluator) e).addRecommendations(user, recommendedList, ranks);
+							}
+						}
+					}
+				});
+				runtimeResult.addPhaseTime(RuntimeResult.PHASE_RECOMMENDATIONS, System.nanoTime() - phaseStart);
+				
+				for (int j = 0; j < listMetrics.size(); j++) {
+					RecommendationlistEvaluator e = listMetrics.get(j);
+					if (e.isMergeable()) {
+						mergePartials(e, partials, j);
+					}
+					else {
+						for (int i = 0; i < users.size(); i++) {
+							e.addRecommendations(users.get(i), lists[i].getList(), lists[i]);
+						}
+					}
+					result.add(new EvaluationResult(recommender.getConfigurationFileString(),e.getConfigurationFileString(), e.getEvaluationResult()));
+				}
+				Debug.log("Finished measuring list metrics for: " + Utilities101.removePackageQualifiers(recommender.getConfigurationFileString()));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return result;
+	}
+	
+	/**
+	 * The work of one block in the parallel mode
+	 */
+	interface BlockTask {
+		/**
+		 * Processes the entries [from, to)
+		 * @param partial the evaluators of the worker, null for evaluators which cannot be merged
+		 * @param latency the histogram of the worker for the call durations
+		 */
+		void run(List<Evaluator> partial, LatencyHistogram latency, int from, int to) throws Exception;
+	}
+	
+	/**
+	 * Cuts [0, n) into blocks and runs the task for each of them on nbThreads workers, which
+	 * take the next open block when they are done with one. A few more blocks than threads are
+	 * used so that slow users do not leave threads idle. Every worker feeds its own partial
+	 * evaluators and latency histogram, the histograms are merged when the workers are done.
+	 * @param metrics the evaluators whose partial instances are handed to the task
+	 * @param latency the histogram of the experiment for the call durations
+	 * @return the partial evaluators of each worker, aligned with the given metrics
+	 */
+	List<List<Evaluator>> runInBlocks(ExecutorService executor, int nbThreads, int n,
+			List<? extends Evaluator> metrics, LatencyHistogram latency, BlockTask task) throws Exception {
+		final int nbBlocks = Math.max(1, Math.min(n, nbThreads * 4));
+		final AtomicInteger nextBlock = new AtomicInteger();
+		List<Future<List<Evaluator>>> futures = new ArrayList<Future<List<Evaluator>>>();
+		for (int t = 0; t < Math.min(nbThreads, nbBlocks); t++) {
+			futures.add(executor.submit(() -> {
+				long cpuTime = ThreadStatistics.getCpuTime();
+				long allocatedBytes = ThreadStatistics.getAllocatedBytes();
+				List<Evaluator> partial = createPartialEvaluators(metrics);
+				LatencyHistogram workerLatency = new LatencyHistogram();
+				int b;
+				while ((b = nextBlock.getAndIncrement()) < nbBlocks) {
+					int from = (int) ((long) n * b / nbBlocks);
+					int to = (int) ((long) n * (b + 1) / nbBlocks);
+					task.run(partial, workerLatency, from, to);
+				}
+				synchronized (latency) {
+					latency.merge(workerLatency);
+				}
+				addThreadUsage(PHASE_EVALUATION, cpuTime, allocatedBytes);
+				return partial;
+			}));
+		}
+		List<List<Evaluator>> result = new ArrayList<List<Evaluator>>(futures.size());
+		for (Future<List<Evaluator>> future : futures) {
+			try {
+				result.add(future.get());
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Merges the partial results of the workers into an evaluator
+	 * @param e the evaluator
+	 * @param partials the partial instances of the workers, see runInBlocks()
+	 * @param index the position of the evaluator in the list of metrics
+	 * @throws IllegalStateException if the evaluator is not mergeable
+	 */
+	static void mergePartials(Evaluator e, List<List<Evaluator>> partials, int index) {
+		if (!e.isMergeable()) {
+			throw e.notMergeable();
+		}
+		for (List<Evaluator> partial : partials) {
+			e.merge(partial.get(index));
+		}
+	}
+
+	/**
+	 * Creates empty partial instances of the given evaluators (see Evaluator.createPartial())
+	 * @return the instances, aligned with the given list; null for evaluators which cannot be merged
+	 */
+	List<Evaluator> createPartialEvaluators(List<? extends Evaluator> metrics) {
+		List<Evaluator> result = new ArrayList<Evaluator>(metrics.size());
+		for (Evaluator e : metrics) {
+			result.add(e.isMergeable() ? e.createPartial() : null);
+		}
+		return result;
+	}
+
 	// =====================================================================================
 
 	/**
@@ -269,4 +550,22 @@ public class Experiment {
 		return evaluationRound;
 	}
 
+	/**
+	 * Returns the measured runtimes
+	 */
+	public RuntimeResult getRuntimeResult() {
+		return runtimeResult;
+	}
+
+	/**
+	 * Replaces the recommender, e.g. by a trained one from the model store
+	 * @param recommender the recommender to evaluate
+	 */
+	void setRecommender(AbstractRecommender recommender) {
+		this.recommender = recommender;
+		for (Evaluator e : evaluators) {
+			e.setRecommender(recommender);
+		}
+	}
+
 }
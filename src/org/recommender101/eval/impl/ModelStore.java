@@ -0,0 +1,241 @@
+/** DJ **/
+package org.recommender101.eval.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.Rating;
+import org.recommender101.recommender.AbstractRecommender;
+import org.recommender101.tools.Debug;
+
+/**
+ * Stores trained recommenders on disk, so that repeated evaluations (e.g. with other metrics)
+ * do not have to train them again. A model is found by a hash of the recommender configuration,
+ * the training data, the split number and the seed of the data splitter.
+ *
+ * The recommenders are written with Java serialization (gzipped). The training data is not
+ * written: references to data models are replaced by a placeholder, which is resolved to the
+ * training data of the current round when the model is loaded. Recommenders which cannot be
+ * serialized are simply trained every time.
+ * @author DJ
+ *
+ */
+public class ModelStore {
+
+	// The directory of the models
+	final File directory;
+
+	// The recommender classes which could not be serialized (reported once)
+	final Set<String> notSerializable = Collections.synchronizedSet(new HashSet<String>());
+
+	// =====================================================================================
+
+	/**
+	 * Creates the store
+	 * @param directory the directory of the model files, created if needed
+	 */
+	public ModelStore(String directory) {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			System.err.println("[Error] Cannot create the model store directory " + directory);
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Computes a fingerprint of the training data which does not depend on the order of the ratings
+	 * @param dm the training data
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(DataModel dm) {
+		long sum = 0;
+		long xor = 0;
+		for (Rating r : dm.getRatings()) {
+			long h = mix(((long) r.user << 32) ^ (r.item & 0xffffffffL));
+			h = mix(h ^ Float.floatToIntBits(r.rating));
+			sum += h;
+			xor ^= h;
+		}
+		return mix(sum ^ mix(xor) ^ dm.getRatings().size());
+	}
+
+	/**
+	 * A 64 bit hash mixing function (from SplitMix64)
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the key of a trained model
+	 * @param recommender the recommender (class and configuration)
+	 * @param fingerprint the fingerprint of the training data
+	 * @param splitNumber the split number of the training data
+	 * @param seed the seed of the data splitter
+	 * @return the key (a hex string)
+	 */
+	public static String key(AbstractRecommender recommender, long fingerprint, int splitNumber, long seed) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			String description = recommender.getClass().getName() + "\n" + recommender.getConfigurationFileString()
+					+ "\n" + fingerprint + "\n" + splitNumber + "\n" + seed;
+			byte[] hash = digest.digest(description.getBytes(StandardCharsets.UTF_8));
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				result.append(String.format("%02x", hash[i]));
+			}
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Loads a trained recommender
+	 * @param recommender the untrained recommender; its data model is given to the loaded one
+	 * @param key the key of the model
+	 * @return the trained recommender or null if there is no (readable) model
+	 */
+	public AbstractRecommender load(AbstractRecommender recommender, String key) {
+		File file = new File(directory, key + ".model");
+		if (!file.isFile()) {
+			return null;
+		}
+		try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			Object o = new ModelInputStream(in, recommender.getDataModel()).readObject();
+			if (o == null || o.getClass() != recommender.getClass()) {
+				return null;
+			}
+			AbstractRecommender result = (AbstractRecommender) o;
+			// The configuration is not part of the serialized state
+			result.setConfigurationFileString(recommender.getConfigurationFileString());
+			Debug.log("Loaded the trained model of " + recommender.getConfigurationFileString() + " from " + file);
+			return result;
+		}
+		catch (Exception e) {
+			// e.g. the class has changed since the model was written
+			System.err.println("[Warning] Cannot load the model " + file + ", training again: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a trained recommender
+	 * @param recommender the trained recommender
+	 * @param key the key of the model
+	 * @return true if the model was stored
+	 */
+	public boolean store(AbstractRecommender recommender, String key) {
+		String className = recommender.getClass().getName();
+		if (notSerializable.contains(className)) {
+			return false;
+		}
+		File file = new File(directory, key + ".model");
+		File tmp = null;
+		try {
+			// Written to a temporary file first, so that no half-written models are found
+			tmp = File.createTempFile(key, ".tmp", directory);
+			try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				ObjectOutputStream oos = new ModelOutputStream(out);
+				oos.writeObject(recommender);
+				oos.flush();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Debug.log("Stored the trained model of " + recommender.getConfigurationFileString() + " in " + file);
+			return true;
+		}
+		catch (Exception e) {
+			if (notSerializable.add(className)) {
+				System.err.println("[Warning] Cannot store the models of " + className + ": " + e);
+			}
+			return false;
+		}
+		finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Written instead of the data models
+	 */
+	static final class TrainingDataPlaceholder implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		static final TrainingDataPlaceholder INSTANCE = new TrainingDataPlaceholder();
+
+		Object readResolve() throws ObjectStreamException {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Replaces the data models by the placeholder
+	 */
+	static class ModelOutputStream extends ObjectOutputStream {
+		ModelOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			if (obj instanceof DataModel) {
+				return TrainingDataPlaceholder.INSTANCE;
+			}
+			return obj;
+		}
+	}
+
+	/**
+	 * Replaces the placeholder by the training data
+	 */
+	static class ModelInputStream extends ObjectInputStream {
+		final DataModel trainingData;
+
+		ModelInputStream(InputStream in, DataModel trainingData) throws IOException {
+			super(in);
+			this.trainingData = trainingData;
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof TrainingDataPlaceholder) {
+				return trainingData;
+			}
+			return obj;
+		}
+	}
+
+}
@@ -64,6 +64,32 @@ public class Recommender101Impl {
 	 */
 	public static boolean FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION = false; 
 	
+	/**
+	 * Should the recommenders be trained on an immutable, compact copy of the training data?
+	 */
+	public static boolean COMPACT_TRAINING_DATA = false;
+	
+	/**
+	 * Should the list metrics only get the top-n lists of the recommenders (instead of full rankings)?
+	 */
+	public static boolean TOP_N_LISTS_ONLY = false;
+	
+	/**
+	 * The number of threads used to evaluate a single experiment (1 = sequential)
+	 */
+	public static int EVALUATION_THREADS = 1;
+	
+	/**
+	 * The heap (in MB) the cross-validation may use before it waits for running folds to finish
+	 * instead of setting up the next one (0 = no limit)
+	 */
+	public static int FOLD_MEMORY_BUDGET = 0;
+	
+	/**
+	 * The directory of the trained models to be reused in later runs (null = always train)
+	 */
+	public static String MODEL_STORE_DIRECTORY = null;
+	
 	/**
 	 * path to the csv file to append the results
 	 */
@@ -319,6 +345,11 @@ public class Recommender101Impl {
 		readProperty("PROP_GLOBAL_FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION", "FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION");
 		readProperty("PROP_GLOBAL_PREDICTION_RELEVANCE_MIN_PERCENTAGE_ABOVE_AVERAGE", "PREDICTION_RELEVANCE_MIN_PERCENTAGE_ABOVE_AVERAGE");
 		readProperty("PROP_GLOBAL_PREDICTION_RELEVANCE_MIN_RATING", "PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE");
+		readProperty("PROP_GLOBAL_COMPACT_TRAINING_DATA", "COMPACT_TRAINING_DATA");
+		readProperty("PROP_GLOBAL_TOP_N_LISTS_ONLY", "TOP_N_LISTS_ONLY");
+		readProperty("PROP_GLOBAL_EVALUATION_THREADS", "EVALUATION_THREADS");
+		readProperty("PROP_GLOBAL_FOLD_MEMORY_BUDGET", "FOLD_MEMORY_BUDGET");
+		readProperty("PROP_GLOBAL_MODEL_STORE_DIRECTORY", "MODEL_STORE_DIRECTORY");
 
 		// More settings
 		dataModel.setMaxRatingValue(MAX_RATING);
@@ -374,6 +405,13 @@ public class Recommender101Impl {
 			catch (Exception e) {
 				System.err.println("[Error] Writing to file " + csvRuntimePath + " failed: " + e.getMessage());
 			}
+			String csvRuntimeDetailsPath = CSVOutputWriter.getRuntimeDetailsPath(csvRuntimePath);
+			try  {
+				CSVOutputWriter.writeRuntimeDetailsToCSV(experimentTitle, lastRuntimes, csvRuntimeDetailsPath, csvAppend);
+			}
+			catch (Exception e) {
+				System.err.println("[Error] Writing to file " + csvRuntimeDetailsPath + " failed: " + e.getMessage());
+			}
 		}
 		
 			
@@ -734,6 +772,21 @@ public class Recommender101Impl {
 	// filtering of items
 	public static String PROP_GLOBAL_FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION = "GlobalSettings.filterNonRelevantItemsForRecommendation";
 
+	// use the compact (CSR/CSC) data model for training
+	public static String PROP_GLOBAL_COMPACT_TRAINING_DATA = "GlobalSettings.compactTrainingData";
+
+	// only compute top-n lists for the list metrics
+	public static String PROP_GLOBAL_TOP_N_LISTS_ONLY = "GlobalSettings.topNListsOnly";
+
+	// threads per experiment for the evaluation
+	public static String PROP_GLOBAL_EVALUATION_THREADS = "GlobalSettings.evaluationThreads";
+
+	// heap budget (MB) for the folds of the cross-validation
+	public static String PROP_GLOBAL_FOLD_MEMORY_BUDGET = "GlobalSettings.foldMemoryBudget";
+
+	// directory of the stored trained models
+	public static String PROP_GLOBAL_MODEL_STORE_DIRECTORY = "GlobalSettings.modelStoreDirectory";
+
 	// Number of threads to use
 	public static String PROP_GLOBAL_NUM_OF_THREADS = "GlobalSettings.numOfThreads";
 
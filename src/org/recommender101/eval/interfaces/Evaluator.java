@@ -3,6 +3,7 @@ package org.recommender101.eval.interfaces;
 
 import org.recommender101.data.DataModel;
 import org.recommender101.recommender.AbstractRecommender;
+import org.recommender101.tools.ClassInstantiator;
 import org.recommender101.tools.Instantiable;
 
 /**
@@ -112,7 +113,65 @@ public abstract class Evaluator extends Instantiable {
 	public void setRecommender(AbstractRecommender recommender) {
 		this.recommender = recommender;
 	}
-	
+
+	// =====================================================================================
+	// Parallel evaluation: every thread feeds its own instance of the evaluator (created
+	// with the same settings), the partial results are merged at the end
+
+	/**
+	 * Can the partial results of several instances of this evaluator be combined with merge()?
+	 * Every thread feeds its own instance from createPartial() with a disjoint part of the test data
+	 * (in no particular order), and merging all of them must give the same result as feeding all the
+	 * data to one instance. This holds for sums and counts collected per rating or per user.
+	 * Evaluators which return false are fed sequentially.
+	 * @return true if merge() is implemented
+	 */
+	public boolean isMergeable() {
+		return false;
+	}
+
+	/**
+	 * Adds the results collected by another instance of this evaluator (same class
+	 * and settings) to this one. Must be implemented by the evaluators that are mergeable
+	 * @param other the partial results
+	 * @throws IllegalStateException if the evaluator is not mergeable
+	 */
+	public void merge(Evaluator other) {
+		throw notMergeable();
+	}
+
+	/**
+	 * The error for combining the partial results of an evaluator that is not mergeable
+	 */
+	public IllegalStateException notMergeable() {
+		return new IllegalStateException("The evaluator " + getClass().getName()
+				+ " is not mergeable, its partial results cannot be combined");
+	}
+
+	/**
+	 * Creates an empty instance with the same settings, data models and recommender, which
+	 * collects a partial result to be merged into this evaluator
+	 * @return the new instance
+	 */
+	public Evaluator createPartial() {
+		Evaluator result = (Evaluator) ClassInstantiator.instantiateClass(getConfigurationFileString());
+		result.setTrainingDataModel(trainingDataModel);
+		result.setTestDataModel(testDataModel);
+		result.initializePartial(this);
+		result.setRecommenderName(recommenderName);
+		result.setRecommender(recommender);
+		return result;
+	}
+
+	/**
+	 * Initializes an instance created by createPartial(). Calls initialize(); evaluators which
+	 * scan the data in initialize() can take over the (read-only) state of the parent instead
+	 * @param parent the initialized evaluator the partial result will be merged into
+	 */
+	protected void initializePartial(Evaluator parent) {
+		initialize();
+	}
+
 	
 	
 	
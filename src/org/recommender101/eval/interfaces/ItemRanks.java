@@ -0,0 +1,67 @@
+/** DJ **/
+package org.recommender101.eval.interfaces;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.List;
+
+/**
+ * The positions of the items in a recommendation list. Created once per list and handed to
+ * all list evaluators, so that they do not have to search the list for each item.
+ * The map is built on first use. Not thread-safe, an instance belongs to one list evaluation.
+ * @author DJ
+ *
+ */
+public class ItemRanks {
+
+	// The recommendation list
+	final List<Integer> list;
+
+	// Item -> position (first occurrence), -1 for missing items
+	Int2IntOpenHashMap ranks = null;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the rank lookup for a list
+	 * @param list the recommendation list, can be null
+	 */
+	public ItemRanks(List<Integer> list) {
+		this.list = list;
+	}
+
+	/**
+	 * Returns the position of an item in the list
+	 * @param item the item id
+	 * @return the zero-based position or -1 if the item is not in the list
+	 */
+	public int rank(int item) {
+		if (ranks == null) {
+			int size = list == null ? 0 : list.size();
+			ranks = new Int2IntOpenHashMap(size);
+			ranks.defaultReturnValue(-1);
+			for (int k = 0; k < size; k++) {
+				Integer listItem = list.get(k);
+				if (listItem != null) {
+					ranks.putIfAbsent(listItem.intValue(), k);
+				}
+			}
+		}
+		return ranks.get(item);
+	}
+
+	/**
+	 * Is the item in the list?
+	 */
+	public boolean contains(int item) {
+		return rank(item) >= 0;
+	}
+
+	/**
+	 * Returns the list
+	 */
+	public List<Integer> getList() {
+		return list;
+	}
+
+}
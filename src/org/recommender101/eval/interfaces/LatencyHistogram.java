@@ -0,0 +1,120 @@
+/** DJ **/
+package org.recommender101.eval.interfaces;
+
+import org.recommender101.gui.annotations.R101HideFromGui;
+
+/**
+ * A histogram of call durations (e.g. of the rating predictions) for the percentiles.
+ * The durations are counted in logarithmic buckets (16 sub-buckets per power of two), so
+ * a percentile is exact to about 6 % and the histogram has a fixed size of a few KB.
+ * Not thread-safe: parallel workers fill histograms of their own, which are merged at the end.
+ * @author DJ
+ *
+ */
+@R101HideFromGui
+public class LatencyHistogram {
+
+	// The number of sub-buckets per power of two (as a power of two)
+	static final int SUB_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	// The counts per bucket
+	final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+
+	// The number of calls and their summed up duration
+	long count;
+	long totalTime;
+
+	// =====================================================================================
+
+	/**
+	 * Counts a call
+	 * @param nanos the duration of the call in ns
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucket(nanos)]++;
+		count++;
+		totalTime += nanos;
+	}
+
+	/**
+	 * Adds the calls counted by another histogram
+	 * @param other e.g. the histogram of a worker thread
+	 */
+	public void merge(LatencyHistogram other) {
+		for (int b = 0; b < counts.length; b++) {
+			counts[b] += other.counts[b];
+		}
+		count += other.count;
+		totalTime += other.totalTime;
+	}
+
+	/**
+	 * The bucket of a duration: the values below SUB_BUCKETS have their own buckets, above
+	 * the bucket is given by the highest bit and the SUB_BITS bits after it
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = highestBit - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * The largest duration which falls into a bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return base + (1L << shift) - 1;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Returns a percentile of the durations
+	 * @param percentile e.g. 50, 95 or 99
+	 * @return the duration in ns (upper bound of the bucket), 0 if nothing was counted
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int b = 0; b < counts.length; b++) {
+			total += counts[b];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int b = 0; b < counts.length; b++) {
+			seen += counts[b];
+			if (seen >= rank) {
+				return upperBound(b);
+			}
+		}
+		return upperBound(counts.length - 1);
+	}
+
+	/**
+	 * The number of counted calls
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The summed up duration of all calls in ns
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+}
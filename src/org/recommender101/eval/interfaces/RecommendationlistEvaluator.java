@@ -3,11 +3,12 @@ package org.recommender101.eval.interfaces;
 
 import java.util.List;
 
+import org.recommender101.data.DataModel;
 import org.recommender101.eval.impl.Recommender101Impl;
 import org.recommender101.gui.annotations.R101HideFromGui;
 import org.recommender101.gui.annotations.R101Setting;
 import org.recommender101.gui.annotations.R101Setting.SettingsType;
-import org.recommender101.tools.Utilities101;
+import org.recommender101.tools.RelevanceCache;
 
 
 /**
@@ -24,7 +25,19 @@ public abstract class RecommendationlistEvaluator extends Evaluator {
 	 * @param list the list of recommended items. Can also be null or empty
 	 */
 	public abstract void addRecommendations(Integer user, List<Integer> list);
-	
+
+	/**
+	 * Add a recommendation list together with the positions of its items. The experiment creates
+	 * the ranks once per list for all evaluators. Evaluators which look up positions or check
+	 * whether items are in the list override this method, the default ignores the ranks.
+	 * @param user the user for whom the recommendation is made
+	 * @param list the list of recommended items. Can also be null or empty
+	 * @param ranks the positions of the items in the list
+	 */
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
+		addRecommendations(user, list);
+	}
+
 	/**
 	 * Calculates and returns the result at the end.
 	 * @return
@@ -88,7 +101,23 @@ public abstract class RecommendationlistEvaluator extends Evaluator {
 	 * @return true if the item is relevant
 	 */
 	public boolean isItemRelevant(int item, int user) {
-		return Utilities101.isItemRelevant(item, user, getTestDataModel());
+		return getRelevanceCache().isRelevant(item, user);
+	}
+
+	/**
+	 * The relevant items of the test data, shared by all evaluators of the fold
+	 */
+	RelevanceCache relevanceCache = null;
+
+	/**
+	 * Returns the relevance cache of the current test data
+	 */
+	public RelevanceCache getRelevanceCache() {
+		DataModel testData = getTestDataModel();
+		if (relevanceCache == null || !relevanceCache.isFor(testData)) {
+			relevanceCache = RelevanceCache.getInstance(testData);
+		}
+		return relevanceCache;
 	}
 
 	/*
@@ -109,7 +138,7 @@ public abstract class RecommendationlistEvaluator extends Evaluator {
 			}
 		}
 		else {
-			return  Utilities101.isItemRelevant(item, user, getTestDataModel());
+			return isItemRelevant(item, user);
 		}
 	}
 	
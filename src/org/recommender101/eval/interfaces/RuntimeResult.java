@@ -1,5 +1,10 @@
 package org.recommender101.eval.interfaces;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.recommender101.gui.annotations.R101HideFromGui;
 
 /**
@@ -8,6 +13,10 @@ import org.recommender101.gui.annotations.R101HideFromGui;
  */
 @R101HideFromGui
 public class RuntimeResult {
+		// The phases of the evaluation in which the predictions and recommendations are made
+		public static final String PHASE_PREDICTIONS = "predictions";
+		public static final String PHASE_RECOMMENDATIONS = "recommendation lists";
+
 		// The runtime for the training in ms
 		long trainTime;
 		// The runtime for the prediction in ms
@@ -16,6 +25,17 @@ public class RuntimeResult {
 		String algorithm;
 		int evaluationRound;
 		
+		// The time of the phases (of the training and the evaluation) in ns and their number
+		// (e.g. the number of epochs)
+		final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+		// The durations of the predictRating() and recommendItems() calls
+		final LatencyHistogram predictionLatency = new LatencyHistogram();
+		final LatencyHistogram recommendationLatency = new LatencyHistogram();
+		// The CPU time and allocated bytes of the threads which worked on the experiment
+		final List<ThreadUsage> threadUsages = new ArrayList<ThreadUsage>();
+		// The peak heap usage of the run up to the end of the experiment in bytes
+		long peakHeapUsage = -1;
+		
 		// =====================================================================================
 
 		public RuntimeResult(String thealgorithm) {
@@ -76,6 +96,162 @@ public class RuntimeResult {
 			this.evaluationRound = evaluationRound;
 		}
 
+		// =====================================================================================
+
+		/**
+		 * Adds the duration of a phase. Phases with the same name are summed up and counted
+		 * @param phase the name of the phase
+		 * @param nanos the duration in ns
+		 */
+		public void addPhaseTime(String phase, long nanos) {
+			addPhaseTime(phase, nanos, 1);
+		}
+
+		/**
+		 * Adds the duration of a phase which was executed several times
+		 * @param phase the name of the phase
+		 * @param nanos the duration in ns
+		 * @param count the number of executions
+		 */
+		public synchronized void addPhaseTime(String phase, long nanos, long count) {
+			long[] phaseTime = phases.get(phase);
+			if (phaseTime == null) {
+				phaseTime = new long[2];
+				phases.put(phase, phaseTime);
+			}
+			phaseTime[0] += nanos;
+			phaseTime[1] += count;
+		}
+
+		/**
+		 * Returns the phases in the order of their first execution
+		 */
+		public synchronized List<String> getPhases() {
+			return new ArrayList<String>(phases.keySet());
+		}
+
+		/**
+		 * Returns the summed up duration of a phase in ns, 0 for unknown phases
+		 */
+		public synchronized long getPhaseTime(String phase) {
+			long[] phaseTime = phases.get(phase);
+			return phaseTime == null ? 0 : phaseTime[0];
+		}
+
+		/**
+		 * Returns how often a phase was executed
+		 */
+		public synchronized long getPhaseCount(String phase) {
+			long[] phaseTime = phases.get(phase);
+			return phaseTime == null ? 0 : phaseTime[1];
+		}
+
+		// =====================================================================================
+
+		public LatencyHistogram getPredictionLatency() {
+			return predictionLatency;
+		}
+
+		// =====================================================================================
+
+		public LatencyHistogram getRecommendationLatency() {
+			return recommendationLatency;
+		}
+
+		// =====================================================================================
+
+		/**
+		 * The number of predictions per second (wall time of the prediction phase)
+		 */
+		public double getPredictionThroughput() {
+			return getThroughput(predictionLatency, PHASE_PREDICTIONS);
+		}
+
+		/**
+		 * The number of recommendation lists per second (wall time of the recommendation phase)
+		 */
+		public double getRecommendationThroughput() {
+			return getThroughput(recommendationLatency, PHASE_RECOMMENDATIONS);
+		}
+
+		double getThroughput(LatencyHistogram latency, String phase) {
+			long nanos = getPhaseTime(phase);
+			return nanos == 0 ? 0 : latency.getCount() / (nanos / 1e9);
+		}
+
+		// =====================================================================================
+
+		/**
+		 * Adds the CPU time and the allocated bytes of a thread
+		 * @param phase the phase in which they were measured
+		 * @param thread the name of the thread
+		 * @param cpuTime the CPU time in ns (-1 if unknown)
+		 * @param allocatedBytes the allocated bytes (-1 if unknown)
+		 */
+		public synchronized void addThreadUsage(String phase, String thread, long cpuTime, long allocatedBytes) {
+			for (ThreadUsage usage : threadUsages) {
+				if (usage.phase.equals(phase) && usage.thread.equals(thread)) {
+					// unknown values stay unknown
+					usage.cpuTime = cpuTime < 0 || usage.cpuTime < 0 ? -1 : usage.cpuTime + cpuTime;
+					usage.allocatedBytes = allocatedBytes < 0 || usage.allocatedBytes < 0 ? -1 : usage.allocatedBytes + allocatedBytes;
+					return;
+				}
+			}
+			threadUsages.add(new ThreadUsage(phase, thread, cpuTime, allocatedBytes));
+		}
+
+		public synchronized List<ThreadUsage> getThreadUsages() {
+			return new ArrayList<ThreadUsage>(threadUsages);
+		}
+
+		// =====================================================================================
+
+		public long getPeakHeapUsage() {
+			return peakHeapUsage;
+		}
+
+		// =====================================================================================
+
+		public void setPeakHeapUsage(long peakHeapUsage) {
+			this.peakHeapUsage = peakHeapUsage;
+		}
+
+		// =====================================================================================
+
+		/**
+		 * The resources a thread used in a phase
+		 */
+		public static class ThreadUsage {
+			final String phase;
+			final String thread;
+			long cpuTime;
+			long allocatedBytes;
+
+			ThreadUsage(String phase, String thread, long cpuTime, long allocatedBytes) {
+				this.phase = phase;
+				this.thread = thread;
+				this.cpuTime = cpuTime;
+				this.allocatedBytes = allocatedBytes;
+			}
+
+			public String getPhase() {
+				return phase;
+			}
+
+			public String getThread() {
+				return thread;
+			}
+
+			// The CPU time in ns
+			public long getCpuTime() {
+				return cpuTime;
+			}
+
+			public long getAllocatedBytes() {
+				return allocatedBytes;
+			}
+		}
+
 		/**
 		 * Returns a string representation of the result
 		 */
@@ -2,6 +2,8 @@ package org.recommender101.eval.metrics;
 
 import java.util.List;
 
+import org.recommender101.eval.interfaces.Evaluator;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.recommender.AbstractRecommender;
@@ -23,8 +25,16 @@ public class F1 extends RecommendationlistEvaluator {
 	 */
 	@Override
 	public void addRecommendations(Integer user, List<Integer> list) {
-		precision.addRecommendations(user, list);
-		recall.addRecommendations(user, list);
+		addRecommendations(user, list, new ItemRanks(list));
+	}
+
+	/**
+	 * Precision and recall share the ranks
+	 */
+	@Override
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
+		precision.addRecommendations(user, list, ranks);
+		recall.addRecommendations(user, list, ranks);
 	}
 	
 	/**
@@ -72,6 +82,21 @@ public class F1 extends RecommendationlistEvaluator {
 		recall.setRecommender(this.getRecommender());
 	}
 
+	/**
+	 * F1 is mergeable because the internal metrics are
+	 */
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		F1 o = (F1) other;
+		precision.merge(o.precision);
+		recall.merge(o.recall);
+	}
+
 	/**
 	 * Calculate the result from the internal metrics
 	 */
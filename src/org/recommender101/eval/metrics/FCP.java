@@ -1,9 +1,12 @@
 package org.recommender101.eval.metrics;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -26,48 +29,109 @@ import org.recommender101.gui.annotations.R101Class;
 public class FCP extends RecommendationlistEvaluator {
 
 	// the final division
-	int top = 0;
-	int bottom = 0;
+	long top = 0;
+	long bottom = 0;
 	
 	@Override
 	public void addRecommendations(Integer user, List<Integer> list) {
+		addRecommendations(user, list, new ItemRanks(list));
+	}
+
+	/**
+	 * Counts the pairs with a sort instead of comparing all pairs: the test ratings are ordered by
+	 * the position of their item in the list (items which are not in the list come last). A pair is
+	 * concordant if the item with the higher rating comes first, so for every rating we count the
+	 * higher ratings before it with a Fenwick tree over the rating values. O(n log n) for n ratings.
+	 */
+	@Override
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
 		// return for a list with 0 or 1 ratings, since there have to be at least 2 to compare
 		if (list.size() <= 1) return;
 		
-		
-		List<Rating> listRatingsOfUser = new ArrayList<Rating>(getTestDataModel().getRatingsPerUser().get(user));
+		Set<Rating> ratingsOfUser = getTestDataModel().getRatingsPerUser().get(user);
 		// return for a list with 0 or 1 ratings, since there have to be at least 2 to compare
-		if(listRatingsOfUser.size() <= 1) return;
+		if (ratingsOfUser == null || ratingsOfUser.size() <= 1) return;
 		
-		// run through all pairs of ratings
-		for (int i = 0; i < listRatingsOfUser.size()-1; i++) {
-			for (int j = i+1; j < listRatingsOfUser.size() ; j++){
-				Rating yi = listRatingsOfUser.get(i);
-				Rating yj = listRatingsOfUser.get(j);
-
-				// do nothing when the rating is equal
-				if (yi.rating == yj.rating) continue;
-				// swap ratings
-				else if (yi.rating < yj.rating){
-					yi = listRatingsOfUser.get(j);
-					yj = listRatingsOfUser.get(i);
+		int n = ratingsOfUser.size();
+		float[] values = new float[n];
+		// position in the list (high bits) and index of the rating (low bits)
+		long[] order = new long[n];
+		int k = 0;
+		for (Rating r : ratingsOfUser) {
+			int position = ranks.rank(r.item);
+			if (position < 0) {
+				position = Integer.MAX_VALUE;
+			}
+			values[k] = r.rating;
+			order[k] = ((long) position << 32) | k;
+			k++;
+		}
+		Arrays.sort(order);
+		
+		// Map the ratings to levels 1..m
+		float[] distinct = values.clone();
+		Arrays.sort(distinct);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || distinct[i] != distinct[i - 1]) {
+				distinct[m++] = distinct[i];
+			}
+		}
+		int[] level = new int[n];
+		int[] perLevel = new int[m + 1];
+		for (int i = 0; i < n; i++) {
+			level[i] = Arrays.binarySearch(distinct, 0, m, values[i]) + 1;
+			perLevel[level[i]]++;
+		}
+		
+		// every pair with different ratings is counted
+		long pairs = (long) n * (n - 1) / 2;
+		for (int c : perLevel) {
+			pairs -= (long) c * (c - 1) / 2;
+		}
+		bottom += pairs;
+		
+		// Go through the ratings in list order, items at the same position (the ones missing in the
+		// list) are not counted against each other
+		int[] tree = new int[m + 1];
+		int inserted = 0;
+		int from = 0;
+		while (from < n) {
+			int to = from + 1;
+			while (to < n && (order[to] >>> 32) == (order[from] >>> 32)) {
+				to++;
+			}
+			for (int i = from; i < to; i++) {
+				int l = level[(int) order[i]];
+				// the higher ratings seen before
+				int lowerOrEqual = 0;
+				for (int j = l; j > 0; j -= j & -j) {
+					lowerOrEqual += tree[j];
 				}
-				// now yi.rating > yj.rating holds, so count the pair
-				bottom++;
-				int ydi = list.indexOf(yi.item);
-				int ydj = list.indexOf(yj.item);
-				
-				// there are two cases where the item pairs in the recommendation list have to be counted:
-				
-				// 1) check whether item i comes before j in the recommendation list
-				//   and if i's position is not -1 (not in the list).
-				if (ydi < ydj && ydi != -1) top++;
-				// 2) otherwise if j is before i but in truth j is just not in the list (aka -1)
-				else if (ydj < ydi && ydj == -1) top++;		
+				top += inserted - lowerOrEqual;
 			}
+			for (int i = from; i < to; i++) {
+				for (int j = level[(int) order[i]]; j <= m; j += j & -j) {
+					tree[j]++;
+				}
+				inserted++;
+			}
+			from = to;
 		}
 	}
 
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		FCP o = (FCP) other;
+		top += o.top;
+		bottom += o.bottom;
+	}
+
 	@Override
 	public float getEvaluationResult() {
 		return (float)top/(float)bottom;
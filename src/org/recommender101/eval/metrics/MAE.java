@@ -2,6 +2,7 @@
 package org.recommender101.eval.metrics;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.PredictionEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -67,6 +68,20 @@ public class MAE extends PredictionEvaluator {
 		return errorAccumulator / (float) predictionCount;
 	}
 
+	// =====================================================================================
+
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		MAE o = (MAE) other;
+		errorAccumulator += o.errorAccumulator;
+		predictionCount += o.predictionCount;
+	}
+
 	/**
 	 * String rep for eval.
 	 */
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -111,6 +112,18 @@ public class MAP extends RecommendationlistEvaluator {
 		N++;
 	}
 
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		MAP o = (MAP) other;
+		sumOfAPs += o.sumOfAPs;
+		N += o.N;
+	}
+
 	/**
 	 * Returns the average of all the ap@n values that are summed um in sumOfAPs.
 	 * @return
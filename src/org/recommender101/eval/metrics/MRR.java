@@ -2,6 +2,7 @@ package org.recommender101.eval.metrics;
 
 import java.util.List;
 
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -39,6 +40,18 @@ public class MRR extends RecommendationlistEvaluator {
 		}
 	}
 
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		MRR o = (MRR) other;
+		mrr += o.mrr;
+		count += o.count;
+	}
+
 	@Override
 	public float getEvaluationResult() {
 		// return the average of the rank values
@@ -6,6 +6,7 @@ import java.util.Comparator;
 import java.util.List;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -120,6 +121,18 @@ public class NDCG extends RecommendationlistEvaluator {
 		}
 	}
 
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		NDCG o = (NDCG) other;
+		accumulatedNDCGValue += o.accumulatedNDCGValue;
+		count += o.count;
+	}
+
 	@Override
 	public float getEvaluationResult() {
 		return ((float)accumulatedNDCGValue)/((float)count);
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.gui.annotations.R101Class;
 
 /**
@@ -21,6 +22,14 @@ public class Precision extends PrecisionRecall {
 	 */
 	@Override
 	public void addRecommendations(Integer user, List<Integer> list) {
+		addRecommendations(user, list, new ItemRanks(list));
+	}
+
+	/**
+	 * The ranks are used by the random set procedure
+	 */
+	@Override
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
 //		System.out.println("Recommending: " + list.size());
 		if (list.size() == 0) {
 //			System.out.println("Got an empty list - doing nothing here");
@@ -49,7 +58,7 @@ public class Precision extends PrecisionRecall {
 			// special treatment here. Calculate recall.
 			// Set flag to true to calculate precision, which can be 
 			// obtained from the precision value
-			addRecallForRandomSetProcedure(user, true, list);
+			addRecallForRandomSetProcedure(user, true, ranks);
 		}
 	}
 	
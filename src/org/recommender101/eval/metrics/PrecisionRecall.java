@@ -1,12 +1,15 @@
 package org.recommender101.eval.metrics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101HideFromGui;
 
@@ -98,6 +101,18 @@ public abstract class PrecisionRecall extends RecommendationlistEvaluator {
 		return result;
 	}
 
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		PrecisionRecall o = (PrecisionRecall) other;
+		accumulatedValue += o.accumulatedValue;
+		counter += o.counter;
+	}
+
 	// =====================================================================================
 	/**
 	 * Setter for the random set evaluation procedure
@@ -121,7 +136,19 @@ public abstract class PrecisionRecall extends RecommendationlistEvaluator {
 	 *            through the list length
 	 */
 	public void addRecallForRandomSetProcedure(Integer user, boolean calculatePrecision, List<Integer> rankedList) {
-		List<Integer> rankedListCopy = new ArrayList<Integer>(rankedList);
+		addRecallForRandomSetProcedure(user, calculatePrecision, new ItemRanks(rankedList));
+	}
+
+	/**
+	 * The random set procedure with the positions of the items of the ranked list
+	 * 
+	 * @param user
+	 * @param calculatePrecision
+	 *            set this to true to calculate precision
+	 * @param ranks
+	 *            the positions of the items in the ranked list
+	 */
+	public void addRecallForRandomSetProcedure(Integer user, boolean calculatePrecision, ItemRanks ranks) {
 //  	    System.out.println("Precision in random set to be determined");
 		// Creating a list of non-rated items
 		Set<Integer> nonRatedItems = new HashSet<Integer>();
@@ -156,69 +183,42 @@ public abstract class PrecisionRecall extends RecommendationlistEvaluator {
 
 		// Now get the items in the test set the user considered relevant
 		List<Integer> relevantItems = new ArrayList<Integer>();
+		Set<Integer> seen = new HashSet<Integer>();
 		for (Rating r : getTestDataModel().getRatingsOfUser(user)) {
 			// Remove duplicates
-			if (isItemRelevant(r.item, r.user) && !relevantItems.contains(r.item)) {
+			if (isItemRelevant(r.item, r.user) && seen.add(r.item)) {
 				relevantItems.add(r.item);
 			}
 		}
 //		System.out.println("Got a number of relevant items (user: " + user + "): " + relevantItems);
-//		System.out.println("Size of ranked list: " + rankedListCopy.size());
-//		System.out.println("User is " + user);
-		
-		// Remove all items from the ranked list which are not chosen as random
-		// and are not part of the relevant ones
-		List<Integer> itemsToRetain = new ArrayList<Integer>(relevantItems);
-		itemsToRetain.addAll(nonRatedItems);
-		
-//		System.out.println("Items to retain " + itemsToRetain.size());
-//		System.out.println("Number of all available items: " + rankedListCopy.size());
-		rankedListCopy.retainAll(itemsToRetain);
-//		System.out.println("Retained a number of items: " + rankedListCopy );
 
-		// Now go through each relevant item and leave it as the only one in the
-		// set to test
-		List<Integer> relevantToRemove;
-		List<Integer> finalItemList;
+		// Instead of filtering the ranked list for every relevant item, look up the positions:
+		// the positions of the random items in the ranked list, in ascending order
+		int[] randomPositions = new int[nonRatedItems.size()];
+		int nbRandomInList = 0;
+		for (Integer item : nonRatedItems) {
+			int position = ranks.rank(item);
+			if (position >= 0) {
+				randomPositions[nbRandomInList++] = position;
+			}
+		}
+		Arrays.sort(randomPositions, 0, nbRandomInList);
+
+		// Now go through each relevant item and rank it among the random items only
 		for (Integer relevantOne : relevantItems) {
-			
-			if (!rankedList.contains(relevantOne)) {
-//				System.out.println(" ... OMG - it was never in my list of size " + rankedList.size() + " - item " + relevantOne);
+			int position = ranks.rank(relevantOne);
+			if (position < 0) {
 				// can happen if there are items that never appear in the training data set 
 				continue;
 			}
 			
-			// Create a copy of the relevant and the ranked list
-			relevantToRemove = new ArrayList<Integer>(relevantItems);
-			
-//			System.out.println("Relevant one: " + relevantOne);
-//			System.out.println("To remove from the other list " + relevantToRemove);
-			
-			finalItemList = new ArrayList<Integer>(rankedListCopy);
-//			System.out.println("Copy of rankedList (final): " + finalItemList);
-			// remove the current one
-			// There could be more than one occurrence here in some datasets, so we use a set operation.
-			relevantToRemove.remove(relevantOne);
-
-//			System.out.println("Removing: " + relevantToRemove);
-			
-			// Subtract all other relevant ones from the ranked list
-			finalItemList.removeAll(relevantToRemove);
-			// Now we got the ranked list which contains only one relevant item.
-			// keep the top-n items
-//			System.out.println("Checking item: " + relevantOne + " in long list: " + finalItemList);
-			if (!finalItemList.contains(relevantOne)) {
-//				System.out.println("OMG, the item's not there!");
+			// The number of random items ranked before the relevant one
+			int randomBefore = Arrays.binarySearch(randomPositions, 0, nbRandomInList, position);
+			if (randomBefore < 0) {
+				randomBefore = -randomBefore - 1;
 			}
-			else  {
-//				System.out.println("GOT IT");
-			}
-
-			finalItemList = finalItemList.subList(0, Math.min(getTopN(), finalItemList.size()));
-			
-//			System.out.println("top n: " + getTopN());
-			// Let's see if the item is there
-			boolean hit = finalItemList.contains(relevantOne);
+			// Let's see if the item is in the top-n
+			boolean hit = randomBefore < getTopN();
 //			System.out.println("Found a hit: " + hit );
 			float recall = 0;
 			float precision = 0;
@@ -2,6 +2,7 @@
 package org.recommender101.eval.metrics;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.PredictionEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -36,6 +37,20 @@ public class PredictionCoverage extends PredictionEvaluator {
 
 	}
 
+	// =====================================================================================
+
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		PredictionCoverage o = (PredictionCoverage) other;
+		totalRatings += o.totalRatings;
+		predictedRatings += o.predictedRatings;
+	}
+
 	/**
 	 * Calculate the percentage of given ratings
 	 */
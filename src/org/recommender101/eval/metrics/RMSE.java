@@ -2,6 +2,7 @@
 package org.recommender101.eval.metrics;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.PredictionEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -47,6 +48,20 @@ public class RMSE extends PredictionEvaluator {
 		return (float) Math.sqrt(errorAccumulator / (float) predictionCount);
 	}
 
+	// =====================================================================================
+
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		RMSE o = (RMSE) other;
+		errorAccumulator += o.errorAccumulator;
+		predictionCount += o.predictionCount;
+	}
+
 	/**
 	 * Used for evaluation aggregation
 	 */
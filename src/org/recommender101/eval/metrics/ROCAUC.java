@@ -1,9 +1,12 @@
 package org.recommender101.eval.metrics;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 
@@ -43,6 +46,15 @@ public class ROCAUC extends RecommendationlistEvaluator {
 	 */
 	@Override
 	public void addRecommendations(Integer user, List<Integer> list) {
+		addRecommendations(user, list, new ItemRanks(list));
+	}
+
+	/**
+	 * Only the items of the list with a rating in the test set move the curve. Instead of going
+	 * through the whole list, these ratings are visited in the order of their positions in the list.
+	 */
+	@Override
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
 		// Check if list is null or empty
 		if (list == null || list.size() == 0)
 			return;
@@ -52,14 +64,20 @@ public class ROCAUC extends RecommendationlistEvaluator {
 		int relevantItemsInTestSet = 0;
 		int nonRelevantItemsInTestSet = 0;
 
-		List<Integer> relevantList = new ArrayList<Integer>();
-		for (Rating r : getTestDataModel().getRatingsPerUser().get(user)) {
-
-			if (isItemRelevant(r.item, r.user)) {
+		Set<Rating> ratingsOfUser = getTestDataModel().getRatingsPerUser().get(user);
+		// The position (upper bits) and the relevance (lowest bit) of the rated items in the list
+		long[] ratedInList = new long[ratingsOfUser.size()];
+		int nbRatedInList = 0;
+		for (Rating r : ratingsOfUser) {
+			boolean relevant = isItemRelevant(r.item, r.user);
+			if (relevant) {
 				relevantItemsInTestSet++;
-				relevantList.add(r.item);
 			} else
 				nonRelevantItemsInTestSet++;
+			int position = ranks.rank(r.item);
+			if (position >= 0) {
+				ratedInList[nbRatedInList++] = ((long) position << 1) | (relevant ? 1 : 0);
+			}
 		}
 
 		if (relevantItemsInTestSet == 0 || nonRelevantItemsInTestSet == 0)
@@ -74,37 +92,49 @@ public class ROCAUC extends RecommendationlistEvaluator {
 		double lastCoords[] = new double[] { 0.0, 0.0 };
 		double auc = 0;
 
-
-		for (int currItem : list) {
-			float rating = getTestDataModel().getRating(user, currItem);
-
-			if (rating == -1) {
-				// No rating in test set found, discard
+		Arrays.sort(ratedInList, 0, nbRatedInList);
+		for (int i = 0; i < nbRatedInList; i++) {
+			if ((ratedInList[i] & 1) == 1) {
+				// Correct prediction
+				lastCoords[1] += stepSizeY;
 			} else {
-
-				if (relevantList.contains(currItem)) {
-					// Correct prediction
-					lastCoords[1] += stepSizeY;
-				} else {
-					// Wrong predicition
-					auc += stepSizeX * lastCoords[1];
-					lastCoords[0] += stepSizeX;
-				}
-
-				// Print coordinates of the ROC curve. This should only be
-				// commented in for debugging purposes.
-				/*
-				 * System.out.println(roundDouble(lastCoords[0]) + ";" +
-				 * roundDouble(lastCoords[1]));
-				 */
+				// Wrong predicition
+				auc += stepSizeX * lastCoords[1];
+				lastCoords[0] += stepSizeX;
 			}
 
+			// Print coordinates of the ROC curve. This should only be
+			// commented in for debugging purposes.
+			/*
+			 * System.out.println(roundDouble(lastCoords[0]) + ";" +
+			 * roundDouble(lastCoords[1]));
+			 */
 		}
 
 		this.aucAvg = (this.aucAvg * this.avgCounter + auc)
 				/ (++this.avgCounter);
 	}
 
+	/**
+	 * The partial results of several threads can be combined
+	 */
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		ROCAUC o = (ROCAUC) other;
+		if (o.avgCounter == 0) {
+			return;
+		}
+		// combine the two means, weighted by their number of users
+		this.aucAvg = (this.aucAvg * this.avgCounter + o.aucAvg * o.avgCounter)
+				/ (this.avgCounter + o.avgCounter);
+		this.avgCounter += o.avgCounter;
+	}
+
 	/**
 	 * Returns the arithmetic mean of all calculated AUC values.
 	 */
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.ItemRanks;
 import org.recommender101.gui.annotations.R101Class;
 
 /**
@@ -20,6 +21,14 @@ public class Recall extends PrecisionRecall {
 	 */
 	@Override
 	public void addRecommendations(Integer user, List<Integer> list) {
+		addRecommendations(user, list, new ItemRanks(list));
+	}
+
+	/**
+	 * The ranks are used by the random set procedure
+	 */
+	@Override
+	public void addRecommendations(Integer user, List<Integer> list, ItemRanks ranks) {
 		// Special treatment required for position in random set
 		// Standard behaviour first.
 		if (targetSetType != PrecisionRecall.evalTypes.positioninrandomset) {
@@ -76,7 +85,7 @@ public class Recall extends PrecisionRecall {
 		else {
 			// Use the procedure from Cremonesi et al and measure the 
 			// position of each relevant item in some random list
-			addRecallForRandomSetProcedure(user, false, list);
+			addRecallForRandomSetProcedure(user, false, ranks);
 		}
 
 	}
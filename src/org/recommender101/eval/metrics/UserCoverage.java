@@ -3,6 +3,7 @@ package org.recommender101.eval.metrics;
 
 import java.util.List;
 
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 /**
@@ -37,6 +38,20 @@ public class UserCoverage extends RecommendationlistEvaluator {
 
 	}
 
+	// =====================================================================================
+
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		UserCoverage o = (UserCoverage) other;
+		totalUsers += o.totalUsers;
+		usersWithPredictions += o.usersWithPredictions;
+	}
+
 	/**
 	 * Returns the coverage metrics
 	 */
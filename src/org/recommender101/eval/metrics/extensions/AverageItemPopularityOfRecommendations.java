@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.gui.annotations.R101Setting;
@@ -154,6 +155,27 @@ public class AverageItemPopularityOfRecommendations extends
 		
 	}
 
+	/**
+	 * The values are collected per user, so the partial results can be joined
+	 */
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		popularityPerUser.putAll(((AverageItemPopularityOfRecommendations) other).popularityPerUser);
+	}
+
+	/**
+	 * The partial instances use the popularities of the parent
+	 */
+	@Override
+	protected void initializePartial(Evaluator parent) {
+		itemPopularities = ((AverageItemPopularityOfRecommendations) parent).itemPopularities;
+	}
+
 	/**
 	 * Calculate the overall average value
 	 */
@@ -13,6 +13,7 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.gui.annotations.R101Setting;
@@ -128,6 +129,22 @@ public class Gini extends RecommendationlistEvaluator {
 		}
 	}
 
+	/**
+	 * The recommendation frequencies of several threads can be added up
+	 */
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		for (Map.Entry<Integer, Integer> entry : ((Gini) other).recommendationFrequencies.entrySet()) {
+			Integer count = recommendationFrequencies.get(entry.getKey());
+			recommendationFrequencies.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+		}
+	}
+
 	/**
 	 * The method calculates the Gini index. It places the items in bins based on their popularity. The number of bins
 	 * per items is a parameter (default 20)
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.recommender101.eval.interfaces.Evaluator;
 import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.gui.annotations.R101Setting;
@@ -74,6 +75,28 @@ public class NumberOfRecommendedItems extends RecommendationlistEvaluator {
 		}
 	}
 
+	/**
+	 * The sets of recommended items of several threads can be joined
+	 */
+	@Override
+	public boolean isMergeable() {
+		return true;
+	}
+
+	@Override
+	public void merge(Evaluator other) {
+		recommendedItems.addAll(((NumberOfRecommendedItems) other).recommendedItems);
+	}
+
+	/**
+	 * The partial instances use the averages of the parent
+	 */
+	@Override
+	protected void initializePartial(Evaluator parent) {
+		userAverages = ((NumberOfRecommendedItems) parent).userAverages;
+		itemAverages = ((NumberOfRecommendedItems) parent).itemAverages;
+	}
+
 	/**
 	 * Returns the number of different items recommended by the algorithm
 	 */
@@ -3,8 +3,10 @@ package org.recommender101.recommender;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,6 +36,16 @@ public abstract class AbstractRecommender extends Instantiable implements Compar
 	
 	protected Map<String,Object> extraInformation = new HashMap<String, Object>();
 	
+	/**
+	 * The items in the order of scoreAllItems(), built on first use
+	 */
+	private transient volatile int[] scoringItems;
+	
+	/**
+	 * The durations (ns) and counts of the training phases, see recordPhase()
+	 */
+	private transient Map<String, long[]> phaseTimes;
+	
 	
   // =====================================================================================
   /**
@@ -104,6 +116,124 @@ public abstract class AbstractRecommender extends Instantiable implements Compar
 	
 	
 	
+	/**
+	 * The items which are scored by scoreAllItems(): out[i] is the score of item getScoringItems()[i].
+	 * The default are the items of the data model in ascending order. Recommenders with their own
+	 * item indexing (e.g. factor matrices) return the ids in the order of their index.
+	 * @return the item ids, must not be modified
+	 */
+	public int[] getScoringItems() {
+		int[] items = scoringItems;
+		if (items == null) {
+			Set<Integer> itemSet = dataModel.getItems();
+			items = new int[itemSet.size()];
+			int i = 0;
+			for (Integer item : itemSet) {
+				items[i++] = item;
+			}
+			Arrays.sort(items);
+			scoringItems = items;
+		}
+		return items;
+	}
+	
+	/**
+	 * Forgets the items of getScoringItems(), e.g. when a recommender learns new items after the training
+	 */
+	protected void resetScoringItems() {
+		scoringItems = null;
+	}
+	
+	/**
+	 * Computes the ranking scores of all items of getScoringItems() for one user, NaN where there is
+	 * no score. The default uses predictRating() item by item, latent factor models override this with
+	 * a single pass of the user vector over their item factors.
+	 * @param user the user
+	 * @param out the scores, at least getScoringItems().length long
+	 */
+	public void scoreAllItems(int user, float[] out) {
+		int[] items = getScoringItems();
+		for (int i = 0; i < items.length; i++) {
+			out[i] = predictRating(user, items[i]);
+		}
+	}
+	
+	/**
+	 * Computes the scores of all items for several users, see scoreAllItems()
+	 * @param users the users
+	 * @param out one score array per user
+	 */
+	public void scoreBatch(int[] users, float[][] out) {
+		for (int u = 0; u < users.length; u++) {
+			scoreAllItems(users[u], out[u]);
+		}
+	}
+	
+	/**
+	 * Returns the n best items for the user. The default implementation cuts the list returned by
+	 * recommendItems(). Recommenders which rank by their rating predictions should override this method
+	 * and use recommendTopNByRatingPrediction(), which does not sort all items.
+	 * @param user the user for which a recommendation is sought
+	 * @param n the length of the list
+	 * @return the ranked items (in descending order)
+	 */
+	public int[] recommendTopN(int user, int n) {
+		List<Integer> items = recommendItems(user);
+		int[] result = new int[Math.min(n, items.size())];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = items.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * The top-n version of recommendItemsByRatingPrediction(). The scores of scoreAllItems() go directly 
+	 * into a bounded heap of size n instead of a map which is sorted afterwards.
+	 * @param user the user for which a recommendation is sought
+	 * @param n the length of the list
+	 * @return the ranked items (in descending order)
+	 */
+	public int[] recommendTopNByRatingPrediction(int user, int n) {
+		Map<Integer, Set<Rating>> ratings = getDataModel().getRatingsPerUser();
+		if (ratings == null || ratings.size() == 0) {
+			return new int[0];
+		}
+		boolean filter = Recommender101Impl.FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION;
+		float threshold = relevanceThreshold(user);
+		int[] items = getScoringItems();
+		float[] scores = new float[items.length];
+		scoreAllItems(user, scores);
+		TopNHeap heap = new TopNHeap(n);
+		for (int i = 0; i < items.length; i++) {
+			// We will not recommend items repeatedly here
+			if (dataModel.getRating(user, items[i]) != -1) {
+				continue;
+			}
+			if (!filter || scores[i] > threshold) {
+				heap.offer(items[i], scores[i]);
+			}
+		}
+		return heap.toSortedArray();
+	}
+	
+	/**
+	 * The value a prediction has to exceed to be relevant for the user, 
+	 * see filterElementsByRelevanceThreshold(). 
+	 * @param user the user
+	 * @return the threshold or NaN if no item can be relevant for the user
+	 */
+	protected float relevanceThreshold(int user) {
+		if (Recommender101Impl.PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE != -1) {
+			return Recommender101Impl.PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE;
+		}
+		Float minRating = getDataModel().getUserAverageRatings().get(user);
+		if (minRating == null) {
+			return Float.NaN;
+		}
+		double factor = Recommender101Impl.PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE * 0.01;
+		return (float) (minRating * (1 + factor));
+	}
+	
 	/**
 	 * A method that removes all elements whose prediction value is below the relevance threshold.
 	 */
@@ -159,6 +289,7 @@ public abstract class AbstractRecommender extends Instantiable implements Compar
 	 */
 	public void setDataModel(DataModel dm) {
 		dataModel = dm;
+		scoringItems = null;
 	};
 	
 	/**
@@ -170,6 +301,41 @@ public abstract class AbstractRecommender extends Instantiable implements Compar
 	}
 
 	
+	// =====================================================================================
+
+	/**
+	 * Records the end of a training phase (e.g. the similarity computation or an epoch), so that
+	 * the runtime results show where the training spends its time. Phases with the same name are
+	 * summed up and counted.
+	 * @param phase the name of the phase
+	 * @param startTime the start of the phase (System.nanoTime())
+	 */
+	protected synchronized void recordPhase(String phase, long startTime) {
+		long nanos = System.nanoTime() - startTime;
+		if (phaseTimes == null) {
+			phaseTimes = new LinkedHashMap<String, long[]>();
+		}
+		long[] phaseTime = phaseTimes.get(phase);
+		if (phaseTime == null) {
+			phaseTime = new long[2];
+			phaseTimes.put(phase, phaseTime);
+		}
+		phaseTime[0] += nanos;
+		phaseTime[1]++;
+	}
+
+	/**
+	 * Returns the recorded training phases
+	 * @return phase -> {duration in ns, count}, in the order of their first execution
+	 */
+	public synchronized Map<String, long[]> getPhaseTimes() {
+		if (phaseTimes == null) {
+			return Collections.emptyMap();
+		}
+		return new LinkedHashMap<String, long[]>(phaseTimes);
+	}
+
+	
 	/**
 	 * Returns the estimated computation time of the algorithm.
 	 * Numbers should be between 1 to 10 where 10 indicates the 
@@ -0,0 +1,156 @@
+/** DJ **/
+package org.recommender101.recommender;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the n best scored items in a bounded min-heap, so that a top-n list can be built
+ * without sorting (and boxing) the scores of all items. Also used for the neighbors of the
+ * users or items in NearestNeighbors.
+ * For equal scores, the item with the smaller id is ranked first.
+ * The arrays grow with the number of kept items, so many heaps which stay mostly empty are cheap.
+ * Not thread-safe.
+ * @author DJ
+ *
+ */
+public class TopNHeap {
+
+	// The first allocation, unless the capacity is smaller
+	static final int INITIAL_LENGTH = 16;
+	static final int[] NO_ITEMS = new int[0];
+	static final double[] NO_SCORES = new double[0];
+
+	final int capacity;
+	int[] items = NO_ITEMS;
+	double[] scores = NO_SCORES;
+	int size = 0;
+
+	// =====================================================================================
+
+	/**
+	 * Creates a heap for the n best items
+	 * @param n the length of the list
+	 */
+	public TopNHeap(int n) {
+		capacity = Math.max(0, n);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Offers an item. NaN scores are ignored
+	 * @param item the item id
+	 * @param score the score of the item
+	 */
+	public void offer(int item, double score) {
+		if (Double.isNaN(score)) {
+			return;
+		}
+		if (size < capacity) {
+			if (size == items.length) {
+				int length = (int) Math.min(capacity, Math.max(INITIAL_LENGTH, 2L * size));
+				items = Arrays.copyOf(items, length);
+				scores = Arrays.copyOf(scores, length);
+			}
+			items[size] = item;
+			scores[size] = score;
+			siftUp(size++);
+		}
+		else if (capacity > 0 && worse(items[0], scores[0], item, score)) {
+			items[0] = item;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Returns the items in descending order of their scores and empties the heap
+	 * @return the ranked items
+	 */
+	public int[] toSortedArray() {
+		return toSortedArray(null);
+	}
+
+	/**
+	 * Returns the items in descending order of their scores and empties the heap
+	 * @param sortedScores receives the scores aligned with the returned items (at least size() long), can be null
+	 * @return the ranked items
+	 */
+	public int[] toSortedArray(double[] sortedScores) {
+		int[] result = new int[size];
+		for (int k = size - 1; k >= 0; k--) {
+			result[k] = items[0];
+			if (sortedScores != null) {
+				sortedScores[k] = scores[0];
+			}
+			size--;
+			if (size > 0) {
+				items[0] = items[size];
+				scores[0] = scores[size];
+				siftDown(0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The number of items currently kept
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the heap so that it can be reused
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Is item 1 ranked below item 2?
+	 */
+	static boolean worse(int item1, double score1, int item2, double score2) {
+		return score1 < score2 || (score1 == score2 && item1 > item2);
+	}
+
+	void siftUp(int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!worse(items[pos], scores[pos], items[parent], scores[parent])) {
+				return;
+			}
+			swap(pos, parent);
+			pos = parent;
+		}
+	}
+
+	void siftDown(int pos) {
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && worse(items[child + 1], scores[child + 1], items[child], scores[child])) {
+				child++;
+			}
+			if (!worse(items[child], scores[child], items[pos], scores[pos])) {
+				return;
+			}
+			swap(pos, child);
+			pos = child;
+		}
+	}
+
+	void swap(int a, int b) {
+		int item = items[a];
+		items[a] = items[b];
+		items[b] = item;
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+	}
+
+}
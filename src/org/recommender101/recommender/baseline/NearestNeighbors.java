@@ -1,19 +1,15 @@
 /** DJ **/
 package org.recommender101.recommender.baseline;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleLinkedOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import org.recommender101.data.Rating;
 import org.recommender101.gui.annotations.R101Class;
@@ -45,7 +41,7 @@ public class NearestNeighbors extends AbstractRecommender {
 	}
 
 	
-	public Map<Integer, Float> averages;
+	public volatile Map<Integer, Float> averages;
 	
 	// Number of neighbors to consider (default 30)
 	protected int nbNeighbors = 30;
@@ -73,9 +69,21 @@ public class NearestNeighbors extends AbstractRecommender {
 	protected int minNeighbors = 1;
 	
 	/**
-	 * Stores the similarities user-id-> map of other users and their similarities
+	 * The number of threads for the similarity computation
+	 */
+	protected int nbThreads = 1;
+	
+	/**
+	 * Only score pairs which share at least one rating (found through an inverted index)
+	 */
+	protected boolean invertedIndex = false;
+	
+	/**
+	 * Stores the similarities user-id-> map of other users and their similarities.
+	 * Assigned once at the end of init() and not changed afterwards, the volatile write publishes
+	 * the trained state to the threads calling predictRating()
 	 */ 
-	public Map<Integer,Map<Integer, Double>> theSimilarities = new Int2ObjectOpenHashMap<>();
+	public volatile Map<Integer,Map<Integer, Double>> theSimilarities = new Int2ObjectOpenHashMap<>();
 
 
 	public Map<Integer, Set<Rating>> ratingsPerItem;
@@ -83,10 +91,11 @@ public class NearestNeighbors extends AbstractRecommender {
 	
 	/**
 	 * Predict the rating based on the neighbors opinions.
-	 * Use a classical weighting scheme and n neighbors
+	 * Use a classical weighting scheme and n neighbors.
+	 * The trained state is read-only, so this can be called from several threads
 	 */
 	@Override
-	public synchronized float predictRating(int user, int item) {
+	public float predictRating(int user, int item) {
 		// Iterate over all users and rank them
 		// A map of similarities
 		
@@ -97,6 +106,7 @@ public class NearestNeighbors extends AbstractRecommender {
 		else {
 			similarities = this.theSimilarities.get(user);
 		}
+		Map<Integer, Float> averages = this.averages;
 		// Check if we have enough neighbors
 		if (similarities == null || (similarities.size() < this.minNeighbors)) {
 			return Float.NaN;
@@ -105,7 +115,7 @@ public class NearestNeighbors extends AbstractRecommender {
 		// Take the user's average and add the weighted deviation of the neighbors.
 		Float objectAverage;
 		if (itemBased) {
-			objectAverage = this.averages.get(item);
+			objectAverage = averages.get(item);
 			if (objectAverage == null) {
 				return Float.NaN;
 			}
@@ -130,10 +140,11 @@ public class NearestNeighbors extends AbstractRecommender {
 				neighborRating = dataModel.getRating(otherObject, item);
 			}
 			if (!Float.isNaN(neighborRating) && neighborRating != -1) {
+				double similarity = similarities.get(otherObject);
 				double neighborBias = neighborRating - averages.get(otherObject); 
-				neighborBias = neighborBias * similarities.get(otherObject);
+				neighborBias = neighborBias * similarity;
 				totalBias += neighborBias;
-				totalSimilarity += Math.abs(similarities.get(otherObject));
+				totalSimilarity += Math.abs(similarity);
 			}
 		}
 		
@@ -153,24 +164,11 @@ public class NearestNeighbors extends AbstractRecommender {
 	// =====================================================================================
 
 	/**
-	 * Pre-calculates the ratings per item from the data model
+	 * Returns the ratings per item from the data model (the index is shared by the data model)
 	 * @return the map of item-ids to ratings
 	 */
 	public Map<Integer, Set<Rating>> calculateRatingsPerItem() {
-		Map<Integer, Set<Rating>> result = new HashMap<Integer, Set<Rating>>();
-		
-		Set<Rating> ratings = dataModel.getRatings();
-		
-		Set<Rating> ratingsOfItem;
-		for (Rating r : ratings) {
-			ratingsOfItem = result.get(r.item);
-			if (ratingsOfItem == null) {
-				ratingsOfItem = new HashSet<Rating>();
-				result.put(r.item,ratingsOfItem);
-			}
-			ratingsOfItem.add(r);
-		}
-		return result;
+		return dataModel.getRatingsPerItem();
 	}
 
 	// =====================================================================================
@@ -224,70 +222,89 @@ public class NearestNeighbors extends AbstractRecommender {
 	}
 
 	/**
-	 * Initialization: Compute the user averages
+	 * The item-based method ranks by prediction, the user-based one uses the lists of recommendItems()
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		if (itemBased) {
+			return recommendTopNByRatingPrediction(user, n);
+		}
+		return super.recommendTopN(user, n);
+	}
+
+	/**
+	 * Initialization: Compute the user averages and the neighbors of all users (items) 
 	 */
 	@Override
 	public void init() throws Exception {
+		long phaseStart = System.nanoTime();
 		computeAverages();
+		recordPhase("averages", phaseStart);
+		phaseStart = System.nanoTime();
 		// Pre-compute the similarities between all users first
-		double sim = Double.NaN;
+		Set<Integer> objectSet = itemBased ? dataModel.getItems() : dataModel.getUsers();
+		Map<Integer, Set<Rating>> ratingsPerObject = itemBased ? ratingsPerItem : dataModel.getRatingsPerUser();
 		
-		int similaritiesToCompute; 
-		List<Integer> objects;
-		if (itemBased) {
-			similaritiesToCompute = (dataModel.getItems().size() * dataModel.getItems().size())/2;
-			objects = new ArrayList<Integer>(dataModel.getItems());
-		}
-		else { //user-based
-			similaritiesToCompute = (dataModel.getUsers().size() * dataModel.getUsers().size())/2; 
-			objects = new ArrayList<Integer>(dataModel.getUsers());
+		int[] objects = new int[objectSet.size()];
+		int n = 0;
+		for (Integer object : objectSet) {
+			objects[n++] = object;
 		}
-		Debug.log("NearestNeighbors: Calculating up to " + similaritiesToCompute + " similarities in the test set.. This may take some time.");
-	
-		Map<Integer, Double> currentMins = new HashMap<>();
-		
 		// sort in ascending order
-		Collections.sort(objects);
-		int counter = 0;
-		int tenpercent = similaritiesToCompute / 10;
-		for (int i=0;i<objects.size();i++) {
-			for (int j=i+1;j<objects.size();j++) {
-				counter++;
-				int objI = objects.get(i);
-				int objJ = objects.get(j);
-				if (counter % tenpercent == 0) {
-					Debug.log("Similarity computation at : " + Math.round(((counter  / (double) similaritiesToCompute * 100))) + " %");
-				}
-				sim = similarity(objI, objJ);
-				if (!Double.isNaN(sim)) {
-					if (sim > simThreshold) {
-						
-						Map<Integer, Double> objectSimilarites1 = theSimilarities.get(objI);
-						if (objectSimilarites1 == null) {
-							objectSimilarites1 = new Int2DoubleOpenHashMap();
-							theSimilarities.put(objI, objectSimilarites1);
-						}
-						coditionallyAddToMap(objectSimilarites1, objI, objJ, sim, currentMins);
-						
-						// Copy things
-						Map<Integer, Double> objectSimilarites2 = theSimilarities.get(objJ);
-						if (objectSimilarites2 == null) {
-							objectSimilarites2 = new Int2DoubleOpenHashMap();
-							theSimilarities.put(objJ, objectSimilarites2);
-						}
-						coditionallyAddToMap(objectSimilarites2, objJ, objI, sim, currentMins);
-					}
+		Arrays.sort(objects);
+		
+		// Every object gets its partners (co-rating users or rated items) as sorted arrays
+		int[][] partners = new int[n][];
+		float[][] values = new float[n][];
+		double[] means = new double[n];
+		for (int i = 0; i < n; i++) {
+			Set<Rating> ratings = ratingsPerObject.get(objects[i]);
+			int size = ratings == null ? 0 : ratings.size();
+			// id in the upper half, the rating bits in the lower half, so sorting the longs sorts by id
+			long[] packed = new long[size];
+			int k = 0;
+			if (ratings != null) {
+				for (Rating r : ratings) {
+					int partner = itemBased ? r.user : r.item;
+					packed[k++] = ((long) partner << 32) | (Float.floatToRawIntBits(r.rating) & 0xFFFFFFFFL);
 				}
 			}
+			Arrays.sort(packed);
+			partners[i] = new int[size];
+			values[i] = new float[size];
+			for (k = 0; k < size; k++) {
+				partners[i][k] = (int) (packed[k] >> 32);
+				values[i][k] = Float.intBitsToFloat((int) packed[k]);
+			}
+			Float mean = averages.get(objects[i]);
+			means[i] = mean == null ? Double.NaN : mean;
 		}
+		recordPhase("sorting ratings", phaseStart);
 		
-		// go through all the user similarities and sort them
-		for (Integer object : theSimilarities.keySet()) {
-			Map<Integer, Double> sims = theSimilarities.get(object);
-			theSimilarities.put(object, new Int2DoubleLinkedOpenHashMap(Utilities101.sortByValueDescending(sims)));
+		Debug.log("NearestNeighbors: Calculating up to " + ((long) n * (n - 1) / 2) + " similarities with " 
+				+ nbThreads + " threads.. This may take some time.");
+		// A subclass with its own similarity function gets it called for every pair
+		SimilarityEngine.PairScorer scorer = null;
+		if (!useSimilarityEngine()) {
+			Debug.log("NearestNeighbors: Using the similarity function of " + getClass().getSimpleName());
+			scorer = this::similarity;
 		}
-		
-		Debug.log("Nearest neighbors: Computed " + similaritiesToCompute + " similarities");
+		SimilarityEngine engine = new SimilarityEngine(objects, partners, values, means, similarityMetric, itemBased,
+				minRatingOverlap, simThreshold, nbNeighbors, scorer);
+		phaseStart = System.nanoTime();
+		theSimilarities = engine.compute(nbThreads, invertedIndex);
+		recordPhase("similarities", phaseStart);
+		Debug.log("Nearest neighbors: Computed the neighbors of " + theSimilarities.size() + " objects");
+	}
+
+	/**
+	 * Determines if the SimilarityEngine may compute the similarities with its built-in metrics.
+	 * A subclass that overrides similarity() or calculateSimilarity() has to return false here, 
+	 * then init() calls similarity() for every pair of objects
+	 * @return true (default) to use the built-in metrics
+	 */
+	protected boolean useSimilarityEngine() {
+		return true;
 	}
 
 	/**
@@ -306,7 +323,9 @@ public class NearestNeighbors extends AbstractRecommender {
 	
 	/**
 	 * Calculates the Pearson or cosine similarity for two objects. Returns Double.NaN if
-	 * there are not enough co-rated items
+	 * there are not enough co-rated items.
+	 * init() only calls this method (for every pair of objects) if useSimilarityEngine() returns 
+	 * false, otherwise the SimilarityEngine computes the same values itself
 	 * @param object1 the first object
 	 * @param object2 the second object
 	 * @return a similarity value between -1 and 1
@@ -363,58 +382,10 @@ public class NearestNeighbors extends AbstractRecommender {
 		return calculateSimilarity(object1, object2, r1);
 	}
 	
-	/**
-	 * Only adds the similarity value between objects i and j to the list of object i 
-	 * if (a) the list has less than nbNeighbors entries or
-	 * (b) the similarity between i and j is higher than all the similarities 
-	 * currently on record for i. In this case another similarity value is removed from i's list.
-	 * @param similarites
-	 * @param i
-	 * @param j
-	 * @param sim
-	 * @param currentMins
-	 */
-	private void coditionallyAddToMap(Map<Integer, Double> similarites,
-			int i, int j, double sim, Map<Integer, Double> currentMins) {
-		Double min = currentMins.get(i);
-		if(similarites.size()==nbNeighbors){
-			//we already have enough -> determine if this item is better than all the others currently in the list
-			if(min<sim){
-				//we have a better item
-				//search for the userId of the current minimum
-				Comparator<Map.Entry<Integer, Double>> comp = new Comparator<Map.Entry<Integer,Double>>() {
-					@Override
-					public int compare(Map.Entry<Integer, Double> o1,
-							Map.Entry<Integer, Double> o2) {
-						return o1.getValue().compareTo(o2.getValue());
-					}
-				};
-				Entry<Integer, Double> minObj = Collections.min(similarites.entrySet(), comp);
-				
-				similarites.remove(minObj.getKey());
-				//search for the userId of the now new minimum
-				minObj = Collections.min(similarites.entrySet(), comp);
-				//set the new minimum (either the new item or our old runner-up minimum
-				if(sim < minObj.getValue()){
-					currentMins.put(i, sim);
-				}else{
-					currentMins.put(i, minObj.getValue());
-				}
-				similarites.put(j, sim);
-			}
-		}else{
-			//we need to determine the current min
-			similarites.put(j, sim);
-			if(min == null || min>sim){
-				currentMins.put(i, sim);			
-			}
-		}
-	}
-	
-	
 	/**
 	 * An internal function (to be overwritten in a subclass) to calculate the Pearson correlation of two 
-	 * users
+	 * users. Called by similarity() for the objects with enough co-rated items (a subclass
+	 * overriding it must also override useSimilarityEngine())
 	 * @param object1 id of item 1 (item-based) or user 1 (user-based)
 	 * @param object2 id of item 2 (item-based) or user 2 (user-based)
 	 * @param overlap the set of co-rated users (item-based) or co-rated items (user-based)
@@ -543,6 +514,28 @@ public class NearestNeighbors extends AbstractRecommender {
 		this.minNeighbors = Integer.parseInt(min);
 	}
 	
+	/**
+	 * Setter for the number of threads used to compute the similarities
+	 * @param n the number of threads
+	 */
+	@R101Setting(displayName="Threads", description="The number of threads used to compute the similarities",
+			defaultValue="1", type=SettingsType.INTEGER, minValue=1)
+	public void setThreads(String n) {
+		this.nbThreads = Integer.parseInt(n);
+	}
+	
+	/**
+	 * Set this flag to generate the candidate pairs from an inverted index. Pairs without 
+	 * common ratings are then never looked at, which pays off on sparse data. An overridden
+	 * similarity() is then only called for pairs with at least minOverlap common ratings
+	 * @param value should be "true"
+	 */
+	@R101Setting(displayName="Inverted index", description="Only scores pairs that share ratings (sparse data)",
+			defaultValue="false", type=SettingsType.BOOLEAN)
+	public void setInvertedIndex(String value) {
+		this.invertedIndex = "true".equalsIgnoreCase(value);
+	}
+	
 	/**
 	 * Set this flag to do item based computations
 	 * @param itembased should be "true"
@@ -0,0 +1,407 @@
+/** DJ **/
+package org.recommender101.recommender.baseline;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.recommender101.recommender.TopNHeap;
+import org.recommender101.recommender.baseline.NearestNeighbors.SimilarityMetric;
+
+/**
+ * Computes the top-k neighbors of all objects (users or items) for the NearestNeighbors recommender.
+ * Every object is represented by a sorted array of partner ids (rated items or rating users) and the
+ * corresponding rating values, so that the overlap of two objects is found with a merge join.
+ * The pairs are distributed over a fork/join pool in blocks of rows, and every object keeps a bounded
+ * min-heap of its best neighbors (a TopNHeap, locked while a row offers to it).
+ * Ties at the cut-off are broken in favor of the smaller neighbor id, so the neighbors do not depend
+ * on the number of threads. (The sequential loop kept whichever neighbor the hash map order put first.)
+ *
+ * Optionally, the candidate pairs are generated with an inverted index (partner -> objects). A row then
+ * only touches the objects it actually shares partners with and accumulates the sums for all of them in one
+ * sweep, so the work grows with the number of co-ratings instead of the number of objects squared.
+ *
+ * If a subclass of NearestNeighbors opts out of the built-in metrics (useSimilarityEngine()), the engine is
+ * given a PairScorer and asks it for the similarity of every pair instead of using the merge join. With the
+ * inverted index, only the pairs with at least minOverlap common partners are scored.
+ * @author DJ
+ *
+ */
+class SimilarityEngine {
+
+	// Rows per task. The rows have different lengths (triangle), work stealing evens this out
+	static final int ROWS_PER_TASK = 8;
+
+	final int[] objects;
+	final int[][] partners;
+	final float[][] values;
+	final double[] means;
+	final SimilarityMetric metric;
+	// Item-based Jaccard divides by the size of the pair, see jaccard()
+	final boolean itemBased;
+	final int minOverlap;
+	final double simThreshold;
+	final int nbNeighbors;
+	final TopNHeap[] heaps;
+	// The similarity function of a subclass (null: the built-in metrics)
+	final PairScorer scorer;
+	
+	// The inverted index (only built if requested): distinct partner ids and per partner the
+	// objects (row indices, ascending) with their rating values in CSR layout
+	int[] postingIds;
+	int[] postingPtr;
+	int[] postingObjects;
+	float[] postingValues;
+	ThreadLocal<Accumulator> accumulators;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the engine
+	 * @param objects the object ids in ascending order
+	 * @param partners per object, the ids of the partners in ascending order
+	 * @param values per object, the rating values aligned with the partners
+	 * @param means per object, the average rating (only needed for Pearson)
+	 * @param metric the similarity metric
+	 * @param itemBased are the objects items (only matters for Jaccard)
+	 * @param minOverlap the minimum number of common partners
+	 * @param simThreshold only similarities above this value are kept
+	 * @param nbNeighbors the number of neighbors to keep per object
+	 * @param scorer computes the similarity of two object ids, or null for the built-in metric
+	 */
+	SimilarityEngine(int[] objects, int[][] partners, float[][] values, double[] means,
+			SimilarityMetric metric, boolean itemBased, int minOverlap, double simThreshold, int nbNeighbors,
+			PairScorer scorer) {
+		this.objects = objects;
+		this.partners = partners;
+		this.values = values;
+		this.means = means;
+		this.metric = metric;
+		this.itemBased = itemBased;
+		this.minOverlap = Math.max(1, minOverlap);
+		this.simThreshold = simThreshold;
+		this.nbNeighbors = nbNeighbors;
+		this.scorer = scorer;
+		this.heaps = new TopNHeap[objects.length];
+		for (int i = 0; i < heaps.length; i++) {
+			heaps[i] = new TopNHeap(nbNeighbors);
+		}
+	}
+
+	/**
+	 * The similarity of two objects (by id), Double.NaN if they cannot be compared
+	 */
+	interface PairScorer {
+		double score(int object1, int object2);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Computes all similarities with the given number of threads
+	 * @param useInvertedIndex only score pairs that co-occur in the inverted index
+	 * @return a map object id -> (neighbor id -> similarity), sorted by descending similarity
+	 */
+	Map<Integer, Map<Integer, Double>> compute(int nbThreads, boolean useInvertedIndex) {
+		if (useInvertedIndex) {
+			buildInvertedIndex();
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nbThreads));
+		try {
+			pool.invoke(new RowBlock(0, objects.length));
+		}
+		finally {
+			pool.shutdown();
+		}
+		Map<Integer, Map<Integer, Double>> result = new Int2ObjectOpenHashMap<>();
+		for (int i = 0; i < objects.length; i++) {
+			if (heaps[i].size() > 0) {
+				result.put(objects[i], toSortedMap(heaps[i]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Empties a heap into a map ordered by descending similarity
+	 */
+	static Map<Integer, Double> toSortedMap(TopNHeap heap) {
+		double[] sims = new double[heap.size()];
+		int[] ids = heap.toSortedArray(sims);
+		Int2DoubleLinkedOpenHashMap result = new Int2DoubleLinkedOpenHashMap(ids.length);
+		for (int k = 0; k < ids.length; k++) {
+			result.put(ids[k], sims[k]);
+		}
+		return result;
+	}
+
+	/**
+	 * Offers the similarity of two objects (by row index) to both of their heaps
+	 */
+	void offer(int i, int j, double sim) {
+		synchronized (heaps[i]) {
+			heaps[i].offer(objects[j], sim);
+		}
+		synchronized (heaps[j]) {
+			heaps[j].offer(objects[i], sim);
+		}
+	}
+
+	/**
+	 * Compares row i with all rows j > i and offers the result to both heaps
+	 */
+	void computeRow(int i) {
+		if (postingIds != null) {
+			computeRowFromIndex(i);
+			return;
+		}
+		if (scorer != null) {
+			for (int j = i + 1; j < objects.length; j++) {
+				double sim = scorer.score(objects[i], objects[j]);
+				if (!Double.isNaN(sim) && sim > simThreshold) {
+					offer(i, j, sim);
+				}
+			}
+			return;
+		}
+		int[] p1 = partners[i];
+		if (p1.length < minOverlap) {
+			return;
+		}
+		for (int j = i + 1; j < objects.length; j++) {
+			if (partners[j].length < minOverlap) {
+				continue;
+			}
+			double sim = similarity(i, j);
+			if (!Double.isNaN(sim) && sim > simThreshold) {
+				offer(i, j, sim);
+			}
+		}
+	}
+
+	/**
+	 * The similarity of two objects or NaN if they do not have enough partners in common
+	 */
+	double similarity(int i, int j) {
+		int[] p1 = partners[i];
+		int[] p2 = partners[j];
+		float[] v1 = values[i];
+		float[] v2 = values[j];
+		double mean1 = means[i];
+		double mean2 = means[j];
+		int overlap = 0;
+		double numerator = 0;
+		double sum1 = 0;
+		double sum2 = 0;
+		int a = 0;
+		int b = 0;
+		while (a < p1.length && b < p2.length) {
+			if (p1[a] < p2[b]) {
+				a++;
+			}
+			else if (p1[a] > p2[b]) {
+				b++;
+			}
+			else {
+				overlap++;
+				if (metric == SimilarityMetric.Pearson) {
+					double dev1 = v1[a] - mean1;
+					double dev2 = v2[b] - mean2;
+					numerator += dev1 * dev2;
+					sum1 += dev1 * dev1;
+					sum2 += dev2 * dev2;
+				}
+				else if (metric == SimilarityMetric.Cosine) {
+					numerator += (double) v1[a] * v2[b];
+					sum1 += (double) v1[a] * v1[a];
+					sum2 += (double) v2[b] * v2[b];
+				}
+				a++;
+				b++;
+			}
+		}
+		if (overlap < minOverlap) {
+			return Double.NaN;
+		}
+		if (metric == SimilarityMetric.Jaccard) {
+			return jaccard(overlap, p1.length, p2.length);
+		}
+		return numerator / (Math.sqrt(sum1) * Math.sqrt(sum2));
+	}
+
+	/**
+	 * The Jaccard similarity as computed by NearestNeighbors.calculateSimilarity(): the overlap
+	 * divided by the union of the partners for users, by the number of distinct rated ids
+	 * of the two items (i.e. 2) for items
+	 */
+	double jaccard(int overlap, int length1, int length2) {
+		if (itemBased) {
+			return overlap / 2.0;
+		}
+		return overlap / (double) (length1 + length2 - overlap);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Builds the partner -> objects index
+	 */
+	void buildInvertedIndex() {
+		int total = 0;
+		for (int[] p : partners) {
+			total += p.length;
+		}
+		int[] all = new int[total];
+		int pos = 0;
+		for (int[] p : partners) {
+			System.arraycopy(p, 0, all, pos, p.length);
+			pos += p.length;
+		}
+		Arrays.sort(all);
+		int distinct = 0;
+		for (int k = 0; k < total; k++) {
+			if (k == 0 || all[k] != all[k - 1]) {
+				all[distinct++] = all[k];
+			}
+		}
+		int[] ids = Arrays.copyOf(all, distinct);
+		int[] ptr = new int[distinct + 1];
+		for (int[] p : partners) {
+			for (int id : p) {
+				ptr[Arrays.binarySearch(ids, id) + 1]++;
+			}
+		}
+		for (int q = 0; q < distinct; q++) {
+			ptr[q + 1] += ptr[q];
+		}
+		int[] fill = Arrays.copyOf(ptr, distinct);
+		int[] postObjects = new int[total];
+		float[] postValues = new float[total];
+		// rows are visited in ascending order, so every posting list is sorted by row
+		for (int i = 0; i < partners.length; i++) {
+			for (int k = 0; k < partners[i].length; k++) {
+				int t = fill[Arrays.binarySearch(ids, partners[i][k])]++;
+				postObjects[t] = i;
+				postValues[t] = values[i][k];
+			}
+		}
+		postingIds = ids;
+		postingPtr = ptr;
+		postingObjects = postObjects;
+		postingValues = postValues;
+		accumulators = ThreadLocal.withInitial(() -> new Accumulator(objects.length));
+	}
+
+	/**
+	 * Compares row i with all rows j > i that share at least one partner. The sums of all candidates
+	 * are accumulated in one sweep over the posting lists of i's partners
+	 */
+	void computeRowFromIndex(int i) {
+		int[] p1 = partners[i];
+		if (p1.length < minOverlap) {
+			return;
+		}
+		float[] v1 = values[i];
+		double mean1 = means[i];
+		Accumulator acc = accumulators.get();
+		for (int k = 0; k < p1.length; k++) {
+			int q = Arrays.binarySearch(postingIds, p1[k]);
+			int end = postingPtr[q + 1];
+			// skip the rows up to and including i
+			int t = Arrays.binarySearch(postingObjects, postingPtr[q], end, i) + 1;
+			if (t <= 0) {
+				t = -t;
+			}
+			double dev1 = metric == SimilarityMetric.Pearson ? v1[k] - mean1 : v1[k];
+			for (; t < end; t++) {
+				int j = postingObjects[t];
+				if (acc.counts[j]++ == 0) {
+					acc.touched[acc.nbTouched++] = j;
+				}
+				if (scorer == null && metric != SimilarityMetric.Jaccard) {
+					double dev2 = metric == SimilarityMetric.Pearson ? postingValues[t] - means[j] : postingValues[t];
+					acc.numerators[j] += dev1 * dev2;
+					acc.sums1[j] += dev1 * dev1;
+					acc.sums2[j] += dev2 * dev2;
+				}
+			}
+		}
+		for (int c = 0; c < acc.nbTouched; c++) {
+			int j = acc.touched[c];
+			int overlap = acc.counts[j];
+			if (overlap >= minOverlap) {
+				double sim;
+				if (scorer != null) {
+					sim = scorer.score(objects[i], objects[j]);
+				}
+				else if (metric == SimilarityMetric.Jaccard) {
+					sim = jaccard(overlap, p1.length, partners[j].length);
+				}
+				else {
+					sim = acc.numerators[j] / (Math.sqrt(acc.sums1[j]) * Math.sqrt(acc.sums2[j]));
+				}
+				if (!Double.isNaN(sim) && sim > simThreshold) {
+					offer(i, j, sim);
+				}
+			}
+			acc.counts[j] = 0;
+			acc.numerators[j] = 0;
+			acc.sums1[j] = 0;
+			acc.sums2[j] = 0;
+		}
+		acc.nbTouched = 0;
+	}
+
+	/**
+	 * Per-thread sums for all candidates of the current row
+	 */
+	static class Accumulator {
+		final int[] counts;
+		final double[] numerators;
+		final double[] sums1;
+		final double[] sums2;
+		final int[] touched;
+		int nbTouched = 0;
+
+		Accumulator(int n) {
+			counts = new int[n];
+			numerators = new double[n];
+			sums1 = new double[n];
+			sums2 = new double[n];
+			touched = new int[n];
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * A block of rows, split until it is small enough
+	 */
+	@SuppressWarnings("serial")
+	class RowBlock extends RecursiveAction {
+		final int from;
+		final int to;
+
+		RowBlock(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= ROWS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					computeRow(i);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RowBlock(from, mid), new RowBlock(mid, to));
+		}
+	}
+
+}
@@ -1,7 +1,9 @@
 package org.recommender101.recommender.extensions.asymmetricsvd;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,6 +14,7 @@ import org.recommender101.gui.annotations.R101Setting;
 import org.recommender101.gui.annotations.R101Setting.SettingsType;
 import org.recommender101.recommender.AbstractRecommender;
 import org.recommender101.recommender.extensions.mahout.impl.exception.TasteException;
+import org.recommender101.tools.matrix.FactorMatrix;
 
 /**
  * A class that implements Koren's factorized neighborhood algorithm (item-item
@@ -50,20 +53,28 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 	/** Deviations (bi) after learning the Parameter by gradient solver. */
 	protected Map<Integer, Double> mapOfBi = new HashMap<Integer, Double>();
 
-	/** Every User has an Array pu containing the factors */
-	protected Map<Integer, double[]> mapOfPrecalculatedPuArrays = new HashMap<Integer, double[]>();
+	/** The rows of the users and items in the factor matrices (-1 if unknown) */
+	protected Int2IntOpenHashMap userIndex;
+	protected Int2IntOpenHashMap itemIndex;
+
+	/** Every User has a row pu containing the factors */
+	protected FactorMatrix precalculatedPu;
 	
-	/** Every Item has an Array qi containing the factors */
-	protected Map<Integer, double[]> mapOfQiArrays = new HashMap<Integer, double[]>();
+	/** Every Item has a row qi containing the factors */
+	protected FactorMatrix qi;
 
-	/** Every Item has an Array xi containing the factors */
-	protected Map<Integer, double[]> mapOfXiArrays = new HashMap<Integer, double[]>();
+	/** Every Item has a row xi containing the factors */
+	protected FactorMatrix xi;
 
-	/** Every Item has an Array yi containing the factors */
-	protected Map<Integer, double[]> mapOfYiArrays = new HashMap<Integer, double[]>();
+	/** Every Item has a row yi containing the factors */
+	protected FactorMatrix yi;
 
-	/** Pre-calculate the preferences for each item */
-	protected Map<Integer, Set<Rating>> ratingsOfItems = new HashMap<Integer, Set<Rating>>();
+	/** The preferences for each item (shared index of the data model) */
+	protected Map<Integer, Set<Rating>> ratingsOfItems;
+	
+	/** The item ids by row of the item factors and their bi, packed for scoreAllItems() after training */
+	protected int[] itemIds;
+	protected double[] packedBi;
 	
 	/** If we detect broken values, we warn the user but only once */
 	private boolean warnedUser = false;
@@ -78,12 +89,7 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 		}
 		
 		// compute scalarproduct of qi*pu.
-		double[] qiArray = mapOfQiArrays.get(item);
-		double[] puArray = mapOfPrecalculatedPuArrays.get(user);
-		double scalarPuQi = 0.0;
-		for (int a = 0; a < nbFactors; a++) {
-			scalarPuQi += qiArray[a] * puArray[a];
-		}
+		double scalarPuQi = qi.dot(itemIndex.get(item), precalculatedPu, userIndex.get(user));
 		
 		return (float) (
 				mAvgOfAllPreferences
@@ -117,6 +123,20 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 		}
 		mAvgOfAllPreferences = sumOfAllPreferences / numOfAllPreferences;
 		
+		// The rows in the factor matrices
+		userIndex = new Int2IntOpenHashMap(dataModel.getUsers().size());
+		userIndex.defaultReturnValue(-1);
+		for (int user : dataModel.getUsers()) {
+			userIndex.put(user, userIndex.size());
+		}
+		itemIndex = new Int2IntOpenHashMap(dataModel.getItems().size());
+		itemIndex.defaultReturnValue(-1);
+		itemIds = new int[dataModel.getItems().size()];
+		for (int item : dataModel.getItems()) {
+			itemIds[itemIndex.size()] = item;
+			itemIndex.put(item, itemIndex.size());
+		}
+		
 //		System.out.println("ItemEffects");
 		//Deviation (bj) of Item from average. Used for computing buj before parameters have learned.
 		Map<Integer, Double> deviationsOfItemsForPrecomputation = itemEffects(regBi);
@@ -128,10 +148,64 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 		gradientSolver(iterations, gammaStepSize, lambdaForRegulation, nbFactors, this.rangeOfRandomValues,deviationsOfItemsForPrecomputation,deviationsOfUserForPrecomputation);
 //		Debug.log("Factorized NB: Initial training done");
 		
+		precalculatedPu = new FactorMatrix(userIndex.size(), nbFactors);
 		for (int user : dataModel.getUsers()){
-			mapOfPrecalculatedPuArrays.put(user, preCalculatePu(user));
+			double[] puArray = preCalculatePu(user);
+			int row = userIndex.get(user);
+			for (int a = 0; a < nbFactors; a++) {
+				precalculatedPu.set(row, a, puArray[a]);
+			}
 		}
 		
+		packItems();
+	}
+
+	/**
+	 * Copies the bi of the items into an array by row of the item factors
+	 */
+	protected void packItems() {
+		double[] bi = new double[itemIds.length];
+		for (int i = 0; i < itemIds.length; i++) {
+			bi[i] = mapOfBi.get(itemIds[i]);
+		}
+		packedBi = bi;
+	}
+
+	/**
+	 * The items in the order of the packed item parameters
+	 */
+	@Override
+	public int[] getScoringItems() {
+		return packedBi == null ? super.getScoringItems() : itemIds;
+	}
+
+	/**
+	 * Scores all items with one pass of the user's pu row over the qi rows
+	 */
+	@Override
+	public void scoreAllItems(int user, float[] out) {
+		if (packedBi == null) {
+			super.scoreAllItems(user, out);
+			return;
+		}
+		int row = userIndex.get(user);
+		if (row < 0 || !dataModel.getUsers().contains(user)) {
+			Arrays.fill(out, 0, itemIds.length, Float.NaN);
+			return;
+		}
+		double base = mAvgOfAllPreferences + mapOfBu.get(user);
+		precalculatedPu.dotAll(row, qi, out);
+		for (int i = 0; i < itemIds.length; i++) {
+			out[i] = (float) (base + packedBi[i] + out[i]);
+		}
+	}
+
+	/**
+	 * The top-n list based on the rating predictions
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		return recommendTopNByRatingPrediction(user, n);
 	}
 
 	/**
@@ -146,16 +220,17 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 		double[] sumYiArray = new double[nbFactors];
 		double[] puArray = new double[nbFactors];
 
+		float[] xiValues = xi.getValues();
+		float[] yiValues = yi.getValues();
 		for (Rating r : dataModel.getRatingsOfUser(user)) {
-			double[] xiArray = mapOfXiArrays.get(r.item);
-			double[] yiArray = mapOfYiArrays.get(r.item);
+			int offset = xi.offset(itemIndex.get(r.item));
 			double  buj =
 					mAvgOfAllPreferences
 					+ mapOfBu.get(user)
 					+ mapOfBi.get(r.item);
 			for (int a = 0; a < nbFactors; a++) {
-				sumXiArray[a] += (r.rating - buj) * xiArray[a];
-				sumYiArray[a] += yiArray[a];
+				sumXiArray[a] += (r.rating - buj) * xiValues[offset + a];
+				sumYiArray[a] += yiValues[offset + a];
 			}
 		}
 		// Part of Prediction-Function independent of item.
@@ -240,28 +315,29 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 		
 		
 		//init items
+		xi = new FactorMatrix(itemIds.length, numOfFactors);
+		yi = new FactorMatrix(itemIds.length, numOfFactors);
+		qi = new FactorMatrix(itemIds.length, numOfFactors);
 		for (int item : dataModel.getItems()){
+			int row = itemIndex.get(item);
 			
-			double[] xiArray = new double[numOfFactors];
 			for (int a = 0; a < numOfFactors; a++) {
-				xiArray[a] = -rangeOfRandomValues + Math.random() * 2 * rangeOfRandomValues;
+				xi.set(row, a, -rangeOfRandomValues + Math.random() * 2 * rangeOfRandomValues);
 				
 			}
-			double[] yiArray = new double[numOfFactors];
 			for (int a = 0; a < numOfFactors; a++) {
-				yiArray[a] = -rangeOfRandomValues + Math.random() * 2 * rangeOfRandomValues;
+				yi.set(row, a, -rangeOfRandomValues + Math.random() * 2 * rangeOfRandomValues);
 			}
-			mapOfXiArrays.put(item, xiArray);
-			mapOfYiArrays.put(item, yiArray);
 			
-			double[] qiArray = new double[numOfFactors];
 			for (int a = 0; a < numOfFactors; a++) {
-				qiArray[a] = (-rangeOfRandomValues + Math
-						.random() * 2 * rangeOfRandomValues);
+				qi.set(row, a, (-rangeOfRandomValues + Math
+						.random() * 2 * rangeOfRandomValues));
 			}
-			mapOfQiArrays.put(item, qiArray);
 			mapOfBi.put(item,-rangeOfRandomValues + Math.random() * 2 * rangeOfRandomValues );
 		}
+		float[] xiValues = xi.getValues();
+		float[] yiValues = yi.getValues();
+		float[] qiValues = qi.getValues();
 		
 		// init users
 		for (int user : dataModel.getUsers()){
@@ -280,15 +356,14 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 				double[] puArray = new double[nbFactors];
 
 				for (Rating r : dataModel.getRatingsOfUser(user)) {
-					double[] xiArray = mapOfXiArrays.get(r.item);
-					double[] yiArray = mapOfYiArrays.get(r.item);
+					int offset = xi.offset(itemIndex.get(r.item));
 					double  buj =
 							mAvgOfAllPreferences
 							+ mapOfBu.get(user)
 							+ mapOfBi.get(r.item);
 					for (int a = 0; a < nbFactors; a++) {
-						sumXiArray[a] += (r.rating - buj) * xiArray[a];
-						sumYiArray[a] += yiArray[a];
+						sumXiArray[a] += (r.rating - buj) * xiValues[offset + a];
+						sumYiArray[a] += yiValues[offset + a];
 					}
 				}
 				// Part of Prediction-Function independent of item.
@@ -303,11 +378,11 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 				
 				for (Rating r : dataModel.getRatingsOfUser(user)) {
 					
-					double[] qiArray = mapOfQiArrays.get(r.item);
+					int offset = qi.offset(itemIndex.get(r.item));
 					double scalarPuQi = 0.0;
 					for (int a = 0; a < numOfFactors; a++) {
 						// Compute scalarproduct of qi*pu.
-						scalarPuQi += (qiArray[a] * puArray[a]);
+						scalarPuQi += (qiValues[offset + a] * puArray[a]);
 					}
 					
 					// Prediction for user u and item i.
@@ -330,12 +405,12 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 					
 					for (int a = 0; a < numOfFactors; a++) {
 						sumForGradientStep[a] = sumForGradientStep[a]
-								+ (Eui * qiArray[a]);
+								+ (Eui * qiValues[offset + a]);
 					}
 					// Gradient-Step on qi.
 					for (int a = 0; a < numOfFactors; a++) {
-						qiArray[a] = qiArray[a]
-								+ gammaStepSize * (Eui * puArray[a] - lambdaForRegulation * qiArray[a]);
+						qiValues[offset + a] = (float) (qiValues[offset + a]
+								+ gammaStepSize * (Eui * puArray[a] - lambdaForRegulation * qiValues[offset + a]));
 					}
 					// Gradient-Step on bu.
 					double bu = mapOfBu.get(user) + gammaStepSize * (Eui - lambdaForRegulation * mapOfBu.get(user));
@@ -350,18 +425,17 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 				
 				for (Rating r : dataModel.getRatingsOfUser(user)) {
 					double ruj = r.rating;
-					double[] xiArray = mapOfXiArrays.get(r.item);
-					double[] yiArray = mapOfYiArrays.get(r.item);
+					int offset = xi.offset(itemIndex.get(r.item));
 					// Baseline estimate for user u and item i.
 					double bui = mAvgOfAllPreferences + mapOfBu.get(user) + mapOfBi.get(r.item);
 					
 					for (int a = 0; a < numOfFactors; a++) {
 						// Gradient-Step on xi.
-						xiArray[a] = xiArray[a] + gammaStepSize
-									* (normalizePreferences * (ruj - bui) * sumForGradientStep[a] - lambdaForRegulation * xiArray[a]);
+						xiValues[offset + a] = (float) (xiValues[offset + a] + gammaStepSize
+									* (normalizePreferences * (ruj - bui) * sumForGradientStep[a] - lambdaForRegulation * xiValues[offset + a]));
 						// Gradient-Step on yi.
-						yiArray[a] = yiArray[a] + gammaStepSize
-									* (normalizePreferences * sumForGradientStep[a] - lambdaForRegulation * yiArray[a]);
+						yiValues[offset + a] = (float) (yiValues[offset + a] + gammaStepSize
+									* (normalizePreferences * sumForGradientStep[a] - lambdaForRegulation * yiValues[offset + a]));
 					}
 				}
 			}
@@ -369,19 +443,12 @@ public class AsymmetricSVDRecommender extends AbstractRecommender {
 	}
 
 	/**
-	 * Calculate the list of preferences per item
+	 * Get the list of preferences per item from the data model
 	 * 
 	 * @throws Exception
 	 */
 	protected void calculateRatingsPerItem() throws Exception {
-		for (Rating r : dataModel.getRatings()) {
-			Set<Rating> ratingsOfItem = this.ratingsOfItems.get(r.item);
-			if (ratingsOfItem == null) {
-				ratingsOfItem = new HashSet<Rating>();
-			}
-			this.ratingsOfItems.put(r.item, ratingsOfItem);
-			ratingsOfItem.add(r);
-		}
+		this.ratingsOfItems = dataModel.getRatingsPerItem();
 	}
 
 	/**
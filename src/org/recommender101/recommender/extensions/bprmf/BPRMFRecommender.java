@@ -2,18 +2,26 @@ package org.recommender101.recommender.extensions.bprmf;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.recommender101.data.Rating;
+import org.recommender101.eval.impl.Recommender101Impl;
 import org.recommender101.gui.annotations.R101Class;
 import org.recommender101.gui.annotations.R101Setting;
 import org.recommender101.gui.annotations.R101Setting.SettingsType;
 import org.recommender101.recommender.AbstractRecommender;
+import org.recommender101.recommender.TopNHeap;
 import org.recommender101.tools.Debug;
 import org.recommender101.tools.Utilities101;
 
@@ -57,6 +65,9 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 
 	// datamanagement-object
 	public DataManagement data;
+	
+	// the item ids by their index in the latent item matrix, set after training
+	private int[] itemIds;
 
 	// Learning rate alpha
 	public double learnRate = 0.05;
@@ -89,6 +100,10 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	//default is true for legacy reasons
 	public boolean hideKnownItems = true;
 	
+	// The number of training threads. With more than one thread, the threads sample and
+	// update the shared latent matrices without locking (Hogwild)
+	protected int nbThreads = 1;
+	
 	@Override
 	/**
 	 * Not implemented
@@ -111,9 +126,9 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 		// Note: Predictions are only helpful for ranking and not for prediction
 		// convert IDs in mapped values
 		int itemidx = data.itemIndices.get(item);
-		Integer useridx = data.userIndices.get(user);
+		int useridx = data.userIndices.get(user);
 		
-		if (useridx != null) {
+		if (useridx >= 0 && itemidx >= 0) {
 			return (float) (data.item_bias[itemidx] + data.rowScalarProduct( useridx, itemidx));
 		}
 		else {
@@ -184,6 +199,61 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	public List<Integer> recommendItems(int user) {
 		return recommendByPrediction(user);
 	}
+	
+	/**
+	 * The top-n version of recommendByPrediction(), the predictions go directly into a bounded heap
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		Set<Rating> ratings = getDataModel().getRatingsOfUser(user);
+		if (ratings == null || ratings.size() == 0) {
+			return new int[0];
+		}
+		boolean filter = Recommender101Impl.FILTER_NON_RELEVANT_ITEMS_FOR_RECOMMENDATION;
+		float threshold = relevanceThreshold(user);
+		int[] items = getScoringItems();
+		float[] scores = new float[items.length];
+		scoreAllItems(user, scores);
+		TopNHeap heap = new TopNHeap(n);
+		for (int i = 0; i < items.length; i++) {
+			// We will not recommend items repeatedly here
+			if (hideKnownItems && dataModel.getRating(user, items[i]) != -1) {
+				continue;
+			}
+			if (!filter || scores[i] > threshold) {
+				heap.offer(items[i], scores[i]);
+			}
+		}
+		return heap.toSortedArray();
+	}
+	
+	/**
+	 * The items in the order of the latent item matrix
+	 */
+	@Override
+	public int[] getScoringItems() {
+		return itemIds == null ? super.getScoringItems() : itemIds;
+	}
+	
+	/**
+	 * The BPR scores (see predictRatingBPR) of all items in one pass over the latent item matrix
+	 */
+	@Override
+	public void scoreAllItems(int user, float[] out) {
+		if (itemIds == null) {
+			super.scoreAllItems(user, out);
+			return;
+		}
+		int useridx = data.userIndices.get(user);
+		if (useridx < 0) {
+			Arrays.fill(out, 0, itemIds.length, Float.NaN);
+			return;
+		}
+		data.latentUserVector.dotAll(useridx, data.latentItemVector, out);
+		for (int i = 0; i < itemIds.length; i++) {
+			out[i] = (float) (data.item_bias[i] + out[i]);
+		}
+	}
 
 	// =====================================================================================
 
@@ -209,11 +279,15 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 		}
 
 		// Initialization of datamanagement-object
+		long phaseStart = System.nanoTime();
 		data.init(dataModel, numUsers, numItems, numFeatures);
+		recordPhase("data preparation", phaseStart);
 
 //		System.out.println("Init done BPR");
 		// trainig of the data
 		train();
+		
+		itemIds = data.itemIds.clone();
 
 		Debug.log("BPRMF:init: Initial training done");
 
@@ -228,9 +302,62 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 * 
 	 */
 	public void train() {
+		if (nbThreads > 1) {
+			trainParallel();
+			return;
+		}
 		for (int i = 0; i < initialSteps; i++) {
 //			System.out.println("Iterating BPR: " + i);
+			long epochStart = System.nanoTime();
 			iterate();
+			recordPhase("epoch", epochStart);
+		}
+	}
+
+	/**
+	 * Hogwild training: in each epoch, every thread performs its share of the updates with its
+	 * own random numbers and writes to the shared latent matrices and biases without locking.
+	 * As the triples are sparse, two threads rarely update the same rows at the same time, and
+	 * the lost updates which happen anyway do not hurt the convergence.
+	 */
+	protected void trainParallel() {
+		// The per-thread random numbers, split from a seed of the shared generator
+		SplittableRandom root = new SplittableRandom(random.nextLong());
+		Random[] randoms = new Random[nbThreads];
+		for (int t = 0; t < nbThreads; t++) {
+			randoms[t] = new SplitRandom(root.split());
+		}
+		ForkJoinPool pool = new ForkJoinPool(nbThreads);
+		try {
+			for (int i = 0; i < initialSteps; i++) {
+				long epochStart = System.nanoTime();
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int t = 0; t < nbThreads; t++) {
+					final int thread = t;
+					final Random rnd = randoms[t];
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							iterate(thread, nbThreads, rnd);
+							return null;
+						}
+					});
+				}
+				for (Future<Void> f : pool.invokeAll(tasks)) {
+					f.get();
+				}
+				recordPhase("epoch", epochStart);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("BPRMF training interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("BPRMF training failed: " + e.getCause(), e.getCause());
+		}
+		finally {
+			pool.shutdown();
 		}
 	}
 
@@ -242,20 +369,45 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 * 
 	 */
 	public void iterate() {
+		iterate(0, 1, random);
+	}
+
+	/**
+	 * Performs the share of one thread of an iteration: a fraction of the sampled triples
+	 * or, without uniform sampling, the users with index % nbParts == part
+	 * 
+	 * @param part
+	 *            Number - the share of this thread
+	 * @param nbParts
+	 *            Number - the number of threads
+	 * @param rnd
+	 *            Random - the random numbers of this thread
+	 */
+	protected void iterate(int part, int nbParts, Random rnd) {
 		// number of all positive ratings
 		int num_pos_events = data.numPosentries;
 
 		int user_id, pos_item_id, neg_item_id;
 
+		// the sampled triple, reused for all samples
+		int[] triple = new int[3];
 		
 		if (UniformUserSampling) {
 
+			// no user to sample from (every user has seen no or all items)
+			if (data.sampleUsers.length == 0)
+				return;
+
+			// the share of this thread
+			int from = (int) ((long) num_pos_events * part / nbParts);
+			int to = (int) ((long) num_pos_events * (part + 1) / nbParts);
+
 			//performing convergence-heuristic of LearnBPR
-			for (int i = 0; i < num_pos_events; i++) {
+			for (int i = from; i < to; i++) {
 
 				// sampling a triple, consisting of a user, a viewed item and an
 				// unseen one, by given user
-				int[] triple = sampleTriple();
+				sampleTriple(triple, rnd);
 				user_id = triple[0];
 				pos_item_id = triple[1];
 				neg_item_id = triple[2];
@@ -265,25 +417,20 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 
 		} else {
 			// runs over all possible user-item-combinations
-			for (int k = 0; k < data.boolMatrix_numUsers; k++) { // was before: data.boolMatrix.length
-
-				for (int l = 0; l < data.boolMatrix_numItems; l++) { // was before: data.boolMatrix[k].length
+			for (int k = part; k < data.numUsers; k += nbParts) { // was before: data.boolMatrix.length
 
-					user_id = k;
-					pos_item_id = l;
-					neg_item_id = -1;
+				// only the items the user has seen (was before: all items and a check in the boolMatrix)
+				for (int l = data.userPtr[k]; l < data.userPtr[k + 1]; l++) {
 
-					// if the user has not seen the item, another item gets
-					// chosen
-					if (!data.boolMatrix.getBool(user_id,pos_item_id)) // was before: !data.boolMatrix[user_id][pos_item_id]
-						continue;
+					triple[0] = k;
+					triple[1] = data.userItems[l];
+					triple[2] = -1;
 
 					// sampling a triple for a given user and seen item
-					int[] sampleTriple = sampleOtheritem(user_id, pos_item_id,
-							neg_item_id);
-					user_id = sampleTriple[0];
-					pos_item_id = sampleTriple[1];
-					neg_item_id = sampleTriple[2];
+					sampleOtheritem(triple, rnd);
+					user_id = triple[0];
+					pos_item_id = triple[1];
+					neg_item_id = triple[2];
 
 					updateFactors(user_id, pos_item_id, neg_item_id, true, true, updateJ);
 				}
@@ -332,30 +479,34 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 			data.item_bias[j] += (learnRate * update);
 		}
 
-		// adjust factors
+		// adjust factors, directly on the rows in the flat latent matrices
+		// (in float like the matrices, with the learning rate multiplied in)
+		float[] userValues = data.latentUserVector.getValues();
+		float[] itemValues = data.latentItemVector.getValues();
+		int uo = data.latentUserVector.offset(u);
+		int io = data.latentItemVector.offset(i);
+		int jo = data.latentItemVector.offset(j);
+		float step = (float) (learnRate * one_over_one_plus_ex);
+		float decayU = (float) (1 - learnRate * regU);
+		float decayI = (float) (1 - learnRate * regI);
+		float decayJ = (float) (1 - learnRate * regJ);
 		for (int f = 0; f < numFeatures; f++) {
-			double w_uf = data.latentUserVector[u][f];
-			double h_if = data.latentItemVector[i][f];
-			double h_jf = data.latentItemVector[j][f];
+			float w_uf = userValues[uo + f];
+			float h_if = itemValues[io + f];
+			float h_jf = itemValues[jo + f];
 
 			//adjust component of user-vector
 			if (update_u) {
-				double update = (h_if - h_jf) * one_over_one_plus_ex - regU
-						* w_uf;
-				data.latentUserVector[u][f] = (w_uf + learnRate * update);
+				userValues[uo + f] = decayU * w_uf + step * (h_if - h_jf);
 			}
 
 			//adjust component of seen item-vector
 			if (update_i) {
-				double update = w_uf * one_over_one_plus_ex - regI * h_if;
-				data.latentItemVector[i][f] = (float) (h_if + learnRate
-						* update);
+				itemValues[io + f] = decayI * h_if + step * w_uf;
 			}
 			//adjust component of unseen item-vector	
 			if (update_j) {
-				double update = -w_uf * one_over_one_plus_ex - regJ * h_jf;
-				data.latentItemVector[j][f] = (float) (h_jf + learnRate
-						* update);
+				itemValues[jo + f] = decayJ * h_jf - step * w_uf;
 			}
 		}
 	}
@@ -379,11 +530,19 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 		sampleTriple[0] = u;
 		sampleTriple[1] = i;
 		sampleTriple[2] = j;
-		boolean item_is_positive = data.boolMatrix.getBool(u,i); // was before: data.boolMatrix[u][i]
+		return sampleOtheritem(sampleTriple, random);
+	}
+
+	/**
+	 * sampleOtheritem() on a given triple (without allocation) and with the given random numbers
+	 */
+	protected int[] sampleOtheritem(int[] sampleTriple, Random rnd) {
+		int u = sampleTriple[0];
+		boolean item_is_positive = data.isPositive(u, sampleTriple[1]); // was before: data.boolMatrix[u][i]
 
 		do
-			sampleTriple[2] = random.nextInt(numItems);
-		while (data.boolMatrix.getBool(u,sampleTriple[2]) == item_is_positive); // was before: data.boolMatrix[u][sampleTriple[2]]
+			sampleTriple[2] = rnd.nextInt(numItems);
+		while (data.isPositive(u, sampleTriple[2]) == item_is_positive); // was before: data.boolMatrix[u][sampleTriple[2]]
 
 		return sampleTriple;
 	}
@@ -396,18 +555,16 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 * @return u Number - the mapped userID
 	 */
 	public int sampleUser() {
-		while (true) {
-
-			int u = random.nextInt(numUsers);
-			if (!data.userMatrix.containsKey(u))
-				continue;
-			List<Integer> viewedItemsList = data.userMatrix.get(u);
+		return sampleUser(random);
+	}
 
-			if (viewedItemsList == null || viewedItemsList.size() == 0
-					|| viewedItemsList.size() == numItems)
-				continue;
-			return u;
-		}
+	/**
+	 * sampleUser() with the given random numbers. Draws from the users who have viewed at
+	 * least one item but not all (was before: drawing from all users until one fits)
+	 */
+	protected int sampleUser(Random rnd) {
+		int[] users = data.sampleUsers;
+		return users[rnd.nextInt(users.length)];
 	}
 
 	// =====================================================================================
@@ -419,9 +576,15 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 *         mapped view itemId and the mapped unviewed itemID
 	 */
 	public int[] sampleTriple() {
-		int[] triple = new int[3];
-		triple[0] = sampleUser();
-		return sampleItempair(triple);
+		return sampleTriple(new int[3], random);
+	}
+
+	/**
+	 * sampleTriple() into a given triple (without allocation) and with the given random numbers
+	 */
+	protected int[] sampleTriple(int[] triple, Random rnd) {
+		triple[0] = sampleUser(rnd);
+		return sampleItempair(triple, rnd);
 	}
 
 	// =====================================================================================
@@ -433,36 +596,41 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 *         mapped view itemId and the mapped unviewed itemID
 	 */
 	public int[] sampleItempair(int[] triple) {
-		int u = triple[0];
+		return sampleItempair(triple, random);
+	}
 
-		List<Integer> user_items = data.userMatrix.get(u);
+	/**
+	 * sampleItempair() with the given random numbers
+	 */
+	protected int[] sampleItempair(int[] triple, Random rnd) {
+		int u = triple[0];
 
 		// use the gaussian distribution to aquire the i item of the (u,i,j)
 		// triple from the less popular ones (aka the unpopular good alternative to the popular item j)
 		if (gaussDenominatorI > 0) {
-			triple[1] = gaussRandItem(data.userPopularityMatrixAscending.get(u), gaussDenominatorI);
+			triple[1] = gaussRandItem(data.userPopularityMatrixAscending.get(u), gaussDenominatorI, rnd);
 			}
 		else if(popI){
-			triple[1] = aggregationRandItem(data.aggregatedUserPopularityMatrixAscending.get(u), data.aggregatedUserPopularitySum.get(u));
+			triple[1] = aggregationRandItem(data.aggregatedUserPopularityMatrixAscending.get(u), data.aggregatedUserPopularitySum.get(u), rnd);
 		}
 		// else default uniformly random drawing
 		else {
-			triple[1] = user_items.get((random.nextInt(user_items.size())));
+			triple[1] = data.userItems[data.userPtr[u] + rnd.nextInt(data.numPositives(u))];
 		}
 		do {
 			// use the gaussian distribution to aquire the j item of the (u,i,j)
 			// triple from the more popular ones (aka the popular, but unliked item)
 			if (gaussDenominatorJ > 0){
-				triple[2] = gaussRandItem(data.popularityListDescending,gaussDenominatorJ);
+				triple[2] = gaussRandItem(data.popularityListDescending,gaussDenominatorJ, rnd);
 			}
 			else if(popJ){
-				triple[2] = aggregationRandItem(data.aggregatedPopularityMapDescending, data.numPosentries);
+				triple[2] = aggregationRandItem(data.aggregatedPopularityMapDescending, data.numPosentries, rnd);
 			}
 			// else default uniformly random drawing
 			else{
-				triple[2] = random.nextInt(numItems);
+				triple[2] = rnd.nextInt(numItems);
 			}
-		} while (user_items.contains(triple[2]));
+		} while (data.isPositive(u, triple[2]));
 
 		return triple;
 	}
@@ -481,11 +649,13 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 * @return an item drawn with a gaussian distribution from the list. If the
 	 *         distribution chose an index > list.size then the last item of the
 	 *         list will be drawn.
+	 * @param rnd
+	 *            the random numbers to use
 	 */
-	private int gaussRandItem(List<Integer> list, double denominator) {
+	private int gaussRandItem(List<Integer> list, double denominator, Random rnd) {
 		// try 10 times to draw gaussian from the list
 		for (int i = 0; i < 10; i++){
-			double gRand = random.nextGaussian();
+			double gRand = rnd.nextGaussian();
 			double gRandExpanded = gRand * list.size() / denominator;
 			int listIndex = Math.abs((int) Math.round(gRandExpanded));
 
@@ -494,7 +664,7 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 			}
 		}
 		// if that fails because the index was always out of list bounds, then just draw random
-		return list.get(random.nextInt(list.size()));
+		return list.get(rnd.nextInt(list.size()));
 	}
 	
 	// draw by popularity
@@ -510,11 +680,13 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 	 * @param aggregatedSize
 	 *            the sim over all (non-aggregated) values of the map (to save
 	 *            runtime).
+	 * @param rnd
+	 *            the random numbers to use
 	 * @return the key of the drawn list element or -1 in case of error.
 	 */
 	private int aggregationRandItem(Map<Integer, Integer> map,
-			int aggregatedSize) {
-		int pRandom = random.nextInt(aggregatedSize) + 1;
+			int aggregatedSize, Random rnd) {
+		int pRandom = rnd.nextInt(aggregatedSize) + 1;
 		for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
 			if (entry.getValue() >= pRandom) {
 				return entry.getKey();
@@ -687,8 +859,54 @@ public class BPRMFRecommender extends AbstractRecommender implements Serializabl
 		this.popJ = Boolean.parseBoolean(b);
 	}
 
+	/**
+	 * Setter for the number of training threads
+	 * 
+	 * @param n
+	 */
+	@R101Setting(displayName="Threads", description="The number of threads for the (lock-free) training",
+			defaultValue="1", type=SettingsType.INTEGER, minValue=1)
+	public void setThreads(String n) {
+		this.nbThreads = Integer.parseInt(n);
+	}
+
 	@Override
 	protected void hideKnownItems(boolean value) {
 		hideKnownItems = value;
 	}
+
+	// =====================================================================================
+
+	/**
+	 * The random numbers of a SplittableRandom behind the interface of Random, so that the
+	 * sampling methods can be used with the per-thread generators. The generator belongs to
+	 * one thread, there is no synchronization (as with the seed of Random).
+	 */
+	static class SplitRandom extends Random {
+		final SplittableRandom source;
+
+		SplitRandom(SplittableRandom source) {
+			this.source = source;
+		}
+
+		@Override
+		protected int next(int bits) {
+			return (int) (source.nextLong() >>> (64 - bits));
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			return source.nextInt(bound);
+		}
+
+		@Override
+		public long nextLong() {
+			return source.nextLong();
+		}
+
+		@Override
+		public double nextDouble() {
+			return source.nextDouble();
+		}
+	}
 }
\ No newline at end of file
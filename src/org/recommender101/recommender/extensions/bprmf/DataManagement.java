@@ -1,18 +1,22 @@
 package org.recommender101.recommender.extensions.bprmf;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.recommender101.data.DataModel;
 import org.recommender101.data.Rating;
 import org.recommender101.tools.Utilities101;
-import org.recommender101.tools.matrix.SparseByteMatrix;
+import org.recommender101.tools.matrix.FactorMatrix;
 
 /**
  * Manages the data-objects of BPR-MF
@@ -20,13 +24,17 @@ import org.recommender101.tools.matrix.SparseByteMatrix;
  */
 @SuppressWarnings("serial")
 public class DataManagement  implements Serializable {
-	// HashMaps to convert from real ids to mapped ones
-	protected HashMap<Integer, Integer> userMap;
-	protected HashMap<Integer, Integer> itemMap;
+	// The largest per-user bitset of the positive items (in longs, i.e. 64 MB). For more
+	// users * items, the sorted positives are searched instead
+	static final int MAX_BITSET_WORDS = 1 << 23;
+
+	// Arrays to convert from mapped ids to real ones
+	protected int[] userIds;
+	protected int[] itemIds;
 
-	// HashMaps to convert from mapped ids to real ones
-	protected HashMap<Integer, Integer> userIndices;
-	protected HashMap<Integer, Integer> itemIndices;
+	// Maps to convert from real ids to mapped ones, -1 for unknown ids
+	protected Int2IntOpenHashMap userIndices;
+	protected Int2IntOpenHashMap itemIndices;
 
 	// Itembias Array
 	public double[] item_bias;
@@ -42,18 +50,26 @@ public class DataManagement  implements Serializable {
 	private double initMean = 0;
 	private double initStDev = 0.1;
 
-	public double[][] latentUserVector;
-	public double[][] latentItemVector;
+	// The latent matrices, one row per mapped user / item
+	public FactorMatrix latentUserVector;
+	public FactorMatrix latentItemVector;
+
+	// The seen items of the users in CSR form: the mapped items of user u are
+	// userItems[userPtr[u] .. userPtr[u + 1] - 1], sorted
+	// (was in original: a HashMap with a list per user)
+	int[] userPtr;
+	int[] userItems;
 
-	// HashMap containing for each user a list with seen item
-	public HashMap<Integer, ArrayList<Integer>> userMatrix;
+	// The users who have seen at least one item but not all, the ones to sample from
+	int[] sampleUsers;
 
-	// matrix containing for each user/item - combination a bool value,
-	// indicating whether the user has seen the item
-	// was in original: public boolean[][] boolMatrix;
-	SparseByteMatrix boolMatrix;
-	int boolMatrix_numUsers;
-	int boolMatrix_numItems;
+	// Per-user bitsets of the seen items (wordsPerUser longs per user), null if they would
+	// be too large
+	// (was in original: public boolean[][] boolMatrix;)
+	long[] positives;
+	int wordsPerUser;
+	int numUsers;
+	int numItems;
 
 	// number of positive entries in then boolmatrix
 	public int numPosentries;
@@ -105,14 +121,15 @@ public class DataManagement  implements Serializable {
 		
 		dm = dataModel;
 
-		userMap = new HashMap<Integer, Integer>();
-		itemMap = new HashMap<Integer, Integer>();
-		userIndices = new HashMap<Integer, Integer>();
-		itemIndices = new HashMap<Integer, Integer>();
+		userIds = new int[numUsers];
+		itemIds = new int[numItems];
+		userIndices = new Int2IntOpenHashMap(numUsers);
+		userIndices.defaultReturnValue(-1);
+		itemIndices = new Int2IntOpenHashMap(numItems);
+		itemIndices.defaultReturnValue(-1);
 		userid = 0;
 		itemid = 0;
 		numPosentries = 0;
-		userMatrix = new HashMap<Integer, ArrayList<Integer>>();
 		
 		for (Integer user : dataModel.getUsers()) {
 
@@ -126,8 +143,8 @@ public class DataManagement  implements Serializable {
 
 		
 		
-		latentUserVector = new double[numUsers][numFeatures];
-		latentItemVector = new double[numItems][numFeatures];
+		latentUserVector = new FactorMatrix(numUsers, numFeatures);
+		latentItemVector = new FactorMatrix(numItems, numFeatures);
 
 //		System.out.println("0");
 		
@@ -137,11 +154,8 @@ public class DataManagement  implements Serializable {
 //		System.out.println("1");
 
 		item_bias = new double[numItems];
-		// was before:
-		// boolMatrix = new boolean[numUsers][numItems];
-		boolMatrix = new SparseByteMatrix(numUsers,numItems);
-		boolMatrix_numUsers = numUsers;
-		boolMatrix_numItems = numItems;
+		this.numUsers = numUsers;
+		this.numItems = numItems;
 
 //		System.out.println("2");
 
@@ -153,31 +167,70 @@ public class DataManagement  implements Serializable {
 	}
 
 	/**
-	 * initializes the user/item-matrix with booleans instead of ratings
+	 * initializes the seen items of the users (CSR arrays and bitsets) instead of ratings
 	 */
 	public void booleanRatings() {
 		
 		// Temporary map to gather the popularity of the items
 		Map<Integer,Integer> popularityMap = new HashMap<Integer,Integer>();
+		if (useAdvancedSampling) {
+			// The number of ratings per item is taken from the data model's item index
+			for (Map.Entry<Integer, Set<Rating>> entry : dm.getRatingsPerItem().entrySet()) {
+				popularityMap.put(itemIndices.get((int) entry.getKey()), entry.getValue().size());
+			}
+		}
 		
 		// DJ: new version .. no need to iterate over everything
+		// count the items per user, then fill the rows
+		userPtr = new int[numUsers + 1];
 		for (Rating r : dm.getRatings()) {
-			Integer user = userIndices.get(r.user);
-			Integer item = itemIndices.get(r.item);
-			boolMatrix.setBool(user, item, true);
-			
-			ArrayList<Integer> ratingsOfUser = userMatrix.get(user);
-			if (ratingsOfUser == null) {
-				ratingsOfUser = new ArrayList<Integer>();
-				userMatrix.put(user, ratingsOfUser);
+			userPtr[userIndices.get(r.user) + 1]++;
+		}
+		for (int u = 0; u < numUsers; u++) {
+			userPtr[u + 1] += userPtr[u];
+		}
+		int[] fill = Arrays.copyOf(userPtr, numUsers);
+		int[] items = new int[userPtr[numUsers]];
+		for (Rating r : dm.getRatings()) {
+			items[fill[userIndices.get(r.user)]++] = itemIndices.get(r.item);
+		}
+		// sort the rows and drop duplicates
+		int size = 0;
+		int start = 0;
+		for (int u = 0; u < numUsers; u++) {
+			int end = userPtr[u + 1];
+			Arrays.sort(items, start, end);
+			userPtr[u] = size;
+			for (int k = start; k < end; k++) {
+				if (k == start || items[k] != items[k - 1]) {
+					items[size++] = items[k];
+				}
 			}
-			ratingsOfUser.add(item);
-			numPosentries++;
-			
-			if (useAdvancedSampling){
-				if(popularityMap.get(item) == null) popularityMap.put(item, 0);
-				int current = popularityMap.get(item);
-				popularityMap.put(item, current + 1);
+			start = end;
+		}
+		userPtr[numUsers] = size;
+		userItems = Arrays.copyOf(items, size);
+		numPosentries = size;
+
+		int nbSampleUsers = 0;
+		int[] users = new int[numUsers];
+		for (int u = 0; u < numUsers; u++) {
+			int n = userPtr[u + 1] - userPtr[u];
+			if (n > 0 && n < numItems) {
+				users[nbSampleUsers++] = u;
+			}
+		}
+		sampleUsers = Arrays.copyOf(users, nbSampleUsers);
+
+		wordsPerUser = (numItems + 63) >>> 6;
+		positives = null;
+		if ((long) numUsers * wordsPerUser <= MAX_BITSET_WORDS) {
+			positives = new long[numUsers * wordsPerUser];
+			for (int u = 0; u < numUsers; u++) {
+				for (int k = userPtr[u]; k < userPtr[u + 1]; k++) {
+					int item = userItems[k];
+					positives[u * wordsPerUser + (item >>> 6)] |= 1L << item;
+				}
 			}
 		}
 		
@@ -201,12 +254,19 @@ public class DataManagement  implements Serializable {
 			aggregatedUserPopularityMatrixAscending = new HashMap<Integer, Map<Integer,Integer>>();
 			aggregatedUserPopularitySum = new HashMap<Integer,Integer>();
 			
-			for(Map.Entry<Integer, ArrayList<Integer>> entry : userMatrix.entrySet()){
-				List<Integer> user_items_byPop = new ArrayList<Integer>(popularityListDescending);
-				user_items_byPop.retainAll(entry.getValue());
+			for (int u = 0; u < numUsers; u++) {
+				if (userPtr[u] == userPtr[u + 1]) {
+					continue;
+				}
+				List<Integer> user_items_byPop = new ArrayList<Integer>();
+				for (int item : popularityListDescending) {
+					if (isPositive(u, item)) {
+						user_items_byPop.add(item);
+					}
+				}
 				
 				Collections.reverse(user_items_byPop); // reverse it from descending to ascending
-				userPopularityMatrixAscending.put(entry.getKey(), user_items_byPop);
+				userPopularityMatrixAscending.put(u, user_items_byPop);
 				
 				//while were are at it, store the aggregated popularities per user
 				Map<Integer, Integer> aggregatedPopularityOfUser = new LinkedHashMap<Integer,Integer>();
@@ -225,60 +285,49 @@ public class DataManagement  implements Serializable {
 					aggregatedPopularityOfUser.put(item, userAggregate);
 				}
 				
-				aggregatedUserPopularityMatrixAscending.put(entry.getKey(), aggregatedPopularityOfUser);
-				aggregatedUserPopularitySum.put(entry.getKey(), userAggregate);
+				aggregatedUserPopularityMatrixAscending.put(u, aggregatedPopularityOfUser);
+				aggregatedUserPopularitySum.put(u, userAggregate);
 			}
 		}
-		
-/*		
-		for (int k = 0; k < boolMatrix_numUsers; k++) { // was before: boolMatrix.length
-			ArrayList<Integer> userItems = new ArrayList<Integer>();
-			for (int l = 0; l < boolMatrix_numItems; l++) { // was before: boolMatrix[k].length
-				int user = userMap.get(k);
-				int item = itemMap.get(l);
-				
-				// the binary case
-				if (Recommender101Impl.MAX_RATING == 1) {
-					boolMatrix.setBool(k, l, true);
-					userItems.add(l);
-					numPosentries++;
-					
-				}
-				else {
-					
-					if (dm.getRating(user, item) > 0) {
-	//					// Should we only consider relevant items here?
-	//					if (this.useRatingThreshold) {
-	//					}
-						
-						// was before: boolMatrix[k][l] = true;
-						boolMatrix.setBool(k, l, true);
-						userItems.add(l);
-						numPosentries++;
-					} 
-//					else {
-//						// was before: boolMatrix[k][l] = false;
-//						boolMatrix.setBool(k, l, false);
-//					}
-				}
+	}
 
-			}
-			userMatrix.put(k, userItems);
+	/**
+	 * Tells if the user has seen the item: a bit test or, for large data, a binary search
+	 * in the seen items of the user
+	 * 
+	 * @param user
+	 *            Number - the mapped userID
+	 * @param item
+	 *            Number - the mapped itemID
+	 */
+	public boolean isPositive(int user, int item) {
+		if (positives != null) {
+			return (positives[user * wordsPerUser + (item >>> 6)] & (1L << item)) != 0;
 		}
-		*/
+		return Arrays.binarySearch(userItems, userPtr[user], userPtr[user + 1], item) >= 0;
+	}
+
+	/**
+	 * The number of items seen by the user
+	 * 
+	 * @param user
+	 *            Number - the mapped userID
+	 */
+	public int numPositives(int user) {
+		return userPtr[user + 1] - userPtr[user];
 	}
 
 	/**
 	 * initiates the given latent matrix with random values
 	 * 
 	 * @param matix
-	 *            double[][] - the given latent matrix
+	 *            FactorMatrix - the given latent matrix
 	 */
 	@SuppressWarnings("JavadocReference")
-	private void initLatentmatrix(double[][] matrix) {
-		for (int k = 0; k < matrix.length; k++) {
-			for (int l = 0; l < matrix[k].length; l++) {
-				matrix[k][l] = this.nextNormal(initMean, initStDev);
+	private void initLatentmatrix(FactorMatrix matrix) {
+		for (int k = 0; k < matrix.getRows(); k++) {
+			for (int l = 0; l < matrix.getColumns(); l++) {
+				matrix.set(k, l, this.nextNormal(initMean, initStDev));
 			}
 		}
 	}
@@ -298,29 +347,17 @@ public class DataManagement  implements Serializable {
 	public double rowScalarProductWithRowDifference(int user, int item1,
 													int item2) {
 
-		if (user >= latentUserVector.length)
+		if (user >= latentUserVector.getRows())
 			throw new IllegalArgumentException("i too big: " + user
-					+ ", dim1 is " + latentUserVector.length);
-		if (item1 >= latentItemVector.length)
+					+ ", dim1 is " + latentUserVector.getRows());
+		if (item1 >= latentItemVector.getRows())
 			throw new IllegalArgumentException("item1 too big: " + item1
-					+ ", dim1 is " + latentItemVector.length);
-		if (item2 >= latentItemVector.length)
+					+ ", dim1 is " + latentItemVector.getRows());
+		if (item2 >= latentItemVector.getRows())
 			throw new IllegalArgumentException("j too big: " + item2
-					+ ", dim1 is " + latentItemVector.length);
-		if (latentUserVector[user].length != latentItemVector[item1].length)
-			throw new IllegalArgumentException("wrong row size: "
-					+ latentUserVector[user].length + " vs. "
-					+ latentItemVector[item1].length);
-		if (latentUserVector[user].length != latentItemVector[item2].length)
-			throw new IllegalArgumentException("wrong row size: "
-					+ latentUserVector[user].length + " vs. "
-					+ latentItemVector[item2].length);
-
-		double result = 0.0;
-		for (int c = 0; c < latentUserVector[user].length; c++)
-			result += (Double) latentUserVector[user][c]
-					* ((Double) latentItemVector[item1][c] - (Double) latentItemVector[item2][c]);
-		return result;
+					+ ", dim1 is " + latentItemVector.getRows());
+
+		return latentUserVector.dotDifference(user, latentItemVector, item1, item2);
 	}
 
 	/**
@@ -334,44 +371,36 @@ public class DataManagement  implements Serializable {
 	 */
 	@SuppressWarnings("JavadocReference")
 	public double rowScalarProduct(int user, int item) {
-		if (user >= latentUserVector.length)
+		if (user >= latentUserVector.getRows())
 			throw new IllegalArgumentException("i too big: " + user
-					+ ", dim1 is " + latentUserVector.length);
-		if (item >= latentItemVector.length)
+					+ ", dim1 is " + latentUserVector.getRows());
+		if (item >= latentItemVector.getRows())
 			throw new IllegalArgumentException("j too big: " + item
-					+ ", dim1 is " + latentItemVector.length);
-		if (latentUserVector[user].length != latentItemVector[item].length)
-			throw new IllegalArgumentException("wrong row size: "
-					+ latentUserVector[user].length + " vs. "
-					+ latentItemVector[item].length);
-
-		Double result = 0.0;
-		for (int c = 0; c < latentUserVector[user].length; c++)
-			result += (Double) latentUserVector[user][c]
-					* ((Double) latentItemVector[item][c]);
-		return result;
+					+ ", dim1 is " + latentItemVector.getRows());
+
+		return latentUserVector.dot(user, latentItemVector, item);
 	}
 
 	/**
-	 * adds the given user to the userMap and the userIndices
+	 * adds the given user to the userIds and the userIndices
 	 * 
 	 * @param user
 	 *            Number - unmapped userID
 	 */
 	public void addUser(int user) {
-		userMap.put(userid, user);
+		userIds[userid] = user;
 		userIndices.put(user, userid);
 		userid++;
 	}
 
 	/**
-	 * adds the given item to the itemMap and the itemIndices
+	 * adds the given item to the itemIds and the itemIndices
 	 * 
 	 * @param item
 	 *            Number - unmapped itemID
 	 */
 	public void addItem(int item) {
-		itemMap.put(itemid, item);
+		itemIds[itemid] = item;
 		itemIndices.put(item, itemid);
 		itemid++;
 	}
@@ -2,6 +2,7 @@
 package org.recommender101.recommender.extensions.funksvd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -34,7 +35,11 @@ public class FunkSVDRecommender extends AbstractRecommender {
 	
 	private FastByIDMap<Integer> userMap = null;
 	private FastByIDMap<Integer> itemMap = null;
-	private GradientDescentSVD emSvd = null;
+	// the item ids by their index in the factor matrix
+	private int[] itemIds = null;
+	// Written after each training run, the volatile write publishes the trained vectors
+	// (and the id maps) to the threads calling predictRating()
+	private volatile GradientDescentSVD emSvd = null;
 	private List<Rating> cachedPreferences = null;
 	
 	// Calculate the user averages
@@ -43,9 +48,15 @@ public class FunkSVDRecommender extends AbstractRecommender {
 
   // =====================================================================================
 
+	/**
+	 * The prediction only reads the trained model, so it can be called from several threads
+	 */
 	@Override
-	public synchronized float predictRating(int user, int item) {
-		// return 0;
+	public float predictRating(int user, int item) {
+		GradientDescentSVD svd = emSvd;
+		if (svd == null) {
+			return Float.NaN;
+		}
 		Integer useridx = userMap.get(user);
 		Integer itemidx = itemMap.get(item);
 
@@ -54,7 +65,7 @@ public class FunkSVDRecommender extends AbstractRecommender {
 		
 		// LL 12.02.13
 		if (useridx != null && itemidx != null) {
-			return (float) emSvd.getDotProduct(useridx, itemidx);
+			return (float) svd.getDotProduct(useridx, itemidx);
 		}
 		else {
 			// This might happen during training test splits for super-sparse (test) data
@@ -74,6 +85,40 @@ public class FunkSVDRecommender extends AbstractRecommender {
 		return recommendItemsByRatingPrediction(user);
 	}
 
+	/**
+	 * The items in the order of the item factor matrix
+	 */
+	@Override
+	public int[] getScoringItems() {
+		return emSvd == null ? super.getScoringItems() : itemIds;
+	}
+
+	/**
+	 * One pass of the user vector over all item vectors
+	 */
+	@Override
+	public void scoreAllItems(int user, float[] out) {
+		GradientDescentSVD svd = emSvd;
+		if (svd == null) {
+			super.scoreAllItems(user, out);
+			return;
+		}
+		Integer useridx = userMap.get(user);
+		if (useridx == null) {
+			Arrays.fill(out, 0, itemIds.length, Float.NaN);
+			return;
+		}
+		svd.getDotProducts(useridx, out);
+	}
+
+	/**
+	 * The top-n list based on the rating predictions
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		return recommendTopNByRatingPrediction(user, n);
+	}
+
   // =====================================================================================
 
 	@Override
@@ -91,18 +136,20 @@ public class FunkSVDRecommender extends AbstractRecommender {
 		itemMap = new FastByIDMap<Integer>(numItems);
 
 		idx = 0;
+		itemIds = new int[numItems];
 		for (Integer item : dataModel.getItems()) {
+			itemIds[idx] = item;
 			itemMap.put(item, idx++);
 		}
 		
 		double average = Utilities101.getGlobalRatingAverage(dataModel);
 		double defaultValue = Math.sqrt((average - 1.0) / numFeatures);
 		
-		emSvd = new GradientDescentSVD(numUsers, numItems, numFeatures, defaultValue);
+		GradientDescentSVD svd = new GradientDescentSVD(numUsers, numItems, numFeatures, defaultValue);
 		cachedPreferences = new ArrayList<Rating>(numUsers);
 		cachePreferences();
 		
-		train(initialSteps);
+		train(svd, initialSteps);
 		
 		// Load the user averages for the recommendation task
 		this.perUserAverage = dataModel.getUserAverageRatings();		
@@ -112,16 +159,24 @@ public class FunkSVDRecommender extends AbstractRecommender {
   // =====================================================================================
 
 	// SVD-Specific things here
+	// Must not run concurrently with predictions
 	public void train(int steps) {
+		train(emSvd, steps);
+	}
+
+	private void train(GradientDescentSVD svd, int steps) {
 		for (int i = 0; i < steps; i++) {
 //			Debug.log("Training iteration for SVD: " + i);
-			nextTrainStep();
+			long epochStart = System.nanoTime();
+			nextTrainStep(svd);
+			recordPhase("epoch", epochStart);
 		}
+		emSvd = svd;
 	}
 
   // =====================================================================================
 
-	private void nextTrainStep() {
+	private void nextTrainStep(GradientDescentSVD svd) {
 		Collections.shuffle(cachedPreferences, random);
 		long userid;
 		long itemid;
@@ -132,7 +187,7 @@ public class FunkSVDRecommender extends AbstractRecommender {
 				int useridx = userMap.get(userid);
 				int itemidx = itemMap.get(itemid);
 				// System.out.println("Training useridx: " + useridx + ", itemidx: " + // itemidx);
-				emSvd.train(useridx, itemidx, i, rating.rating);
+				svd.train(useridx, itemidx, i, rating.rating);
 			}
 		}
 	}
@@ -1,14 +1,17 @@
 package org.recommender101.recommender.extensions.funksvd.impl;
+import java.io.Serializable;
 import java.util.Random;
 
 import org.recommender101.recommender.extensions.mahout.impl.random.RandomUtils;
+import org.recommender101.tools.matrix.FactorMatrix;
 
 
 /** Calculates the p and q matrices based on gradient descent. 
  * Adapted from previous Apache Mahout implementation (0.4)
  * */
 
-public final class GradientDescentSVD {
+public final class GradientDescentSVD implements Serializable {
+  private static final long serialVersionUID = 1L;
   
   private final Random random = RandomUtils.getRandom();
   
@@ -22,11 +25,11 @@ public final class GradientDescentSVD {
   private final int n;
   private final int k;
   
-  /** User singular vector. */
-  private final double[][] leftVector;
+  /** User singular vector (one row per user). */
+  private final FactorMatrix leftVector;
   
-  /** Item singular vector. */
-  private final double[][] rightVector;
+  /** Item singular vector (one row per item). */
+  private final FactorMatrix rightVector;
   
   /**
    * @param m
@@ -47,15 +50,15 @@ public final class GradientDescentSVD {
     this.n = n;
     this.k = k;
     
-    leftVector = new double[m][k];
-    rightVector = new double[n][k];
+    leftVector = new FactorMatrix(m, k);
+    rightVector = new FactorMatrix(n, k);
     
     for (int i = 0; i < k; i++) {
       for (int j = 0; j < m; j++) {
-        leftVector[j][i] = defaultValue + (random.nextDouble() - 0.5) * noise;
+        leftVector.set(j, i, defaultValue + (random.nextDouble() - 0.5) * noise);
       }
       for (int j = 0; j < n; j++) {
-        rightVector[j][i] = defaultValue + (random.nextDouble() - 0.5) * noise;
+        rightVector.set(j, i, defaultValue + (random.nextDouble() - 0.5) * noise);
       }
     }
   }
@@ -67,13 +70,16 @@ public final class GradientDescentSVD {
    * @return the det product
    */
   public double getDotProduct(int i, int j) {
-    double result = 0.0;
-    double[] leftVectorI = leftVector[i];
-    double[] rightVectorJ = rightVector[j];
-    for (int k = 0; k < this.k; k++) {
-      result += leftVectorI[k] * rightVectorJ[k];
-    }
-    return result;
+    return leftVector.dot(i, rightVector, j);
+  }
+  
+  /**
+   * Calculates the dot products of one user vector with all item vectors
+   * @param i index for user vector
+   * @param out the results by item index
+   */
+  public void getDotProducts(int i, float[] out) {
+    leftVector.dotAll(i, rightVector, out);
   }
   
   /**
@@ -85,12 +91,14 @@ public final class GradientDescentSVD {
    */
   public void train(int i, int j, int k, double value) {
     double err = value - getDotProduct(i, j);
-    double[] leftVectorI = leftVector[i];
-    double[] rightVectorJ = rightVector[j];
-    leftVectorI[k] += LEARNING_RATE
-                      * (err * rightVectorJ[k] - K * leftVectorI[k]);
-    rightVectorJ[k] += LEARNING_RATE
-                       * (err * leftVectorI[k] - K * rightVectorJ[k]);
+    float[] left = leftVector.getValues();
+    float[] right = rightVector.getValues();
+    int leftIK = leftVector.offset(i) + k;
+    int rightJK = rightVector.offset(j) + k;
+    left[leftIK] += LEARNING_RATE
+                      * (err * right[rightJK] - K * left[leftIK]);
+    right[rightJK] += LEARNING_RATE
+                       * (err * left[leftIK] - K * right[rightJK]);
   }
   
   int getM() {
@@ -109,10 +117,10 @@ public final class GradientDescentSVD {
   /**
    * Returns the left vector (user vector)
    * @param user
-   * @return the latent vector weights
+   * @return the latent vector weights (a copy)
    */
   public double[] getLeftVector(int user) {
-	  return this.leftVector[user];
+	  return this.leftVector.getRow(user);
   }
   
 }
@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -14,7 +15,8 @@ import java.util.logging.Logger;
  * A simple high level matrix class, for double values.
  * @author Michael Jugovac (Port)
  */
-public class DMatrixDouble {
+public class DMatrixDouble implements Serializable {
+    private static final long serialVersionUID = 1L;
     public double[][] value;
 
     /**
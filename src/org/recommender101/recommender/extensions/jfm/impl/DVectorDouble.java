@@ -2,13 +2,15 @@ package org.recommender101.recommender.extensions.jfm.impl;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 
 /**
  * A specialized Version of the generic DVector for the primitive data type. Same functionality. Better performance (no autoboxing).
  * @author Michael Jugovac
  */
-public class DVectorDouble {
+public class DVectorDouble implements Serializable {
+	private static final long serialVersionUID = 1L;
 	public int dim;
 	private double[] _payload;
 
@@ -1,10 +1,13 @@
 package org.recommender101.recommender.extensions.jfm.impl;
 
+import java.io.Serializable;
+
 /**
  * A specialized Version of the generic DVector for the primitive data type. Same functionality. Better performance (no autoboxing).
  * @author Michael Jugovac
  */
-public class DVectorInt {
+public class DVectorInt implements Serializable {
+	private static final long serialVersionUID = 1L;
 
 	public int dim;
 	private int[] _payload;
@@ -1,11 +1,13 @@
 package org.recommender101.recommender.extensions.jfm.impl;
 
+import java.io.Serializable;
 
 /**
  * This class is unused at the moment. In the original implementation it can be used to add grouping info to the input data. R101 doesn't provide info like this. The class should be functional though and is therefore kept in its current state.
  * @author Michael Jugovac (Port)
  */
-public class DataMetaInfo {
+public class DataMetaInfo implements Serializable {
+        private static final long serialVersionUID = 1L;
         public DVectorInt attr_group  = new DVectorInt(); // attribute_id -> group_id
         public int num_attr_groups;
         public DVectorInt num_attr_per_group = new DVectorInt();
@@ -16,7 +16,10 @@
 package org.recommender101.recommender.extensions.jfm.impl;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -28,15 +31,18 @@ import org.recommender101.data.Rating;
 
 /**
  *	This class represents a parameterized instance of a factorization machine. It contains references to all the necessary input data, id mappings, an the algorithm classes that calculate the actual results.
+ * The learned model can be serialized (e.g. by the model store); the training data is not kept.
  * @author Michael Jugovac (Port)
  */
-public class FactorizationMachine {
+public class FactorizationMachine implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	///A reference to the algorithm class. The actual subclass may vary depending on the parameters
     private fm_learn _fml;
     /// The training data
-    private Data _train;
+    private transient Data _train;
     ///The test data
-    private Data _test;
+    private transient Data _test;
     ///An enum that determines which algorithm is currently in use
     private FactorizationMethod _method;
     ///A mapping for R101-ids to libfm-ids. See Data.loadFromR101DataModel for further description on this structure
@@ -374,65 +380,110 @@ public class FactorizationMachine {
     
     /**
      * This method predicts the rating for a users-item-tuple. It is used by the LibFMRecommender to predict ratings for R101.
+     * The libfm-ids are only looked up (never assigned) and the feature row is built in a per-thread scratch object,
+     * so this method can be called concurrently by several threads.
+     * Unknown users, items or context values simply do not contribute a feature.
      * @param user
      * @param item
      * @return The prediction for the rating
      */
 	public float PredictRating(int user, int item) {
-        ///A data model is created for each tuple. This may be overkill, but this way the least code inside of libfm had to be changed.
-		///This might be replaced by a more lightweight way later on.
-        DataModel singleModel = new DataModel();
-        Rating r = new Rating(user, item, 1);
-        singleModel.addRating(r);
+		PredictionScratch scratch = _scratch.get();
+		sparse_rowFloat row = scratch.row;
+		row.size = 0;
+		addFeature(row, _idMap.get(0).get(user));
+		addFeature(row, _idMap.get(1).get(item));
         if(_contextEnabled&&_globalExtraInfo!=null){
         	///To date the only method to obtain extraInformation for the test data is via a global data structure. 
         	///This data structure was loaded beforehand via reflection from the R101 parameter
         	///A null pointer exception can happen here, which is OK, because if there is no context for the tuple the algorithm will fail anyways
-        	singleModel.addExtraInformation(r, _globalExtraInfo.get(r.user).get(r.item));
+        	int[] context = _globalExtraInfo.get(user).get(item);
+        	if (context != null) {
+        		scratch.ensureCapacity(2 + context.length);
+        		for (int i = 0; i < context.length && i + 2 < _idMap.size(); i++) {
+        			addFeature(row, _idMap.get(i + 2).get(context[i]));
+        		}
+        	}
         }
         
-        try {
-        	///A Data object is created for the tuple 
-			_test.loadFromR101DataModel(singleModel, _idMap, 0, _contextEnabled);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-        
         ///The actual prediction happens here
-        return PredictSingleRating();
+        return PredictSingleRating(row, scratch);
+	}
+	
+	/**
+	 * Appends a feature with value 1 to the row, if the id is known to the model
+	 */
+	private void addFeature(sparse_rowFloat row, Integer libFmId) {
+		if (libFmId == null || libFmId >= _fml.fm.num_attribute) {
+			return;
+		}
+		sparse_entryFloat entry = row.data[row.size++];
+		entry.id = libFmId;
+		entry.value = 1;
 	}
 	
 	/**
 	 * This method handles the actual prediction of a rating for one single
-	 * user-item-tuple after the _test object has been filled with the tuple.
+	 * user-item-tuple after the feature row has been filled.
 	 * 
 	 * @return The prediction for the rating
 	 */
-	private float PredictSingleRating() {
-	    ///The data structure for the retrieval is created
-		
-	    ///Can these values be obtained from R101 somehow?
-	    _test.max_target = _maxRating;
-	    _test.min_target = _minRating;
-	    
+	private float PredictSingleRating(sparse_rowFloat row, PredictionScratch scratch) {
 	    if(_method==FactorizationMethod.MCMC||_method==FactorizationMethod.ALS){
 	    	///If our algorithm is MCMC or ALS we can't just call _fml.predict
 	    	///This is because MCMC and ALS normally predict the ratings parallel to the training process. The predict method merely retrieves them, which cant't be done, because in R101 the test data is not present while the training happens.
-	    	///Instead we have to call the method predict_data_and_write_to_eterms. The following code creates the necessary data structures and calls the method.
-	    	fm_learn_mcmc mcmcMachine = ((fm_learn_mcmc)_fml);
-	    	_test.data.begin();
-	    	///A workaround is following. This is very different from the original but necessary for speed, because it avoids transposition.
-	    	return mcmcMachine.predict_data_and_write_to_eterms(_test.data.getRow());
+	    	///Instead we have to call the method predict_data_and_write_to_eterms, which only reads the model.
+	    	return ((fm_learn_mcmc)_fml).predict_data_and_write_to_eterms(row);
 	    }
 	    else{
-	    	DVectorDouble pred = new DVectorDouble();
-		    pred.setSize(1);
-		    pred.init(0.0);
-	    	///If the algorithm is SGD or SGDA, just call _fml.predict
-	    	_fml.predict(_test, pred);
-			return (float) (double )pred.get(0);
+	    	///If the algorithm is SGD or SGDA, do what _fml.predict does for a single case, but with our own sum buffers
+	    	double p = _fml.fm.predict(row, scratch.sum, scratch.sum_sqr);
+	    	if (_fml.task == TaskType.Regression ) {
+	    		p = Math.min(_fml.max_target, p);
+	    		p = Math.max(_fml.min_target, p);
+	    	} else if (_fml.task == TaskType.Classification) {
+	    		p = 1.0/(1.0 + Math.exp(-p));
+	    	} else {
+	    		throw new IllegalArgumentException();
+	    	}
+			return (float) p;
 	    }
-	    	
-	    
+	}
+	
+	/**
+	 * The per-thread buffers of the prediction path
+	 */
+	private transient ThreadLocal<PredictionScratch> _scratch = ThreadLocal.withInitial(() -> new PredictionScratch());
+	
+	/**
+	 * Restores the per-thread buffers after deserialization
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		_scratch = ThreadLocal.withInitial(() -> new PredictionScratch());
+	}
+	
+	private class PredictionScratch {
+		final sparse_rowFloat row = new sparse_rowFloat();
+		final DVectorDouble sum = new DVectorDouble();
+		final DVectorDouble sum_sqr = new DVectorDouble();
+		
+		PredictionScratch() {
+			row.data = new sparse_entryFloat[0];
+			ensureCapacity(2 + Math.max(0, _idMap.size() - 2));
+			sum.setSize(_fml.fm.num_factor);
+			sum_sqr.setSize(_fml.fm.num_factor);
+		}
+		
+		void ensureCapacity(int n) {
+			if (row.data.length >= n) {
+				return;
+			}
+			sparse_entryFloat[] data = Arrays.copyOf(row.data, n);
+			for (int i = row.data.length; i < n; i++) {
+				data[i] = new sparse_entryFloat();
+			}
+			row.data = data;
+		}
 	}
 }
@@ -1,5 +1,6 @@
 package org.recommender101.recommender.extensions.jfm.impl;
 
+import java.io.Serializable;
 
 /*--- Original comment by Mr Rendle ---
 	Generic learning method for factorization machines
@@ -14,7 +15,8 @@ package org.recommender101.recommender.extensions.jfm.impl;
  * This class contains some fields and management methods that are common all learning algorithms in libfm. All learning algorithms are derived from this class
  * @author Michael Jugovac (Port)
  */
-public abstract class fm_learn {
+public abstract class fm_learn implements Serializable {
+		private static final long serialVersionUID = 1L;
 		
 		/**
 		 * This method is called by the subclass (in the case of SGD and SGDA) to retrieve the next prediction. The whole data object is passed, because it also contains a pointer to the element, which is currently worked on.
@@ -33,9 +35,10 @@ public abstract class fm_learn {
 
 		public TaskType task;
  
-		public Data validation;	
+		///Only needed while learning, not stored with the model
+		public transient Data validation;	
 		
-		public RLog log;
+		public transient RLog log;
 
 		public fm_learn() { 
 			log = null; task = TaskType.Regression; meta = null;
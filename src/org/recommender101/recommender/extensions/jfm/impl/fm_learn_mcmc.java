@@ -22,6 +22,7 @@ package org.recommender101.recommender.extensions.jfm.impl;
  * @author Michael Jugovac (Port)
  */
 public class fm_learn_mcmc extends fm_learn {
+		private static final long serialVersionUID = 1L;
     
         @Override
 		public double evaluate(Data data) { 
@@ -56,10 +57,11 @@ public class fm_learn_mcmc extends fm_learn {
 		protected DVectorDouble pred_sum_all_but5 = new DVectorDouble();
 		protected DVectorDouble pred_this = new DVectorDouble();
 
-		protected e_q_term[] cache;
-		protected e_q_term[] cache_test;
+		///The caches and the dummy row are only needed while learning, they are not stored with the model
+		protected transient e_q_term[] cache;
+		protected transient e_q_term[] cache_test;
 
-		protected sparse_rowFloat empty_data_row = new sparse_rowFloat(); // this is a dummy row for attributes that do not exist in the training data (but in test data)		
+		protected transient sparse_rowFloat empty_data_row = new sparse_rowFloat(); // this is a dummy row for attributes that do not exist in the training data (but in test data)		
 		public boolean output = true;
 
 		protected void _learn(Data train, Data test) {};
@@ -743,10 +745,9 @@ public class fm_learn_mcmc extends fm_learn {
          */
 		public float predict_data_and_write_to_eterms(sparse_rowFloat feature_data) {
 
-			e_q_term term = new e_q_term();
-
-			term.e = 0.0; 
-			term.q = 0.0;
+			///Plain locals instead of an e_q_term, so that concurrent predictions do not allocate
+			double e = 0.0; 
+			double q = 0.0;
 			
 
 			// (1) do the 1/2 sum_f (sum_i v_if x_i)^2 and store it in the e/y-term
@@ -758,16 +759,16 @@ public class fm_learn_mcmc extends fm_learn {
 				for (int i_fd = 0; i_fd < feature_data.size; i_fd++) {	
 					double v_if = v[feature_data.data[i_fd].id];
 					float x_li = feature_data.data[i_fd].value;	
-					term.q += v_if * x_li;			
+					q += v_if * x_li;			
 				}
 				
 				// add 0.5*q^2 to e and set q to zero.
 				// O(n*|B|)
 				
 				
-				double q_all = term.q;
-				term.e += 0.5 * q_all*q_all;
-				term.q = 0.0;
+				double q_all = q;
+				e += 0.5 * q_all*q_all;
+				q = 0.0;
 				
 				
 
@@ -784,7 +785,7 @@ public class fm_learn_mcmc extends fm_learn {
 				for (int i_fd = 0; i_fd < feature_data.size; i_fd++) {	
 					double v_if = v[feature_data.data[i_fd].id];
 					float x_li = feature_data.data[i_fd].value;	
-					term.q -= 0.5 * v_if * v_if * x_li * x_li;  
+					q -= 0.5 * v_if * v_if * x_li * x_li;  
 				}
 				
 				
@@ -797,19 +798,19 @@ public class fm_learn_mcmc extends fm_learn {
 				for (int i_fd = 0; i_fd < feature_data.size; i_fd++) {	
 					double w_i = fm.w.get(feature_data.data[i_fd].id);
 					float x_li = feature_data.data[i_fd].value;	
-					term.q += w_i * x_li;
+					q += w_i * x_li;
 				}
 			}	
 			// (3) merge both for getting the prediction: w0+e(c)+q(c)
 			
-			double q_all = term.q;
-			term.e = term.e + q_all;
+			double q_all = q;
+			e = e + q_all;
 			if (fm.k0) {
-				term.e += fm.w0;
+				e += fm.w0;
 			}
 				
 
-			return (float) term.e;
+			return (float) e;
 		}
 
 }
@@ -23,6 +23,7 @@ package org.recommender101.recommender.extensions.jfm.impl;
  * @author Michael Jugovac (Port)
  */
 public class fm_learn_mcmc_simultaneous extends fm_learn_mcmc {
+	private static final long serialVersionUID = 1L;
 	@Override
 	protected void _learn(Data train, Data test) {
 
@@ -18,6 +18,7 @@ package org.recommender101.recommender.extensions.jfm.impl;
  * @author Michael Jugovac (Port)
  */
 public class fm_learn_sgd extends fm_learn {
+		private static final long serialVersionUID = 1L;
     
 		protected DVectorDouble sum = new DVectorDouble(), sum_sqr = new DVectorDouble();
                 
@@ -21,6 +21,7 @@ import org.recommender101.recommender.extensions.jfm.impl.Data;
 
 
 public class fm_learn_sgd_element extends fm_learn_sgd {
+        private static final long serialVersionUID = 1L;
 
         public fm_learn_sgd_element(){
             super();
@@ -29,6 +29,7 @@ package org.recommender101.recommender.extensions.jfm.impl;
 
 
 public class fm_learn_sgd_element_adapt_reg extends fm_learn_sgd {
+		private static final long serialVersionUID = 1L;
 		// regularization parameter
 		public double reg_0; // shrinking the bias towards the mean of the bias (which is the bias) is the same as no regularization.
 
@@ -42,7 +43,7 @@ public class fm_learn_sgd_element_adapt_reg extends fm_learn_sgd {
 		public DVectorDouble grad_w = new DVectorDouble(); 
 		public DMatrixDouble grad_v = new DMatrixDouble();
 
-		public Data validation;
+		public transient Data validation;
 
 		// local parameters in the lambda_update step
 		public DVectorDouble lambda_w_grad= new DVectorDouble();
@@ -1,11 +1,13 @@
 package org.recommender101.recommender.extensions.jfm.impl;
 
+import java.io.Serializable;
 
 /**
  * This class holds the model parameters for the factorization machine, that are needed to make predictions
  * @author Michael Jugovac (Port)
  */
-public class fm_model {
+public class fm_model implements Serializable {
+		private static final long serialVersionUID = 1L;
 		public DVectorDouble m_sum = new DVectorDouble(), m_sum_sqr = new DVectorDouble();
     	public double w0;
 		public DVectorDouble w = new DVectorDouble();
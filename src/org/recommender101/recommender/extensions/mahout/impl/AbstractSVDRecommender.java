@@ -1,6 +1,8 @@
 package org.recommender101.recommender.extensions.mahout.impl;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.recommender101.recommender.AbstractRecommender;
 import org.recommender101.recommender.extensions.mahout.impl.exception.NoSuchItemException;
@@ -25,6 +27,9 @@ public abstract class AbstractSVDRecommender extends AbstractRecommender{
     protected double randomNoise = 0.01;
     protected int numIterations = 50;
     protected double learningRateDecay = 1.0;
+    
+    // The item ids by their row in the item features of the factorization, built on first use
+    private transient volatile ItemRows itemRows;
 	
 	@Override
 	public float predictRating(int user, int item) {
@@ -32,23 +37,63 @@ public abstract class AbstractSVDRecommender extends AbstractRecommender{
 			throw new RuntimeException("The superclass has not set the Factorizer instance. 'You had one job ...'");
 		}
 		try {
-			double[] userFeatures = factorization.getUserFeatures(user);
-		    double[] itemFeatures = factorization.getItemFeatures(item);
-		    double estimate = 0;
-		    for (int feature = 0; feature < userFeatures.length; feature++) {
-		      estimate += userFeatures[feature] * itemFeatures[feature];
-		    }
-		    return (float) estimate;
+		    return (float) factorization.estimate(user, item);
 		} catch (NoSuchItemException | NoSuchUserException e) {
 			return Float.NaN;
 		}
 	}
 
+	/**
+	 * The items in the order of the rows of the item feature matrix
+	 */
+	@Override
+	public int[] getScoringItems() {
+		Factorization f = factorization;
+		if (f == null) {
+			return super.getScoringItems();
+		}
+		ItemRows rows = itemRows;
+		if (rows == null || rows.factorization != f) {
+			rows = new ItemRows(f);
+			itemRows = rows;
+		}
+		return rows.items;
+	}
+
+	/**
+	 * One pass of the user features over all item features
+	 */
+	@Override
+	public void scoreAllItems(int user, float[] out) {
+		Factorization f = factorization;
+		if (f == null) {
+			super.scoreAllItems(user, out);
+			return;
+		}
+		int[] items = getScoringItems();
+		int userIndex;
+		try {
+			userIndex = f.userIndex(user);
+		} catch (NoSuchUserException e) {
+			Arrays.fill(out, 0, items.length, Float.NaN);
+			return;
+		}
+		f.allUserFeatures().dotAll(userIndex, f.allItemFeatures(), out);
+	}
+
 	@Override
 	public List<Integer> recommendItems(int user) {
 		return recommendItemsByRatingPrediction(user);
 	}
 
+	/**
+	 * The top-n list based on the rating predictions
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		return recommendTopNByRatingPrediction(user, n);
+	}
+
 	@Override
 	public abstract void init() throws TasteException;
 	
@@ -93,4 +138,20 @@ public abstract class AbstractSVDRecommender extends AbstractRecommender{
 	public void setLearningRateDecay(String learningRateDecay) {
 		this.learningRateDecay = Double.parseDouble(learningRateDecay);
 	}
+	
+	/**
+	 * The item ids of a factorization by row
+	 */
+	static class ItemRows {
+		final Factorization factorization;
+		final int[] items;
+
+		ItemRows(Factorization factorization) {
+			this.factorization = factorization;
+			items = new int[factorization.numItems()];
+			for (Map.Entry<Long, Integer> entry : factorization.getItemIDMappings()) {
+				items[entry.getValue()] = entry.getKey().intValue();
+			}
+		}
+	}
 }
@@ -17,19 +17,20 @@
 
 package org.recommender101.recommender.extensions.mahout.impl;
 
-import java.util.Arrays;
 import java.util.Map;
 
 import org.recommender101.recommender.extensions.mahout.impl.data.FastByIDMap;
 import org.recommender101.recommender.extensions.mahout.impl.data.LongPrimitiveIterator;
 import org.recommender101.recommender.extensions.mahout.impl.exception.NoSuchItemException;
 import org.recommender101.recommender.extensions.mahout.impl.exception.NoSuchUserException;
+import org.recommender101.tools.matrix.FactorMatrix;
 
 
 /**
  * Original code by Apache Mahout Project.
  * Edited for Recommender101.
  * a factorization of the rating matrix
+ * The features are kept in flat float matrices (converted from the double[][] of the factorizers).
  */
 public class Factorization {
 
@@ -39,19 +40,19 @@ public class Factorization {
   private final FastByIDMap<Integer> itemIDMapping;
 
   /** user features matrix */
-  private final double[][] userFeatures;
+  private final FactorMatrix userFeatures;
   /** item features matrix */
-  private final double[][] itemFeatures;
+  private final FactorMatrix itemFeatures;
 
   public Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping, double[][] userFeatures,
       double[][] itemFeatures) {
 	this.userIDMapping = userIDMapping;
 	this.itemIDMapping = itemIDMapping;
-    this.userFeatures = userFeatures;
-    this.itemFeatures = itemFeatures;
+    this.userFeatures = FactorMatrix.of(userFeatures);
+    this.itemFeatures = FactorMatrix.of(itemFeatures);
   }
 
-  public double[][] allUserFeatures() {
+  public FactorMatrix allUserFeatures() {
     return userFeatures;
   }
 
@@ -60,10 +61,10 @@ public class Factorization {
     if (index == null) {
       throw new NoSuchUserException(userID);
     }
-    return userFeatures[index];
+    return userFeatures.getRow(index);
   }
 
-  public double[][] allItemFeatures() {
+  public FactorMatrix allItemFeatures() {
     return itemFeatures;
   }
 
@@ -72,7 +73,14 @@ public class Factorization {
     if (index == null) {
       throw new NoSuchItemException(itemID);
     }
-    return itemFeatures[index];
+    return itemFeatures.getRow(index);
+  }
+
+  /**
+   * The estimate of a user and an item, the dot product of their features
+   */
+  public double estimate(long userID, long itemID) throws NoSuchUserException, NoSuchItemException {
+    return userFeatures.dot(userIndex(userID), itemFeatures, itemIndex(itemID));
   }
 
   public int userIndex(long userID) throws NoSuchUserException {
@@ -108,7 +116,7 @@ public class Factorization {
   }
 
   public int numFeatures() {
-    return userFeatures.length > 0 ? userFeatures[0].length : 0;
+    return userFeatures.getColumns();
   }
 
   public int numUsers() {
@@ -124,7 +132,7 @@ public class Factorization {
     if (o instanceof Factorization) {
       Factorization other = (Factorization) o;
       return userIDMapping.equals(other.userIDMapping) && itemIDMapping.equals(other.itemIDMapping)
-          && Arrays.deepEquals(userFeatures, other.userFeatures) && Arrays.deepEquals(itemFeatures, other.itemFeatures);
+          && userFeatures.equals(other.userFeatures) && itemFeatures.equals(other.itemFeatures);
     }
     return false;
   }
@@ -132,8 +140,8 @@ public class Factorization {
   @Override
   public int hashCode() {
     int hashCode = 31 * userIDMapping.hashCode() + itemIDMapping.hashCode();
-    hashCode = 31 * hashCode + Arrays.deepHashCode(userFeatures);
-    hashCode = 31 * hashCode + Arrays.deepHashCode(itemFeatures);
+    hashCode = 31 * hashCode + userFeatures.hashCode();
+    hashCode = 31 * hashCode + itemFeatures.hashCode();
     return hashCode;
   }
 }
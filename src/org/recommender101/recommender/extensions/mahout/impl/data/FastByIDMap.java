@@ -1,4 +1,5 @@
 package org.recommender101.recommender.extensions.mahout.impl.data;
+import java.io.Serializable;
 import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -16,7 +17,8 @@ import org.recommender101.recommender.extensions.mahout.impl.random.RandomUtils;
  * @see FastIDSet
  */
 @SuppressWarnings("ALL")
-public final class FastByIDMap<V> implements Cloneable {
+public final class FastByIDMap<V> implements Cloneable, Serializable {
+  private static final long serialVersionUID = 1L;
   
   public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
   private static final double ALLOWED_LOAD_FACTOR = 1.5;
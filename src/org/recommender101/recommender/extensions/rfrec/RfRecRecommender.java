@@ -171,6 +171,14 @@ public class RfRecRecommender extends AbstractRecommender {
 		return recommendItemsByRatingPrediction(user);
 	}
 
+	/**
+	 * The top-n list based on the rating predictions
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		return recommendTopNByRatingPrediction(user, n);
+	}
+
 	// =====================================================================================
 
 	@Override
@@ -0,0 +1,432 @@
+/** DJ **/
+package org.recommender101.recommender.extensions.slopeone;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.Rating;
+
+/**
+ * The item-item statistics of the slope one recommender: for every pair of items the sum of the
+ * rating differences and the number of users who rated both.
+ * The items are mapped to dense indices and only the upper triangle (i < j) is stored, the
+ * deviation of (j, i) is the negative one of (i, j). The diagonal is the number of ratings of
+ * an item (the difference is 0). Every row keeps its columns in a sorted int array with the sums
+ * and counts aligned, so a lookup is a binary search in one row and the memory grows with the
+ * number of co-rated pairs, not with the number of items squared.
+ *
+ * The rows are built in parallel: every row i sweeps over the users who rated i and accumulates
+ * the pairs (i, j > i) in a dense per-thread accumulator, which is then compacted into the row.
+ * The rows are independent, so no locking is needed and the result does not depend on the
+ * number of threads.
+ *
+ * The sums and counts are additive, so a new or removed rating only changes the pairs of the
+ * rated item with the other items of the user (see update()). New items get the next free index,
+ * the rows have some spare capacity for new columns. The updates change the rows in place and
+ * must not overlap with reads, the recommender guards the matrix with a read-write lock.
+ * @author DJ
+ *
+ */
+class DeviationMatrix implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// Rows per task. The rows have different lengths, work stealing evens this out
+	static final int ROWS_PER_TASK = 16;
+
+	// item id -> row index
+	final Int2IntOpenHashMap index;
+	// row index -> item id
+	int[] itemIds;
+	// The number of items (the arrays can be longer)
+	int nbItems;
+	// The number of ratings per item (the diagonal)
+	int[] ratingCounts;
+
+	// Per row i: the columns j > i (sorted), the sums of r_i - r_j and the number of co-ratings.
+	// Only the first sizes[i] entries of a row are used
+	int[][] columns;
+	float[][] sums;
+	int[][] counts;
+	int[] sizes;
+
+	// =====================================================================================
+
+	/**
+	 * Computes the statistics of a data model
+	 * @param dm the ratings
+	 * @param nbThreads the number of threads
+	 * @return the matrix
+	 */
+	static DeviationMatrix build(DataModel dm, int nbThreads) {
+		return new Builder(dm).build(nbThreads);
+	}
+
+	DeviationMatrix(int[] itemIds) {
+		this.itemIds = itemIds;
+		int n = itemIds.length;
+		nbItems = n;
+		index = new Int2IntOpenHashMap(n);
+		index.defaultReturnValue(-1);
+		for (int i = 0; i < n; i++) {
+			index.put(itemIds[i], i);
+		}
+		ratingCounts = new int[n];
+		columns = new int[n][];
+		sums = new float[n][];
+		counts = new int[n][];
+		sizes = new int[n];
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Returns the row index of an item
+	 * @return the index or -1 for unknown items
+	 */
+	int indexOf(int item) {
+		return index.get(item);
+	}
+
+	/**
+	 * Returns the position of column j in row i (i < j), negative if the items were never rated together
+	 */
+	int find(int i, int j) {
+		return Arrays.binarySearch(columns[i], 0, sizes[i], j);
+	}
+
+	/**
+	 * Returns the average difference between the ratings of two items (by row index)
+	 * @return the average of r_i - r_j or NaN if no user rated both
+	 */
+	float getDeviation(int i, int j) {
+		if (i == j) {
+			return ratingCounts[i] > 0 ? 0 : Float.NaN;
+		}
+		int lo = Math.min(i, j);
+		int k = find(lo, Math.max(i, j));
+		if (k < 0) {
+			return Float.NaN;
+		}
+		float deviation = sums[lo][k] / counts[lo][k];
+		return i == lo ? deviation : -deviation;
+	}
+
+	/**
+	 * Returns the number of users who rated both items (by row index)
+	 */
+	int getCount(int i, int j) {
+		if (i == j) {
+			return ratingCounts[i];
+		}
+		int lo = Math.min(i, j);
+		int k = find(lo, Math.max(i, j));
+		return k < 0 ? 0 : counts[lo][k];
+	}
+
+	/**
+	 * The number of stored item pairs (upper triangle)
+	 */
+	long getNbPairs() {
+		long result = 0;
+		for (int i = 0; i < nbItems; i++) {
+			result += sizes[i];
+		}
+		return result;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Adds (delta = 1) or removes (delta = -1) a rating of a user: the pairs of the item with
+	 * all other items of the user and the diagonal of the item are updated. Pairs which are no
+	 * longer co-rated are removed, so the matrix is the same as if it was built from scratch.
+	 * @param item the rated item
+	 * @param value the rating value
+	 * @param others the other ratings of the user (a rating of the item itself is skipped), can be null
+	 * @param delta 1 to add, -1 to remove the rating
+	 */
+	void update(int item, float value, Set<Rating> others, int delta) {
+		int i = delta > 0 ? addItem(item) : indexOf(item);
+		if (i < 0) {
+			return;
+		}
+		ratingCounts[i] += delta;
+		if (others == null) {
+			return;
+		}
+		for (Rating r : others) {
+			int j = indexOf(r.item);
+			if (j < 0 || j == i) {
+				continue;
+			}
+			if (i < j) {
+				updatePair(i, j, value - r.rating, delta);
+			}
+			else {
+				updatePair(j, i, r.rating - value, delta);
+			}
+		}
+	}
+
+	/**
+	 * Adds a difference to the pair (i, j), i < j
+	 */
+	void updatePair(int i, int j, float difference, int delta) {
+		int k = find(i, j);
+		if (k >= 0) {
+			sums[i][k] += delta * difference;
+			counts[i][k] += delta;
+			if (counts[i][k] <= 0) {
+				// no longer co-rated
+				int size = sizes[i];
+				System.arraycopy(columns[i], k + 1, columns[i], k, size - k - 1);
+				System.arraycopy(sums[i], k + 1, sums[i], k, size - k - 1);
+				System.arraycopy(counts[i], k + 1, counts[i], k, size - k - 1);
+				sizes[i] = size - 1;
+			}
+		}
+		else if (delta > 0) {
+			k = -k - 1;
+			int size = sizes[i];
+			if (size == columns[i].length) {
+				int capacity = Math.max(4, size + (size >> 1));
+				columns[i] = Arrays.copyOf(columns[i], capacity);
+				sums[i] = Arrays.copyOf(sums[i], capacity);
+				counts[i] = Arrays.copyOf(counts[i], capacity);
+			}
+			System.arraycopy(columns[i], k, columns[i], k + 1, size - k);
+			System.arraycopy(sums[i], k, sums[i], k + 1, size - k);
+			System.arraycopy(counts[i], k, counts[i], k + 1, size - k);
+			columns[i][k] = j;
+			sums[i][k] = difference;
+			counts[i][k] = 1;
+			sizes[i] = size + 1;
+		}
+	}
+
+	/**
+	 * Returns the index of an item, new items get the next free index
+	 */
+	int addItem(int item) {
+		int i = indexOf(item);
+		if (i >= 0) {
+			return i;
+		}
+		i = nbItems;
+		if (i == itemIds.length) {
+			int capacity = Math.max(16, i + (i >> 1));
+			itemIds = Arrays.copyOf(itemIds, capacity);
+			ratingCounts = Arrays.copyOf(ratingCounts, capacity);
+			columns = Arrays.copyOf(columns, capacity);
+			sums = Arrays.copyOf(sums, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+		}
+		itemIds[i] = item;
+		columns[i] = new int[0];
+		sums[i] = new float[0];
+		counts[i] = new int[0];
+		index.put(item, i);
+		nbItems = i + 1;
+		return i;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Builds the matrix from the ratings of a data model
+	 */
+	static class Builder {
+		final DeviationMatrix matrix;
+
+		// Per user (CSR): the row indices of the rated items in ascending order and the ratings
+		final int[] userPtr;
+		final int[] userItems;
+		final float[] userRatings;
+
+		// Per item (CSR): the positions of its ratings in userItems
+		final int[] itemPtr;
+		final int[] itemPositions;
+
+		// The end of the ratings of the user of a position in userItems
+		final int[] userEnd;
+
+		ThreadLocal<Accumulator> accumulators;
+
+		Builder(DataModel dm) {
+			Set<Integer> items = dm.getItems();
+			int[] ids = new int[items.size()];
+			int n = 0;
+			for (Integer item : items) {
+				ids[n++] = item;
+			}
+			Arrays.sort(ids);
+			matrix = new DeviationMatrix(ids);
+
+			// The users in ascending order, so that the sums are always added up in the same order
+			Set<Integer> userSet = dm.getUsers();
+			int[] users = new int[userSet.size()];
+			int u = 0;
+			for (Integer user : userSet) {
+				users[u++] = user;
+			}
+			Arrays.sort(users);
+
+			int nbRatings = 0;
+			for (int user : users) {
+				Set<Rating> ratings = dm.getRatingsOfUser(user);
+				nbRatings += ratings == null ? 0 : ratings.size();
+			}
+			userPtr = new int[users.length + 1];
+			userItems = new int[nbRatings];
+			userRatings = new float[nbRatings];
+			userEnd = new int[nbRatings];
+			int[] itemCounts = matrix.ratingCounts;
+			int pos = 0;
+			for (u = 0; u < users.length; u++) {
+				Set<Rating> ratings = dm.getRatingsOfUser(users[u]);
+				if (ratings != null) {
+					// row index in the upper half, the rating bits in the lower half, so sorting the longs sorts by index
+					long[] packed = new long[ratings.size()];
+					int k = 0;
+					for (Rating r : ratings) {
+						int i = matrix.indexOf(r.item);
+						if (i >= 0) {
+							packed[k++] = ((long) i << 32) | (Float.floatToRawIntBits(r.rating) & 0xFFFFFFFFL);
+						}
+					}
+					Arrays.sort(packed, 0, k);
+					for (int t = 0; t < k; t++) {
+						userItems[pos] = (int) (packed[t] >> 32);
+						userRatings[pos] = Float.intBitsToFloat((int) packed[t]);
+						itemCounts[userItems[pos]]++;
+						pos++;
+					}
+				}
+				userPtr[u + 1] = pos;
+				Arrays.fill(userEnd, userPtr[u], pos, pos);
+			}
+
+			// The postings of the items; filled in user order, so every posting list is sorted by user
+			itemPtr = new int[n + 1];
+			for (int i = 0; i < n; i++) {
+				itemPtr[i + 1] = itemPtr[i] + itemCounts[i];
+			}
+			itemPositions = new int[pos];
+			int[] fill = Arrays.copyOf(itemPtr, n);
+			for (int p = 0; p < pos; p++) {
+				itemPositions[fill[userItems[p]]++] = p;
+			}
+		}
+
+		/**
+		 * Computes all rows with the given number of threads
+		 */
+		DeviationMatrix build(int nbThreads) {
+			int n = matrix.nbItems;
+			accumulators = ThreadLocal.withInitial(() -> new Accumulator(n));
+			if (nbThreads <= 1) {
+				for (int i = 0; i < n; i++) {
+					computeRow(i);
+				}
+			}
+			else {
+				ForkJoinPool pool = new ForkJoinPool(nbThreads);
+				try {
+					pool.invoke(new RowBlock(0, n));
+				}
+				finally {
+					pool.shutdown();
+				}
+			}
+			accumulators = null;
+			return matrix;
+		}
+
+		/**
+		 * Accumulates the pairs (i, j > i) over all users who rated i and stores them in row i
+		 */
+		void computeRow(int i) {
+			Accumulator acc = accumulators.get();
+			for (int t = itemPtr[i]; t < itemPtr[i + 1]; t++) {
+				int p = itemPositions[t];
+				float rating = userRatings[p];
+				// the items of the user are sorted, so the ones after i are the columns j > i
+				for (int q = p + 1; q < userEnd[p]; q++) {
+					int j = userItems[q];
+					if (acc.counts[j]++ == 0) {
+						acc.touched[acc.nbTouched++] = j;
+					}
+					acc.sums[j] += rating - userRatings[q];
+				}
+			}
+			int size = acc.nbTouched;
+			Arrays.sort(acc.touched, 0, size);
+			int[] rowColumns = new int[size];
+			float[] rowSums = new float[size];
+			int[] rowCounts = new int[size];
+			for (int c = 0; c < size; c++) {
+				int j = acc.touched[c];
+				rowColumns[c] = j;
+				rowSums[c] = acc.sums[j];
+				rowCounts[c] = acc.counts[j];
+				acc.sums[j] = 0;
+				acc.counts[j] = 0;
+			}
+			acc.nbTouched = 0;
+			matrix.columns[i] = rowColumns;
+			matrix.sums[i] = rowSums;
+			matrix.counts[i] = rowCounts;
+			matrix.sizes[i] = size;
+		}
+
+		/**
+		 * A block of rows, split until it is small enough
+		 */
+		@SuppressWarnings("serial")
+		class RowBlock extends RecursiveAction {
+			final int from;
+			final int to;
+
+			RowBlock(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from <= ROWS_PER_TASK) {
+					for (int i = from; i < to; i++) {
+						computeRow(i);
+					}
+					return;
+				}
+				int mid = (from + to) >>> 1;
+				invokeAll(new RowBlock(from, mid), new RowBlock(mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Per-thread sums for all columns of the current row
+	 */
+	static class Accumulator {
+		final float[] sums;
+		final int[] counts;
+		final int[] touched;
+		int nbTouched = 0;
+
+		Accumulator(int n) {
+			sums = new float[n];
+			counts = new int[n];
+			touched = new int[n];
+		}
+	}
+
+}
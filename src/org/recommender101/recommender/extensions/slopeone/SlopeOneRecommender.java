@@ -1,16 +1,20 @@
 /** DJ **/
 package org.recommender101.recommender.extensions.slopeone;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.recommender101.data.Rating;
+import org.recommender101.gui.annotations.R101Setting;
+import org.recommender101.gui.annotations.R101Setting.SettingsType;
 import org.recommender101.recommender.AbstractRecommender;
+import org.recommender101.tools.Debug;
 
 /**
- * A weighted slope one recommender. Uses the original implementation of Daniel Lemire
- * (lemire.me/fr/documents/publications/SlopeOne.java)
+ * A weighted slope one recommender. Based on the original implementation of Daniel Lemire
+ * (lemire.me/fr/documents/publications/SlopeOne.java); the item-item differences are kept in
+ * a compact DeviationMatrix instead of nested hash maps.
  * @author DJ
  *
  */
@@ -18,13 +22,24 @@ import org.recommender101.recommender.AbstractRecommender;
 public class SlopeOneRecommender extends AbstractRecommender {
 
 	/**
-	 * Holds item to item differences
+	 * Holds the item to item differences and frequencies. The volatile write at the end of the
+	 * training publishes the matrix to the threads calling predictRating()
 	 */
-	Map<Integer,Map<Integer,Float>> mDiffMatrix;
+	volatile DeviationMatrix matrix;
+
 	/**
-	 * The item-item-frequency matrix
+	 * The number of threads used to compute the differences
 	 */
-  Map<Integer,Map<Integer,Integer>> mFreqMatrix;
+	int nbThreads = 1;
+
+	/**
+	 * Allows addRating() and removeRating(). Only then the predictions hold the read lock and the
+	 * updates the write lock (an update shifts the rows of the matrix in place and changes the rating
+	 * sets of the data model), otherwise the predictions do not touch the lock at all
+	 */
+	boolean incrementalUpdates = false;
+
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   
 
   /**
@@ -33,23 +48,57 @@ public class SlopeOneRecommender extends AbstractRecommender {
    */
 	@Override
 	public float predictRating(int user, int item) {
-//		System.out.println("Predicting one");
+		if (!incrementalUpdates) {
+			return predict(user, item);
+		}
+		lock.readLock().lock();
+		try {
+			return predict(user, item);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The prediction, the caller holds the read lock if incremental updates are enabled
+	 */
+	float predict(int user, int item) {
+		DeviationMatrix m = matrix;
+		int i = m.indexOf(item);
+		Set<Rating> ratings = dataModel.getRatingsOfUser(user);
+		if (i < 0 || ratings == null) {
+			return Float.NaN;
+		}
 		float prediction = 0;
 		int frequency = 0;
   	// Go through all items the user has rated
-  	for (Rating rj : dataModel.getRatingsOfUser(user)) {
-  		// get the differences from the rating matrix
-			Map<Integer, Float> diffsForItem = mDiffMatrix.get(item);
-			if (diffsForItem != null) {
-				Float avgDiff = diffsForItem.get(rj.item);
-				if (avgDiff != null) {
-					int frq = mFreqMatrix.get(item).get(rj.item).intValue();
-				
-					float newval = (avgDiff + rj.rating ) * frq;
-					prediction += newval;
-					frequency += mFreqMatrix.get(item).get(rj.item).intValue();
-				}
-			}
+  	for (Rating rj : ratings) {
+  		int j = m.indexOf(rj.item);
+  		if (j < 0) {
+  			continue;
+  		}
+  		// get the differences from the matrix (upper triangle, the lower one has the opposite sign)
+  		float avgDiff;
+  		int frq;
+  		if (i == j) {
+  			avgDiff = 0;
+  			frq = m.ratingCounts[i];
+  		}
+  		else {
+  			int lo = Math.min(i, j);
+  			int k = m.find(lo, Math.max(i, j));
+  			if (k < 0) {
+  				continue;
+  			}
+  			frq = m.counts[lo][k];
+  			avgDiff = m.sums[lo][k] / frq;
+  			if (lo != i) {
+  				avgDiff = -avgDiff;
+  			}
+  		}
+			prediction += (avgDiff + rj.rating) * frq;
+			frequency += frq;
   	}
   	if (frequency > 0) {
   		prediction = prediction / frequency;
@@ -59,7 +108,6 @@ public class SlopeOneRecommender extends AbstractRecommender {
   	if (prediction == 0) {
   		return Float.NaN;
   	}
-//  	System.out.println("Final prediction: " + prediction);
 		return prediction;
 	}
 
@@ -78,53 +126,119 @@ public class SlopeOneRecommender extends AbstractRecommender {
 	@Override
 	public void init() throws Exception {
 
+		long phaseStart = System.nanoTime();
 		buildDiffMatrix();    
+		recordPhase("difference matrix", phaseStart);
 
 	}
 
 
 
 	/**
-	 * As taken from Lemire's code: Calculates the rating differences
+	 * Calculates the rating differences of all co-rated item pairs
 	 */
   public void buildDiffMatrix() {
-    mDiffMatrix = new HashMap<Integer,Map<Integer,Float>>();
-    mFreqMatrix = new HashMap<Integer,Map<Integer,Integer>>();
-    // iterate through all ratings
-    for(Integer user : dataModel.getUsers()) {
-      // then iterate through user data
-    	
-      for(Rating rating1 : dataModel.getRatingsOfUser(user)) {
-        if(!mDiffMatrix.containsKey(rating1.item)) {
-          mDiffMatrix.put(rating1.item, new HashMap<Integer,Float>());
-          mFreqMatrix.put(rating1.item, new HashMap<Integer,Integer>());
-        }
-        for(Rating rating2: dataModel.getRatingsOfUser(user)) {
-          int oldcount = 0;
-          if(mFreqMatrix.get(rating1.item).containsKey(rating2.item)) {
-            oldcount = mFreqMatrix.get(rating1.item).get(rating2.item).intValue();
-          }
-          float olddiff = 0.0f;
-          if(mDiffMatrix.get(rating1.item).containsKey(rating2.item)) {
-            olddiff = mDiffMatrix.get(rating1.item).get(rating2.item).floatValue();
-          }
-          float observeddiff = rating1.rating - rating2.rating;
-          mFreqMatrix.get(rating1.item).put(rating2.item,oldcount + 1);
-          mDiffMatrix.get(rating1.item).put(rating2.item,olddiff+observeddiff);          
-        }
-      }
-    }
-    for (Integer j : mDiffMatrix.keySet()) {
-      for (Integer i : mDiffMatrix.get(j).keySet()) {
-        float oldvalue = mDiffMatrix.get(j).get(i).floatValue();
-        int count = mFreqMatrix.get(j).get(i).intValue();
-        mDiffMatrix.get(j).put(i,oldvalue/count);
-      }
-    }
+  	DeviationMatrix m = DeviationMatrix.build(dataModel, nbThreads);
+  	Debug.log("SlopeOne: " + m.getNbPairs() + " co-rated item pairs of " + m.nbItems + " items");
+  	matrix = m;
   }
-  
-   
-}
 
+	// =====================================================================================
+
+	/**
+	 * Adds a rating to the data model and updates the differences of the item with the other
+	 * items of the user, so the model does not have to be trained again. An existing rating of
+	 * the user for the item is replaced. Takes O(number of ratings of the user) matrix updates.
+	 * The data model of the recommender must be modifiable (not a fold view, a CompactDataModel
+	 * or an unmodifiable() copy) and the incremental updates must have been enabled before the
+	 * first prediction. Blocks the predictions while the matrix is updated.
+	 * @param user the user
+	 * @param item the item
+	 * @param value the rating value
+	 * @throws IllegalStateException if the incremental updates are not enabled
+	 * @throws UnsupportedOperationException if the data model cannot be modified
+	 */
+	public void addRating(int user, int item, float value) {
+		checkModifiable();
+		lock.writeLock().lock();
+		try {
+			if (dataModel.getRatingObject(user, item) != null) {
+				removeRating(user, item);
+			}
+			boolean newItem = !dataModel.getItems().contains(item);
+			// The data model first, so a failing update leaves the matrix untouched
+			dataModel.addRating(user, item, value);
+			DeviationMatrix m = matrix;
+			if (m != null) {
+				// the new rating itself is skipped by update()
+				m.update(item, value, dataModel.getRatingsOfUser(user), 1);
+			}
+			if (newItem) {
+				resetScoringItems();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a rating from the data model and from the differences, see addRating().
+	 * @param user the user
+	 * @param item the item
+	 * @return false if the user has not rated the item
+	 * @throws IllegalStateException if the incremental updates are not enabled
+	 * @throws UnsupportedOperationException if the data model cannot be modified
+	 */
+	public boolean removeRating(int user, int item) {
+		checkModifiable();
+		lock.writeLock().lock();
+		try {
+			Rating r = dataModel.getRatingObject(user, item);
+			if (r == null) {
+				return false;
+			}
+			dataModel.removeRating(r);
+			DeviationMatrix m = matrix;
+			if (m != null) {
+				m.update(item, r.rating, dataModel.getRatingsOfUser(user), -1);
+			}
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void checkModifiable() {
+		if (!incrementalUpdates) {
+			throw new IllegalStateException("SlopeOne: incremental updates are not enabled (setIncrementalUpdates)");
+		}
+		if (!dataModel.isModifiable()) {
+			throw new UnsupportedOperationException("SlopeOne: the data model (" + dataModel.getClass().getSimpleName()
+					+ ") cannot be modified");
+		}
+	}
 
+	/**
+	 * Setter for the number of threads used to compute the differences
+	 * @param n the number of threads
+	 */
+	@R101Setting(displayName="Threads", description="The number of threads used to compute the item differences",
+			defaultValue="1", type=SettingsType.INTEGER, minValue=1)
+	public void setThreads(String n) {
+		this.nbThreads = Integer.parseInt(n);
+	}
 
+	/**
+	 * Enables addRating() and removeRating(). The predictions are then synchronized with the updates,
+	 * which costs a read lock per prediction. Must be set before the recommender is used
+	 * @param value should be "true"
+	 */
+	@R101Setting(displayName="Incremental updates", description="Allows adding and removing ratings after the training",
+			defaultValue="false", type=SettingsType.BOOLEAN)
+	public void setIncrementalUpdates(String value) {
+		this.incrementalUpdates = "true".equalsIgnoreCase(value);
+	}
+   
+}
@@ -106,6 +106,14 @@ public class WeightedAverageRecommender extends AbstractRecommender {
 		return recommendItemsByRatingPrediction(user);
 	}
 
+	/**
+	 * The top-n list based on the rating predictions
+	 */
+	@Override
+	public int[] recommendTopN(int user, int n) {
+		return recommendTopNByRatingPrediction(user, n);
+	}
+
 	@Override
 	public void init() throws Exception {
 		// Calculates the averages for the data model
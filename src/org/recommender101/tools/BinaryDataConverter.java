@@ -0,0 +1,96 @@
+package org.recommender101.tools;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.Arrays;
+
+import org.recommender101.data.extensions.dataloader.BinaryDataLoader;
+
+/**
+ * Converts a text rating file (user sep item sep rating [sep timestamp]) once into the
+ * binary format that can be memory mapped by the BinaryDataLoader.
+ *
+ * Usage: BinaryDataConverter inputFile outputFile [separator] [withTimestamps]
+ */
+public class BinaryDataConverter {
+
+	static String inputFile = "data/movielens/ratings.txt";
+	static String outputFile = "data/movielens/ratings.bin";
+	static String separatorString = "\t";
+	static boolean withTimestamps = false;
+
+	/**
+	 * Main entry point. Reads the text file and writes the binary one
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0) inputFile = args[0];
+		if (args.length > 1) outputFile = args[1];
+		if (args.length > 2) separatorString = args[2];
+		if (args.length > 3) withTimestamps = Boolean.parseBoolean(args[3]);
+		System.out.println("Starting binary data converter");
+		try {
+			int n = convert(inputFile, outputFile, separatorString, withTimestamps);
+			System.out.println("Wrote " + n + " ratings to " + outputFile);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.out.println("Program ended.");
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Reads the text file and writes the binary file
+	 * @param input the text file
+	 * @param output the binary file
+	 * @param separator the column separator of the text file
+	 * @param timestamps should the fourth column be kept
+	 * @return the number of ratings written
+	 * @throws Exception
+	 */
+	public static int convert(String input, String output, String separator, boolean timestamps) throws Exception {
+		int capacity = 1 << 16;
+		int[] users = new int[capacity];
+		int[] items = new int[capacity];
+		float[] ratings = new float[capacity];
+		long[] times = timestamps ? new long[capacity] : null;
+		int n = 0;
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		try {
+			String line;
+			String[] tokens;
+			while ((line = reader.readLine()) != null) {
+				// Skip comment lines
+				if (line.trim().startsWith("//")) {
+					continue;
+				}
+				if (n == capacity) {
+					capacity <<= 1;
+					users = Arrays.copyOf(users, capacity);
+					items = Arrays.copyOf(items, capacity);
+					ratings = Arrays.copyOf(ratings, capacity);
+					if (timestamps) {
+						times = Arrays.copyOf(times, capacity);
+					}
+				}
+				tokens = line.split(separator);
+				users[n] = Integer.parseInt(tokens[0]);
+				items[n] = Integer.parseInt(tokens[1]);
+				ratings[n] = Float.parseFloat(tokens[2]);
+				if (timestamps) {
+					times[n] = Long.parseLong(tokens[3]);
+				}
+				n++;
+			}
+		}
+		finally {
+			reader.close();
+		}
+		BinaryDataLoader.writeBinaryFile(output, users, items, ratings, times, n);
+		return n;
+	}
+
+}
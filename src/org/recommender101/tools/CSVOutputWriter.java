@@ -11,6 +11,7 @@ import java.util.Map.Entry;
 
 import org.recommender101.eval.impl.Recommender101Impl;
 import org.recommender101.eval.interfaces.EvaluationResult;
+import org.recommender101.eval.interfaces.LatencyHistogram;
 import org.recommender101.eval.interfaces.RuntimeResult;
 
 /**
@@ -198,6 +199,81 @@ public class CSVOutputWriter {
 		
 	}
 
+	/**
+	 * Writes and appends the detailed runtime measurements to a csv file, one value per line:
+	 * the phases of the training and the evaluation, the latency percentiles and throughput of
+	 * the predictions and recommendations, the CPU time and allocated bytes per thread and the
+	 * peak heap usage
+	 * @param runtimeResults Runtime results
+	 * @param csvPath Path to CSV file
+	 * @throws IOException
+	 */
+	public static void writeRuntimeDetailsToCSV(String experimentTitle, Map<Integer, List<RuntimeResult>> runtimeResults, String csvPath, boolean append) throws IOException {
+		File file = new File(csvPath);
+		FileWriter writer = new FileWriter(file, append);
+
+		// print title of evaluation run
+		writer.write(experimentTitle + " \n");
+
+		writer.write("EvaluationRound;Algorithm;Measurement;Name;Value;Unit");
+		writer.write("\n");
+
+		for (Integer i : runtimeResults.keySet()) {
+			for (RuntimeResult r : runtimeResults.get(i)) {
+				String prefix = r.getEvaluationRound() + ";" + Utilities101.removePackageQualifiers(r.getAlgorithm()) + ";";
+				for (String phase : r.getPhases()) {
+					writer.write(prefix + "PhaseTime;" + phase + ";" + format(r.getPhaseTime(phase) / 1e6) + ";ms\n");
+					writer.write(prefix + "PhaseCount;" + phase + ";" + r.getPhaseCount(phase) + ";\n");
+				}
+				writeLatency(writer, prefix + "PredictionLatency;", r.getPredictionLatency());
+				writeLatency(writer, prefix + "RecommendationLatency;", r.getRecommendationLatency());
+				writer.write(prefix + "Throughput;" + RuntimeResult.PHASE_PREDICTIONS + ";" + format(r.getPredictionThroughput()) + ";1/s\n");
+				writer.write(prefix + "Throughput;" + RuntimeResult.PHASE_RECOMMENDATIONS + ";" + format(r.getRecommendationThroughput()) + ";1/s\n");
+				for (RuntimeResult.ThreadUsage usage : r.getThreadUsages()) {
+					String name = usage.getPhase() + "@" + usage.getThread();
+					writer.write(prefix + "CpuTime;" + name + ";" + (usage.getCpuTime() < 0 ? "" : format(usage.getCpuTime() / 1e6)) + ";ms\n");
+					writer.write(prefix + "AllocatedBytes;" + name + ";" + (usage.getAllocatedBytes() < 0 ? "" : format(usage.getAllocatedBytes() / 1e6)) + ";MB\n");
+				}
+				writer.write(prefix + "PeakHeap;;" + (r.getPeakHeapUsage() < 0 ? "" : format(r.getPeakHeapUsage() / 1e6)) + ";MB\n");
+			}
+		}
+
+		writer.write("\n");
+
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Writes the number of calls and the p50, p95 and p99 durations
+	 */
+	static void writeLatency(FileWriter writer, String prefix, LatencyHistogram latency) throws IOException {
+		writer.write(prefix + "count;" + latency.getCount() + ";\n");
+		writer.write(prefix + "p50;" + format(latency.getPercentile(50) / 1e3) + ";us\n");
+		writer.write(prefix + "p95;" + format(latency.getPercentile(95) / 1e3) + ";us\n");
+		writer.write(prefix + "p99;" + format(latency.getPercentile(99) / 1e3) + ";us\n");
+	}
+
+	/**
+	 * Formats a measured value
+	 */
+	static String format(double value) {
+		return Recommender101Impl.decimalFormat.format(value);
+	}
+
+	/**
+	 * Returns the path of the detailed runtimes, next to the runtime csv file
+	 * (e.g. runtimes.csv -> runtimes-details.csv)
+	 * @param csvRuntimePath the path of the runtime csv file
+	 */
+	public static String getRuntimeDetailsPath(String csvRuntimePath) {
+		File file = new File(csvRuntimePath);
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String detailsName = dot > 0 ? name.substring(0, dot) + "-details" + name.substring(dot) : name + "-details";
+		return new File(file.getParentFile(), detailsName).getPath();
+	}
+
 	
 
 }
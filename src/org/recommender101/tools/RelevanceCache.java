@@ -0,0 +1,170 @@
+/** DJ **/
+package org.recommender101.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.Rating;
+import org.recommender101.eval.impl.Recommender101Impl;
+
+/**
+ * The relevant items of all users of a test data model, computed once and shared by all list
+ * metrics of the fold (see Utilities101.isItemRelevant for the definition of relevance).
+ * The relevant items of each user are kept in a sorted int array; a bitset marks the users for
+ * whom also the items without a rating count as relevant (possible with the threshold relative
+ * to the user average if the user average is below zero).
+ *
+ * The test data must not be changed while the cache is in use.
+ * @author DJ
+ *
+ */
+public class RelevanceCache {
+
+	// One cache per test data model; the data models are released with their folds
+	private static final Map<DataModel, RelevanceCache> caches = new WeakHashMap<DataModel, RelevanceCache>();
+
+	// The data model and the settings the cache was built for
+	final WeakReference<DataModel> dataModel;
+	final float minRatingForRelevance;
+	final int minPercentageAboveAverage;
+
+	// The users in ascending order
+	final int[] users;
+
+	// The relevant items of user u are at relevantItems[offsets[u]] to relevantItems[offsets[u+1]-1], sorted
+	final int[] offsets;
+	final int[] relevantItems;
+
+	// The users whose unrated items are relevant
+	final BitSet unratedRelevant;
+
+	// Are the items relevant for users without ratings in the test data?
+	final boolean unratedRelevantForUnknownUsers;
+
+	// =====================================================================================
+
+	/**
+	 * Returns the cache of a test data model and builds it if needed
+	 * @param dataModel the test data
+	 * @return the cache
+	 */
+	public static RelevanceCache getInstance(DataModel dataModel) {
+		synchronized (caches) {
+			RelevanceCache result = caches.get(dataModel);
+			if (result == null || !result.isFor(dataModel)) {
+				result = new RelevanceCache(dataModel);
+				caches.put(dataModel, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Computes the relevant items of all users
+	 */
+	RelevanceCache(DataModel dm) {
+		dataModel = new WeakReference<DataModel>(dm);
+		minRatingForRelevance = Recommender101Impl.PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE;
+		minPercentageAboveAverage = Recommender101Impl.PREDICTION_RELEVANCE_MIN_PERCENTAGE_ABOVE_AVERAGE;
+
+		Set<Integer> userSet = dm.getUsers();
+		users = new int[userSet.size()];
+		int k = 0;
+		for (Integer user : userSet) {
+			users[k++] = user;
+		}
+		Arrays.sort(users);
+
+		offsets = new int[users.length + 1];
+		unratedRelevant = new BitSet(users.length);
+		int[] items = new int[Math.max(16, dm.getRatings().size() / 2)];
+		int n = 0;
+		for (int u = 0; u < users.length; u++) {
+			Set<Rating> ratings = dm.getRatingsOfUser(users[u]);
+			double threshold = threshold(dm.getUserAverageRating(users[u]));
+			if (ratings != null) {
+				for (Rating r : ratings) {
+					if (r.rating >= threshold) {
+						if (n == items.length) {
+							items = Arrays.copyOf(items, n * 2);
+						}
+						items[n++] = r.item;
+					}
+				}
+			}
+			Arrays.sort(items, offsets[u], n);
+			offsets[u + 1] = n;
+			// a missing rating is -1
+			if (-1 >= threshold) {
+				unratedRelevant.set(u);
+			}
+		}
+		relevantItems = Arrays.copyOf(items, n);
+		// the user average of unknown users is -1 as well
+		unratedRelevantForUnknownUsers = -1 >= threshold(-1);
+	}
+
+	/**
+	 * The rating a relevant item needs, as in Utilities101.isItemRelevant
+	 */
+	double threshold(float userAvg) {
+		if (minRatingForRelevance > 0) {
+			return minRatingForRelevance;
+		}
+		double threshold = userAvg;
+		if (minPercentageAboveAverage > 0) {
+			threshold = threshold + (threshold * (minPercentageAboveAverage / (double) 100));
+		}
+		return threshold;
+	}
+
+	/**
+	 * Was the cache built for this data model and the current relevance settings?
+	 */
+	public boolean isFor(DataModel dm) {
+		return dataModel.get() == dm
+				&& minRatingForRelevance == Recommender101Impl.PREDICTION_RELEVANCE_MIN_RATING_FOR_RELEVANCE
+				&& minPercentageAboveAverage == Recommender101Impl.PREDICTION_RELEVANCE_MIN_PERCENTAGE_ABOVE_AVERAGE;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Is the item relevant for the user?
+	 * @param item the item id
+	 * @param user the user id
+	 * @return the same as Utilities101.isItemRelevant for the test data
+	 */
+	public boolean isRelevant(int item, int user) {
+		int u = Arrays.binarySearch(users, user);
+		if (u < 0) {
+			return unratedRelevantForUnknownUsers;
+		}
+		if (Arrays.binarySearch(relevantItems, offsets[u], offsets[u + 1], item) >= 0) {
+			return true;
+		}
+		return unratedRelevant.get(u) && !isRated(item, u);
+	}
+
+	/**
+	 * The number of relevant rated items of a user
+	 */
+	public int getNbRelevantItems(int user) {
+		int u = Arrays.binarySearch(users, user);
+		return u < 0 ? 0 : offsets[u + 1] - offsets[u];
+	}
+
+	/**
+	 * Only needed for users whose unrated items are relevant
+	 */
+	boolean isRated(int item, int u) {
+		DataModel dm = dataModel.get();
+		return dm != null && dm.getRating(users[u], item) != -1;
+	}
+
+}
@@ -0,0 +1,89 @@
+/** DJ **/
+package org.recommender101.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Access to the CPU time and the allocated bytes of the current thread and to the peak
+ * heap usage of the JVM. The values are -1 if the JVM cannot measure them.
+ * @author DJ
+ *
+ */
+public class ThreadStatistics {
+
+	// The (com.sun.management) thread bean, null if the allocated bytes cannot be read
+	static final com.sun.management.ThreadMXBean allocationBean;
+
+	static {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean result = null;
+		try {
+			if (bean instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+				result = (com.sun.management.ThreadMXBean) bean;
+				if (!result.isThreadAllocatedMemoryEnabled()) {
+					result.setThreadAllocatedMemoryEnabled(true);
+				}
+			}
+			if (bean.isCurrentThreadCpuTimeSupported() && !bean.isThreadCpuTimeEnabled()) {
+				bean.setThreadCpuTimeEnabled(true);
+			}
+		}
+		catch (UnsupportedOperationException e) {
+			System.err.println("[Warning] Cannot measure the threads: " + e.getMessage());
+		}
+		allocationBean = result;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The CPU time of the current thread in ns
+	 */
+	public static long getCpuTime() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!bean.isCurrentThreadCpuTimeSupported()) {
+			return -1;
+		}
+		return bean.getCurrentThreadCpuTime();
+	}
+
+	/**
+	 * The bytes allocated by the current thread so far
+	 */
+	public static long getAllocatedBytes() {
+		if (allocationBean == null) {
+			return -1;
+		}
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * The peak usage of the heap (sum of the peaks of the heap pools) since the start of the
+	 * JVM or the last call of resetPeakHeapUsage()
+	 */
+	public static long getPeakHeapUsage() {
+		long result = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts a new period for getPeakHeapUsage()
+	 */
+	public static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+}
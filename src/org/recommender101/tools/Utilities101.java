@@ -57,8 +57,8 @@ public class Utilities101 {
 	 */
 	public static Map<Integer, Integer> calculateRatingsPerItem(DataModel dm) {
 		Map<Integer, Integer> result = new HashMap<Integer, Integer>();
-		for (Rating r : dm.getRatings()) {
-			Utilities101.incrementMapValue(result, r.item);
+		for (Map.Entry<Integer, Set<Rating>> entry : dm.getRatingsPerItem().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().size());
 		}
 		return result;
 	}
@@ -570,7 +570,7 @@ public class Utilities101 {
 	public static Map<Integer, Float> getItemRatingVariances(DataModel dm) {
 		
 		Map<Integer, Float> result = new HashMap<Integer, Float>();
-		Map<Integer, Set<Rating>> ratingsPerItem = Utilities101.getRatingsOfItems(dm.getRatings());
+		Map<Integer, Set<Rating>> ratingsPerItem = dm.getRatingsPerItem();
 		
 		for (Integer item : dm.getItems()) {
 			Set<Rating> itemRatings = ratingsPerItem.get(item);
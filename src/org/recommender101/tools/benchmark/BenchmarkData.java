@@ -0,0 +1,166 @@
+/** DJ **/
+package org.recommender101.tools.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.Rating;
+
+/**
+ * Reproducible data sets for the benchmarks. The same name and seed always give the same ratings.
+ * - synthetic: uniformly distributed users, items and rating values
+ * - movielens: the shape of MovieLens 100k (943 users, 1682 items, 100.000 ratings, at least 20
+ *   ratings per user, long-tail item popularity and the ML rating distribution)
+ * @author DJ
+ *
+ */
+public class BenchmarkData {
+
+	// The rating distribution of MovieLens 100k (1 to 5 stars)
+	static final double[] ML_RATING_DISTRIBUTION = {0.061, 0.114, 0.271, 0.342, 0.212};
+
+	// =====================================================================================
+
+	/**
+	 * Creates one of the data sets
+	 * @param name synthetic, movielens, or movielens-xN for a MovieLens-shaped set N times as large
+	 * @param seed the seed of the generator
+	 * @return the data set
+	 */
+	public static DataModel create(String name, long seed) {
+		if ("synthetic".equals(name)) {
+			return synthetic(2000, 2000, 100000, seed);
+		}
+		if ("movielens".equals(name)) {
+			return movieLensShaped(1, seed);
+		}
+		if (name.startsWith("movielens-x")) {
+			return movieLensShaped(Integer.parseInt(name.substring("movielens-x".length())), seed);
+		}
+		throw new IllegalArgumentException("Unknown data set: " + name + " (synthetic, movielens, movielens-xN)");
+	}
+
+	/**
+	 * Uniformly distributed ratings
+	 * @param nbUsers the number of users
+	 * @param nbItems the number of items
+	 * @param nbRatings the number of ratings (duplicate pairs are drawn again)
+	 * @param seed the seed
+	 * @return the data set
+	 */
+	public static DataModel synthetic(int nbUsers, int nbItems, int nbRatings, long seed) {
+		Random random = new Random(seed);
+		DataModel dm = new DataModel();
+		int count = 0;
+		while (count < nbRatings) {
+			int user = random.nextInt(nbUsers) + 1;
+			int item = random.nextInt(nbItems) + 1;
+			if (dm.getRating(user, item) == -1) {
+				dm.addRating(user, item, random.nextInt(5) + 1);
+				count++;
+			}
+		}
+		return dm;
+	}
+
+	/**
+	 * Ratings with the shape of MovieLens 100k: the number of ratings per user is skewed, the
+	 * items are drawn from a Zipf-like popularity distribution
+	 * @param scale the factor for the number of users, items and ratings
+	 * @param seed the seed
+	 * @return the data set
+	 */
+	public static DataModel movieLensShaped(int scale, long seed) {
+		int nbUsers = 943 * scale;
+		int nbItems = 1682 * scale;
+		int nbRatings = 100000 * scale;
+		int minPerUser = 20;
+		Random random = new Random(seed);
+
+		// The number of ratings per user: 20 plus an exponentially distributed part
+		int[] perUser = new int[nbUsers];
+		double mean = (double) nbRatings / nbUsers - minPerUser;
+		int total = 0;
+		for (int u = 0; u < nbUsers; u++) {
+			perUser[u] = minPerUser + (int) Math.min(nbItems / 2, -mean * Math.log(1 - random.nextDouble()));
+			total += perUser[u];
+		}
+		// Corrected to the exact number of ratings
+		while (total != nbRatings) {
+			int u = random.nextInt(nbUsers);
+			if (total < nbRatings && perUser[u] < nbItems / 2) {
+				perUser[u]++;
+				total++;
+			}
+			else if (total > nbRatings && perUser[u] > minPerUser) {
+				perUser[u]--;
+				total--;
+			}
+		}
+
+		// Cumulative Zipf weights of the items
+		double[] cumulative = new double[nbItems];
+		double sum = 0;
+		for (int i = 0; i < nbItems; i++) {
+			sum += 1.0 / Math.pow(i + 1, 0.8);
+			cumulative[i] = sum;
+		}
+
+		DataModel dm = new DataModel();
+		for (int u = 0; u < nbUsers; u++) {
+			int user = u + 1;
+			int count = 0;
+			// Each user has an own tendency to rate high or low
+			double bias = random.nextGaussian() * 0.5;
+			while (count < perUser[u]) {
+				int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+				int item = (index < 0 ? -index - 1 : index) + 1;
+				if (dm.getRating(user, item) == -1) {
+					dm.addRating(user, item, ratingValue(random, bias));
+					count++;
+				}
+			}
+		}
+		return dm;
+	}
+
+	/**
+	 * Draws a rating value from the ML distribution, shifted by the user bias
+	 */
+	static int ratingValue(Random random, double bias) {
+		double p = random.nextDouble();
+		int value = 1;
+		for (int k = 0; k < ML_RATING_DISTRIBUTION.length; k++) {
+			p -= ML_RATING_DISTRIBUTION[k];
+			if (p <= 0) {
+				value = k + 1;
+				break;
+			}
+			value = k + 1;
+		}
+		return (int) Math.max(1, Math.min(5, Math.round(value + bias)));
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Writes the ratings in the MovieLens format (user tab item tab rating tab timestamp)
+	 * @param dm the ratings
+	 * @param file the file
+	 * @throws Exception
+	 */
+	public static void writeRatingFile(DataModel dm, File file) throws Exception {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		long timestamp = 874724710L;
+		for (Rating r : dm.getRatings()) {
+			writer.write(r.user + "\t" + r.item + "\t" + (int) r.rating + "\t" + (timestamp++));
+			writer.newLine();
+		}
+		writer.close();
+	}
+
+}
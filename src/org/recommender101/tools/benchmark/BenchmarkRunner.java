@@ -0,0 +1,162 @@
+/** DJ **/
+package org.recommender101.tools.benchmark;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+import org.recommender101.tools.ThreadStatistics;
+
+/**
+ * A small benchmark harness (warmup and measured iterations, timed with System.nanoTime).
+ * Besides the time per operation, the allocated bytes per operation, the allocation rate
+ * and the garbage collections during the measured iterations are reported.
+ * The allocated bytes are those of the benchmark thread (see ThreadStatistics),
+ * the benchmarks therefore run the recommenders with one thread.
+ * @author DJ
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * A benchmark. setup() is called once, prepare() before each invocation of run(), only run() is measured.
+	 */
+	public static abstract class Case {
+		// The name in the report
+		final String name;
+		// The number of operations per invocation of run()
+		final int operations;
+
+		public Case(String name, int operations) {
+			this.name = name;
+			this.operations = operations;
+		}
+
+		public void setup() throws Exception {}
+
+		public void prepare() throws Exception {}
+
+		/**
+		 * The measured code. The result is consumed so that the work cannot be optimized away.
+		 */
+		public abstract Object run() throws Exception;
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	// The number of warmup and measured invocations of a case
+	int warmupIterations = 3;
+	int measuredIterations = 5;
+
+	// Keeps the results alive
+	static volatile int sink = 0;
+
+	// =====================================================================================
+
+	/**
+	 * Creates the runner
+	 * @param warmupIterations the number of warmup invocations per case
+	 * @param measuredIterations the number of measured invocations per case
+	 */
+	public BenchmarkRunner(int warmupIterations, int measuredIterations) {
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+	}
+
+	/**
+	 * Runs the cases and prints one line per case
+	 * @param cases the cases
+	 * @param out the stream for the report
+	 */
+	public void run(List<Case> cases, PrintStream out) {
+		out.println(String.format(Locale.US, "%-58s %14s %12s %14s %10s %6s %8s",
+				"Benchmark", "ns/op", "min ms/inv", "alloc B/op", "MB/s", "gc", "gc ms"));
+		for (Case c : cases) {
+			try {
+				out.println(measure(c));
+			}
+			catch (Exception e) {
+				System.err.println("[Error] Benchmark " + c.name + " failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Measures a case
+	 * @return the report line
+	 */
+	String measure(Case c) throws Exception {
+		c.setup();
+		for (int i = 0; i < warmupIterations; i++) {
+			c.prepare();
+			consume(c.run());
+		}
+		long totalTime = 0;
+		long minTime = Long.MAX_VALUE;
+		long allocated = 0;
+		long gcCount = 0;
+		long gcTime = 0;
+		for (int i = 0; i < measuredIterations; i++) {
+			c.prepare();
+			long gcCountBefore = gcCount();
+			long gcTimeBefore = gcTime();
+			long allocatedBefore = ThreadStatistics.getAllocatedBytes();
+			long start = System.nanoTime();
+			Object result = c.run();
+			long time = System.nanoTime() - start;
+			allocated += ThreadStatistics.getAllocatedBytes() - allocatedBefore;
+			gcCount += gcCount() - gcCountBefore;
+			gcTime += gcTime() - gcTimeBefore;
+			consume(result);
+			totalTime += time;
+			minTime = Math.min(minTime, time);
+		}
+		double operations = (double) measuredIterations * c.operations;
+		String allocation = "n/a";
+		String rate = "n/a";
+		if (ThreadStatistics.getAllocatedBytes() >= 0) {
+			allocation = String.format(Locale.US, "%.1f", allocated / operations);
+			rate = String.format(Locale.US, "%.1f", totalTime == 0 ? 0 : (allocated / 1e6) / (totalTime / 1e9));
+		}
+		return String.format(Locale.US, "%-58s %14.1f %12.3f %14s %10s %6d %8d",
+				c.name, totalTime / operations, minTime / 1e6, allocation, rate, gcCount, gcTime);
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Uses the result so that the JIT cannot remove the computation
+	 */
+	static void consume(Object result) {
+		if (result != null) {
+			sink += System.identityHashCode(result);
+		}
+	}
+
+	/**
+	 * The number of garbage collections so far
+	 */
+	static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * The time spent in garbage collections so far (ms)
+	 */
+	static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+}
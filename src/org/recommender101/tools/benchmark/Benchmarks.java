@@ -0,0 +1,413 @@
+/** DJ **/
+package org.recommender101.tools.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.recommender101.data.DataModel;
+import org.recommender101.data.DefaultDataLoader;
+import org.recommender101.data.Rating;
+import org.recommender101.eval.interfaces.ItemRanks;
+import org.recommender101.eval.interfaces.RecommendationlistEvaluator;
+import org.recommender101.eval.metrics.F1;
+import org.recommender101.eval.metrics.FCP;
+import org.recommender101.eval.metrics.MAP;
+import org.recommender101.eval.metrics.MRR;
+import org.recommender101.eval.metrics.NDCG;
+import org.recommender101.eval.metrics.Precision;
+import org.recommender101.eval.metrics.ROCAUC;
+import org.recommender101.eval.metrics.Recall;
+import org.recommender101.eval.metrics.UserCoverage;
+import org.recommender101.eval.metrics.extensions.AverageItemPopularityOfRecommendations;
+import org.recommender101.eval.metrics.extensions.Gini;
+import org.recommender101.eval.metrics.extensions.NumberOfRecommendedItems;
+import org.recommender101.recommender.baseline.NearestNeighbors;
+import org.recommender101.recommender.extensions.bprmf.BPRMFRecommender;
+import org.recommender101.recommender.extensions.funksvd.FunkSVDRecommender;
+import org.recommender101.recommender.extensions.slopeone.SlopeOneRecommender;
+
+/**
+ * Benchmarks of the hot paths: the data model, data loading, neighborhood and slope one
+ * training, predictions, recommendation lists, one epoch of BPRMF and FunkSVD and the
+ * list metrics. Run it before and after a change on the same data set.
+ *
+ * Usage: Benchmarks [dataset [filter [warmup measured]]]
+ * - dataset: synthetic, movielens (default) or movielens-xN, see BenchmarkData
+ * - filter: only the benchmarks whose name contains this string
+ * - warmup, measured: the number of invocations per benchmark (default 3 and 5)
+ * @author DJ
+ *
+ */
+public class Benchmarks {
+
+	// The seed of the data sets, splits and samples
+	static final long SEED = 101;
+
+	// The share of the ratings in the test data
+	static final double TEST_SHARE = 0.2;
+
+	// The length of the evaluated recommendation lists
+	static final int LIST_LENGTH = 100;
+
+	// The data
+	final String dataSetName;
+	final DataModel dataModel;
+	final DataModel trainingData;
+	final DataModel testData;
+
+	// =====================================================================================
+
+	/**
+	 * Main entry point
+	 */
+	public static void main(String[] args) {
+		try {
+			String dataSet = args.length > 0 ? args[0] : "movielens";
+			String filter = args.length > 1 ? args[1] : "";
+			int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+			int measured = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+			Benchmarks benchmarks = new Benchmarks(dataSet);
+			List<BenchmarkRunner.Case> cases = new ArrayList<BenchmarkRunner.Case>();
+			for (BenchmarkRunner.Case c : benchmarks.createCases()) {
+				if (c.getName().contains(filter)) {
+					cases.add(c);
+				}
+			}
+			System.out.println("Data set " + dataSet + " (seed " + SEED + "): " + benchmarks.dataModel.getUsers().size() + " users, "
+					+ benchmarks.dataModel.getItems().size() + " items, " + benchmarks.dataModel.getRatings().size() + " ratings; "
+					+ warmup + " warmup and " + measured + " measured invocations");
+			new BenchmarkRunner(warmup, measured).run(cases, System.out);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates the data set and splits it into training and test data
+	 * @param dataSetName the name of the data set
+	 */
+	public Benchmarks(String dataSetName) {
+		this.dataSetName = dataSetName;
+		this.dataModel = BenchmarkData.create(dataSetName, SEED);
+
+		// The split must not depend on the iteration order of the rating set
+		List<Rating> ratings = sortedRatings(dataModel);
+		Random random = new Random(SEED);
+		trainingData = new DataModel();
+		testData = new DataModel();
+		for (Rating r : ratings) {
+			(random.nextDouble() < TEST_SHARE ? testData : trainingData).addRating(r.user, r.item, r.rating);
+		}
+	}
+
+	// =====================================================================================
+
+	/**
+	 * Creates all benchmarks
+	 */
+	public List<BenchmarkRunner.Case> createCases() {
+		List<BenchmarkRunner.Case> cases = new ArrayList<BenchmarkRunner.Case>();
+		cases.addAll(dataModelCases());
+		cases.addAll(recommenderCases());
+		cases.addAll(metricCases());
+		return cases;
+	}
+
+	/**
+	 * Data model access, creation and loading
+	 */
+	List<BenchmarkRunner.Case> dataModelCases() {
+		List<BenchmarkRunner.Case> cases = new ArrayList<BenchmarkRunner.Case>();
+		final List<Rating> ratings = sortedRatings(dataModel);
+
+		// Half of the looked up pairs are rated
+		final int lookups = 200000;
+		final int[] users = new int[lookups];
+		final int[] items = new int[lookups];
+		final int[] userIds = sortedIds(dataModel.getUsers());
+		final int[] itemIds = sortedIds(dataModel.getItems());
+		Random random = new Random(SEED);
+		for (int k = 0; k < lookups; k++) {
+			if (k % 2 == 0) {
+				Rating r = ratings.get(random.nextInt(ratings.size()));
+				users[k] = r.user;
+				items[k] = r.item;
+			}
+			else {
+				users[k] = userIds[random.nextInt(userIds.length)];
+				items[k] = itemIds[random.nextInt(itemIds.length)];
+			}
+		}
+		cases.add(new BenchmarkRunner.Case("DataModel.getRating", lookups) {
+			public Object run() {
+				float sum = 0;
+				for (int k = 0; k < lookups; k++) {
+					sum += dataModel.getRating(users[k], items[k]);
+				}
+				return sum;
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("DataModel.addRating", ratings.size()) {
+			public Object run() {
+				DataModel dm = new DataModel();
+				for (Rating r : ratings) {
+					dm.addRating(r.user, r.item, r.rating);
+				}
+				return dm;
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("DataModel(DataModel)", 1) {
+			public Object run() {
+				return new DataModel(dataModel);
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("DefaultDataLoader.loadData", 1) {
+			DefaultDataLoader loader;
+
+			public void setup() throws Exception {
+				File file = File.createTempFile("r101-benchmark", ".txt");
+				file.deleteOnExit();
+				BenchmarkData.writeRatingFile(dataModel, file);
+				loader = new DefaultDataLoader();
+				loader.setFilename(file.getAbsolutePath());
+			}
+
+			public Object run() throws Exception {
+				DataModel dm = new DataModel();
+				loader.loadData(dm);
+				return dm;
+			}
+		});
+		return cases;
+	}
+
+	/**
+	 * Recommender training, predictions and lists
+	 */
+	List<BenchmarkRunner.Case> recommenderCases() {
+		List<BenchmarkRunner.Case> cases = new ArrayList<BenchmarkRunner.Case>();
+
+		for (final boolean itemBased : new boolean[] {false, true}) {
+			cases.add(new BenchmarkRunner.Case("NearestNeighbors.init (" + (itemBased ? "item" : "user") + "-based)", 1) {
+				NearestNeighbors recommender;
+
+				public void prepare() {
+					recommender = nearestNeighbors(itemBased);
+				}
+
+				public Object run() throws Exception {
+					recommender.init();
+					return recommender;
+				}
+			});
+		}
+
+		// Predictions for the pairs of the test data
+		final List<Rating> testRatings = sortedRatings(testData);
+		final int predictions = Math.min(20000, testRatings.size());
+		cases.add(new BenchmarkRunner.Case("NearestNeighbors.predictRating", predictions) {
+			NearestNeighbors recommender;
+
+			public void setup() throws Exception {
+				recommender = nearestNeighbors(false);
+				recommender.init();
+			}
+
+			public Object run() {
+				float sum = 0;
+				for (int k = 0; k < predictions; k++) {
+					Rating r = testRatings.get(k);
+					float p = recommender.predictRating(r.user, r.item);
+					if (!Float.isNaN(p)) {
+						sum += p;
+					}
+				}
+				return sum;
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("SlopeOneRecommender.buildDiffMatrix", 1) {
+			SlopeOneRecommender recommender;
+
+			public void prepare() {
+				recommender = new SlopeOneRecommender();
+				recommender.setDataModel(trainingData);
+			}
+
+			public Object run() {
+				recommender.buildDiffMatrix();
+				return recommender;
+			}
+		});
+
+		final int[] listUsers = sortedIds(testData.getUsers());
+		final int nbListUsers = Math.min(20, listUsers.length);
+		cases.add(new BenchmarkRunner.Case("recommendItemsByRatingPrediction (user-based kNN)", nbListUsers) {
+			NearestNeighbors recommender;
+
+			public void setup() throws Exception {
+				recommender = nearestNeighbors(false);
+				recommender.init();
+			}
+
+			public Object run() {
+				int size = 0;
+				for (int k = 0; k < nbListUsers; k++) {
+					size += recommender.recommendItemsByRatingPrediction(listUsers[k]).size();
+				}
+				return size;
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("BPRMFRecommender epoch", 1) {
+			BPRMFRecommender recommender;
+
+			public void setup() {
+				recommender = new BPRMFRecommender();
+				recommender.setDataModel(trainingData);
+				recommender.setInitialSteps("0");
+				recommender.init();
+			}
+
+			public Object run() {
+				recommender.iterate();
+				return recommender;
+			}
+		});
+
+		cases.add(new BenchmarkRunner.Case("FunkSVDRecommender epoch", 1) {
+			FunkSVDRecommender recommender;
+
+			public void setup() {
+				recommender = new FunkSVDRecommender();
+				recommender.setDataModel(trainingData);
+				recommender.setInitialSteps("0");
+				recommender.init();
+			}
+
+			public Object run() {
+				recommender.train(1);
+				return recommender;
+			}
+		});
+		return cases;
+	}
+
+	/**
+	 * The user-based kNN recommender with one thread (the allocations are measured for the benchmark thread)
+	 */
+	NearestNeighbors nearestNeighbors(boolean itemBased) {
+		NearestNeighbors recommender = new NearestNeighbors();
+		recommender.setDataModel(trainingData);
+		recommender.setItemBased(Boolean.toString(itemBased));
+		recommender.setThreads("1");
+		return recommender;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * addRecommendations of the list metrics. The lists are the most popular training items
+	 * which the user has not rated in the training data.
+	 */
+	List<BenchmarkRunner.Case> metricCases() {
+		List<BenchmarkRunner.Case> cases = new ArrayList<BenchmarkRunner.Case>();
+
+		// The items by popularity (ties by id)
+		final Map<Integer, Integer> popularity = new HashMap<Integer, Integer>();
+		for (Rating r : trainingData.getRatings()) {
+			Integer count = popularity.get(r.item);
+			popularity.put(r.item, count == null ? 1 : count + 1);
+		}
+		List<Integer> popular = new ArrayList<Integer>(popularity.keySet());
+		Collections.sort(popular, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				int c = popularity.get(i2).compareTo(popularity.get(i1));
+				return c != 0 ? c : i1.compareTo(i2);
+			}
+		});
+
+		final int[] users = sortedIds(testData.getUsers());
+		final List<List<Integer>> lists = new ArrayList<List<Integer>>(users.length);
+		for (int user : users) {
+			List<Integer> list = new ArrayList<Integer>(LIST_LENGTH);
+			for (Integer item : popular) {
+				if (trainingData.getRating(user, item) == -1) {
+					list.add(item);
+					if (list.size() == LIST_LENGTH) {
+						break;
+					}
+				}
+			}
+			lists.add(list);
+		}
+
+		List<Class<? extends RecommendationlistEvaluator>> metrics = Arrays.asList(
+				Precision.class, Recall.class, F1.class, NDCG.class, MAP.class, MRR.class, ROCAUC.class, FCP.class,
+				UserCoverage.class, Gini.class, NumberOfRecommendedItems.class, AverageItemPopularityOfRecommendations.class);
+		for (final Class<? extends RecommendationlistEvaluator> metric : metrics) {
+			cases.add(new BenchmarkRunner.Case(metric.getSimpleName() + ".addRecommendations", users.length) {
+				RecommendationlistEvaluator evaluator;
+
+				public void prepare() throws Exception {
+					evaluator = metric.getDeclaredConstructor().newInstance();
+					evaluator.setTrainingDataModel(trainingData);
+					evaluator.setTestDataModel(testData);
+					evaluator.initialize();
+				}
+
+				public Object run() {
+					// One rank lookup per list, as in the experiments
+					for (int k = 0; k < users.length; k++) {
+						List<Integer> list = lists.get(k);
+						evaluator.addRecommendations(users[k], list, new ItemRanks(list));
+					}
+					return evaluator.getEvaluationResult();
+				}
+			});
+		}
+		return cases;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The ratings sorted by user and item
+	 */
+	static List<Rating> sortedRatings(DataModel dm) {
+		List<Rating> ratings = new ArrayList<Rating>(dm.getRatings());
+		Collections.sort(ratings, new Comparator<Rating>() {
+			public int compare(Rating r1, Rating r2) {
+				int c = Integer.compare(r1.user, r2.user);
+				return c != 0 ? c : Integer.compare(r1.item, r2.item);
+			}
+		});
+		return ratings;
+	}
+
+	/**
+	 * The ids in ascending order
+	 */
+	static int[] sortedIds(Set<Integer> ids) {
+		int[] result = new int[ids.size()];
+		int k = 0;
+		for (Integer id : ids) {
+			result[k++] = id;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,222 @@
+/** DJ **/
+package org.recommender101.tools.matrix;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A dense matrix of latent factors (one row per user or item) stored row-major in a single
+ * float array, i.e. row r is values[r * columns .. (r + 1) * columns - 1].
+ * Compared with a double[][] the matrix needs half the memory, has no per-row object headers
+ * and the rows lie next to each other, which is what the scoring of all items walks through.
+ * The kernels (dot products, axpy) are unrolled by four with independent partial sums so
+ * that the JIT can keep several multiply-adds in flight.
+ * @author DJ
+ *
+ */
+public class FactorMatrix implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// The dimensions
+	final int rows;
+	final int columns;
+
+	// The values, row after row
+	final float[] values;
+
+	// =====================================================================================
+
+	/**
+	 * Creates a matrix filled with zeros
+	 * @param rows the number of rows (users or items)
+	 * @param columns the number of factors
+	 */
+	public FactorMatrix(int rows, int columns) {
+		if ((long) rows * columns > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Factor matrix too large: " + rows + " x " + columns);
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.values = new float[rows * columns];
+	}
+
+	/**
+	 * Creates a matrix with the values of a double[][] (all rows of the same length)
+	 * @param matrix the values
+	 * @return the matrix
+	 */
+	public static FactorMatrix of(double[][] matrix) {
+		int columns = matrix.length > 0 ? matrix[0].length : 0;
+		FactorMatrix result = new FactorMatrix(matrix.length, columns);
+		for (int r = 0; r < matrix.length; r++) {
+			if (matrix[r].length != columns) {
+				throw new IllegalArgumentException("wrong row size: " + matrix[r].length + " vs. " + columns);
+			}
+			int offset = r * columns;
+			for (int c = 0; c < columns; c++) {
+				result.values[offset + c] = (float) matrix[r][c];
+			}
+		}
+		return result;
+	}
+
+	// =====================================================================================
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * The backing array (not a copy), row r starts at offset(r)
+	 */
+	public float[] getValues() {
+		return values;
+	}
+
+	/**
+	 * The position of the first value of a row in getValues()
+	 */
+	public int offset(int row) {
+		return row * columns;
+	}
+
+	public float get(int row, int column) {
+		return values[row * columns + column];
+	}
+
+	public void set(int row, int column, double value) {
+		values[row * columns + column] = (float) value;
+	}
+
+	public void add(int row, int column, double value) {
+		values[row * columns + column] += (float) value;
+	}
+
+	/**
+	 * A copy of a row as double array
+	 * @param row the row
+	 * @return the values of the row
+	 */
+	public double[] getRow(int row) {
+		double[] result = new double[columns];
+		int offset = row * columns;
+		for (int c = 0; c < columns; c++) {
+			result[c] = values[offset + c];
+		}
+		return result;
+	}
+
+	// =====================================================================================
+
+	/**
+	 * The dot product of a row with a row of another matrix (with the same number of columns)
+	 */
+	public double dot(int row, FactorMatrix other, int otherRow) {
+		return dot(values, row * columns, other.values, otherRow * other.columns, columns);
+	}
+
+	/**
+	 * The dot product of a row with the difference of two rows of another matrix,
+	 * i.e. row * (otherRow1 - otherRow2)
+	 */
+	public double dotDifference(int row, FactorMatrix other, int otherRow1, int otherRow2) {
+		return dotDifference(values, row * columns, other.values, otherRow1 * other.columns,
+				otherRow2 * other.columns, columns);
+	}
+
+	/**
+	 * The dot products of a row with all rows of another matrix
+	 * @param row the row of this matrix
+	 * @param other the other matrix, e.g. the item factors
+	 * @param out the results by row of the other matrix
+	 */
+	public void dotAll(int row, FactorMatrix other, float[] out) {
+		int offset = row * columns;
+		for (int r = 0; r < other.rows; r++) {
+			out[r] = (float) dot(values, offset, other.values, r * other.columns, columns);
+		}
+	}
+
+	/**
+	 * row += alpha * otherRow of another matrix (or of this one)
+	 */
+	public void axpy(double alpha, FactorMatrix other, int otherRow, int row) {
+		axpy((float) alpha, other.values, otherRow * other.columns, values, row * columns, columns);
+	}
+
+	// =====================================================================================
+	// The kernels
+
+	/**
+	 * The dot product of a[offA .. offA + n - 1] and b[offB .. offB + n - 1]
+	 */
+	public static double dot(float[] a, int offA, float[] b, int offB, int n) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += a[offA + i] * b[offB + i];
+			s1 += a[offA + i + 1] * b[offB + i + 1];
+			s2 += a[offA + i + 2] * b[offB + i + 2];
+			s3 += a[offA + i + 3] * b[offB + i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += a[offA + i] * b[offB + i];
+		}
+		return (double) (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * The dot product of a[offA ..] with the difference b[offB ..] - b[offC ..], n values each
+	 */
+	public static double dotDifference(float[] a, int offA, float[] b, int offB, int offC, int n) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += a[offA + i] * (b[offB + i] - b[offC + i]);
+			s1 += a[offA + i + 1] * (b[offB + i + 1] - b[offC + i + 1]);
+			s2 += a[offA + i + 2] * (b[offB + i + 2] - b[offC + i + 2]);
+			s3 += a[offA + i + 3] * (b[offB + i + 3] - b[offC + i + 3]);
+		}
+		for (; i < n; i++) {
+			s0 += a[offA + i] * (b[offB + i] - b[offC + i]);
+		}
+		return (double) (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * y[offY ..] += alpha * x[offX ..], n values
+	 */
+	public static void axpy(float alpha, float[] x, int offX, float[] y, int offY, int n) {
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			y[offY + i] += alpha * x[offX + i];
+			y[offY + i + 1] += alpha * x[offX + i + 1];
+			y[offY + i + 2] += alpha * x[offX + i + 2];
+			y[offY + i + 3] += alpha * x[offX + i + 3];
+		}
+		for (; i < n; i++) {
+			y[offY + i] += alpha * x[offX + i];
+		}
+	}
+
+	// =====================================================================================
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FactorMatrix)) {
+			return false;
+		}
+		FactorMatrix other = (FactorMatrix) o;
+		return rows == other.rows && columns == other.columns && Arrays.equals(values, other.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * rows + columns) + Arrays.hashCode(values);
+	}
+
+}